@@ -0,0 +1,114 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.resources;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FilesystemTernFileTest {
+
+	private File file;
+
+	@Before
+	public void init() throws IOException {
+		file = File.createTempFile("tern", ".js");
+	}
+
+	@After
+	public void stop() {
+		FilesystemTernFile.setDefaultEncoding(null);
+		FilesystemTernFile.setMaxFileSize(0);
+		FilesystemTernFile
+				.setMappingThreshold(FilesystemTernFile.DEFAULT_MAPPING_THRESHOLD);
+		file.delete();
+	}
+
+	@Test
+	public void contentsIsDecodedWithEncoding() throws IOException {
+		String text = "var \u00e9t\u00e9 = '\u20ac';";
+		write(text.getBytes("UTF-8"));
+		Assert.assertEquals(text,
+				new FilesystemTernFile(file, "UTF-8").getContents());
+
+		FilesystemTernFile.setDefaultEncoding("ISO-8859-1");
+		Assert.assertEquals(new String(text.getBytes("UTF-8"), "ISO-8859-1"),
+				new FilesystemTernFile(file).getContents());
+	}
+
+	@Test
+	public void largeFileIsMapped() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append("var a").append(i).append(" = ").append(i)
+					.append(";\n");
+		}
+		write(text.toString().getBytes("UTF-8"));
+		FilesystemTernFile.setMappingThreshold(1024);
+		Assert.assertEquals(text.toString(),
+				new FilesystemTernFile(file, "UTF-8").getContents());
+		// the char buffer of the thread is reused for a smaller file.
+		write("var a;".getBytes("UTF-8"));
+		Assert.assertEquals("var a;",
+				new FilesystemTernFile(file, "UTF-8").getContents());
+	}
+
+	@Test
+	public void malformedBytesAreReplaced() throws IOException {
+		write(new byte[] { 'a', (byte) 0xff, 'b' });
+		Assert.assertEquals("a\ufffdb",
+				new FilesystemTernFile(file, "UTF-8").getContents());
+	}
+
+	@Test
+	public void fileLargerThanMaxSizeIsSkipped() throws IOException {
+		write("var a;".getBytes("UTF-8"));
+		FilesystemTernFile ternFile = new FilesystemTernFile(file);
+		Assert.assertTrue(ternFile.isAccessible());
+
+		FilesystemTernFile.setMaxFileSize(5);
+		Assert.assertFalse(ternFile.isAccessible());
+		Assert.assertEquals("", ternFile.getContents());
+	}
+
+	@Test
+	public void unmodifiedFileIsReadFromCache() throws IOException {
+		write("var a;".getBytes("UTF-8"));
+		file.setLastModified(1000000000000L);
+		TernContentsCache cache = TernContentsCache.getInstance();
+		Assert.assertEquals("var a;",
+				new FilesystemTernFile(file).getContents());
+		long hits = cache.getHitCount();
+		Assert.assertEquals("var a;",
+				new FilesystemTernFile(file).getContents());
+		Assert.assertEquals(hits + 1, cache.getHitCount());
+
+		// same size, modified later.
+		write("var b;".getBytes("UTF-8"));
+		file.setLastModified(1000000002000L);
+		Assert.assertEquals("var b;",
+				new FilesystemTernFile(file).getContents());
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(bytes);
+		} finally {
+			output.close();
+		}
+	}
+}
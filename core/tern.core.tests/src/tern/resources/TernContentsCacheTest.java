@@ -0,0 +1,75 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.resources;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TernContentsCacheTest {
+
+	@Test
+	public void contentsIsValidatedByStampSizeAndEncoding() {
+		TernContentsCache cache = new TernContentsCache(1024);
+		cache.put("a.js", 1, 6, "UTF-8", "var a;");
+		Assert.assertEquals("var a;", cache.get("a.js", 1, 6, "UTF-8"));
+		Assert.assertEquals(1, cache.getHitCount());
+
+		Assert.assertNull(cache.get("a.js", 1, 6, "ISO-8859-1"));
+		cache.put("a.js", 1, 6, "UTF-8", "var a;");
+		Assert.assertNull(cache.get("a.js", 1, 7, "UTF-8"));
+		cache.put("a.js", 1, 6, "UTF-8", "var a;");
+		Assert.assertNull(cache.get("a.js", 2, 6, "UTF-8"));
+		Assert.assertEquals(3, cache.getMissCount());
+		// the obsolete contents is removed.
+		Assert.assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void encodingAliasesShareTheContents() {
+		TernContentsCache cache = new TernContentsCache(1024);
+		cache.put("a.js", 1, 6, "utf8", "var a;");
+		Assert.assertEquals("var a;", cache.get("a.js", 1, 6, "UTF-8"));
+		cache.put("b.js", 1, 6, "UTF-8", "var b;");
+		Assert.assertEquals("var b;", cache.get("b.js", 1, 6, "utf-8"));
+	}
+
+	@Test
+	public void recentlyModifiedContentsIsNotCached() {
+		TernContentsCache cache = new TernContentsCache(1024);
+		// the file could be modified again in the same second.
+		long stamp = System.currentTimeMillis();
+		cache.put("a.js", stamp, 6, "UTF-8", "var a;");
+		Assert.assertNull(cache.get("a.js", stamp, 6, "UTF-8"));
+		Assert.assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void leastRecentlyUsedContentsIsEvicted() {
+		// 2 bytes per char: 3 contents of 10 chars.
+		TernContentsCache cache = new TernContentsCache(60);
+		cache.put("a.js", 1, 10, null, "var a = 0;");
+		cache.put("b.js", 1, 10, null, "var b = 0;");
+		cache.put("c.js", 1, 10, null, "var c = 0;");
+		Assert.assertNotNull(cache.get("a.js", 1, 10, null));
+
+		cache.put("d.js", 1, 10, null, "var d = 0;");
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertEquals(60, cache.getSize());
+		Assert.assertNull(cache.get("b.js", 1, 10, null));
+		Assert.assertNotNull(cache.get("a.js", 1, 10, null));
+		Assert.assertNotNull(cache.get("c.js", 1, 10, null));
+
+		cache.setMaxSize(0);
+		Assert.assertEquals(0, cache.getSize());
+		cache.put("a.js", 1, 10, null, "var a = 0;");
+		Assert.assertNull(cache.get("a.js", 1, 10, null));
+	}
+}
@@ -0,0 +1,616 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.resources;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tern.ITernFile;
+import tern.ITernProject;
+import tern.scriptpath.ITernScriptPath;
+import tern.scriptpath.impl.JSFileScriptPath;
+import tern.server.MapTernFile;
+import tern.server.TernRequestPriority;
+import tern.server.protocol.TernDoc;
+import tern.server.protocol.TernFile;
+import tern.server.protocol.completions.TernCompletionsQuery;
+
+import com.eclipsesource.json.JsonArray;
+
+public class TernFileSynchronizerTest {
+
+	private TernFileSynchronizer synchronizer;
+	private List<TernFile> uploadedFiles;
+	private List<Throwable> errors;
+	private List<TernDoc> batches;
+	private ExecutorService server;
+	private AtomicInteger pendingBatches;
+	private AtomicInteger maxPendingBatches;
+
+	@Before
+	public void init() {
+		uploadedFiles = Collections.synchronizedList(new ArrayList<TernFile>());
+		errors = new ArrayList<Throwable>();
+		batches = Collections.synchronizedList(new ArrayList<TernDoc>());
+		pendingBatches = new AtomicInteger();
+		maxPendingBatches = new AtomicInteger();
+		TernProject project = new TernProject(new File(".")) {
+			@Override
+			public void handleException(Throwable t) {
+				errors.add(t);
+			}
+		};
+		synchronizer = new TernFileSynchronizer(project) {
+			@Override
+			protected Future<?> requestAsync(final TernDoc doc, int size,
+					TernRequestPriority priority) {
+				int pending = pendingBatches.incrementAndGet();
+				if (pending > maxPendingBatches.get()) {
+					maxPendingBatches.set(pending);
+				}
+				FutureTask<Void> request = new FutureTask<Void>(
+						new Callable<Void>() {
+							@Override
+							public Void call() throws Exception {
+								if (server != null) {
+									// the server parses the files.
+									Thread.sleep(20);
+								}
+								batches.add(doc);
+								for (Object file : doc.getFiles()) {
+									uploadedFiles.add((TernFile) file);
+								}
+								filesUploaded(doc);
+								pendingBatches.decrementAndGet();
+								return null;
+							}
+						});
+				if (server != null) {
+					server.execute(request);
+				} else {
+					request.run();
+				}
+				return request;
+			}
+		};
+	}
+
+	@After
+	public void stop() {
+		if (server != null) {
+			server.shutdownNow();
+		}
+	}
+
+	@Test
+	public void sameTextIsNotUploadedAgain() throws IOException {
+		synchronizer.synchronizeFile(new MapTernFile("a.js", "var a;"));
+		synchronizer.synchronizeFile(new MapTernFile("a.js", "var a;"));
+		Assert.assertEquals(1, uploadedFiles.size());
+
+		synchronizer.synchronizeFile(new MapTernFile("a.js", "var b;"));
+		Assert.assertEquals(2, uploadedFiles.size());
+		Assert.assertEquals("var b;", uploadedFiles.get(1).getText());
+	}
+
+	@Test
+	public void changedFileWithSameTextIsIndexedWithoutUpload()
+			throws IOException {
+		synchronizer.synchronizeFile(new MapTernFile("a.js", "var a;"));
+		// the resource has changed (ex : touch).
+		synchronizer.removeIndexedFile("a.js");
+		Assert.assertFalse(synchronizer.isIndexedFile("a.js"));
+
+		synchronizer.synchronizeFile(new MapTernFile("a.js", "var a;"));
+		Assert.assertEquals(1, uploadedFiles.size());
+		Assert.assertTrue(synchronizer.isIndexedFile("a.js"));
+	}
+
+	@Test
+	public void fileIsUploadedAgainAfterClean() throws IOException {
+		synchronizer.synchronizeFile(new MapTernFile("a.js", "var a;"));
+		// the tern server has restarted.
+		synchronizer.cleanIndexedFiles();
+
+		synchronizer.synchronizeFile(new MapTernFile("a.js", "var a;"));
+		Assert.assertEquals(2, uploadedFiles.size());
+	}
+
+	@Test
+	public void partOfLargeFileIsSentWithQuery() throws IOException {
+		synchronizer.setIncrementalSync(true);
+		synchronizer.synchronizeFile(new MapTernFile("a.js", createText("")));
+		String text = createText("a.");
+		int end = text.indexOf("a.") + 2;
+		TernDoc doc = new TernDoc(new TernCompletionsQuery("a.js", end));
+		synchronizer.synchronizeFile(doc, new MapTernFile("a.js", text));
+
+		Assert.assertEquals(1, uploadedFiles.size());
+		TernFile part = (TernFile) doc.getFiles().get(0);
+		Assert.assertTrue(part.isPart());
+		Assert.assertEquals(150, part.get("offsetLines").asInt());
+		Assert.assertTrue(part.getText().startsWith("function f50() {"));
+		Assert.assertTrue(part.getText().endsWith("}\n"));
+		Assert.assertEquals("#0", doc.getQuery().getFile());
+		Assert.assertEquals("a.js", doc.getQueryFileName());
+		Assert.assertFalse(doc.updatesFiles());
+		Assert.assertEquals(end - text.indexOf("function f50()"), doc
+				.getQuery().getEnd().intValue());
+	}
+
+	@Test
+	public void largeFileIsUploadedWhenTextOutsidePartHasChanged()
+			throws IOException {
+		synchronizer.setIncrementalSync(true);
+		synchronizer.synchronizeFile(new MapTernFile("a.js", createText("")));
+		String text = "var b;\n" + createText("a.");
+		TernDoc doc = new TernDoc(new TernCompletionsQuery("a.js",
+				text.indexOf("a.") + 2));
+		synchronizer.synchronizeFile(doc, new MapTernFile("a.js", text));
+
+		Assert.assertEquals(2, uploadedFiles.size());
+		Assert.assertFalse(doc.hasFiles());
+		Assert.assertEquals("a.js", doc.getQuery().getFile());
+	}
+
+	@Test
+	public void largeFileIsUploadedAfterMaxPartialUpdates()
+			throws IOException {
+		synchronizer.setIncrementalSync(true);
+		synchronizer.setMaxPartialUpdates(2);
+		synchronizer.synchronizeFile(new MapTernFile("a.js", createText("")));
+		for (int i = 0; i < 3; i++) {
+			String text = createText("a" + i + ".");
+			TernDoc doc = new TernDoc(new TernCompletionsQuery("a.js",
+					text.indexOf("a" + i + ".") + 3));
+			synchronizer.synchronizeFile(doc, new MapTernFile("a.js", text));
+			Assert.assertEquals(i < 2, doc.hasFiles());
+		}
+		Assert.assertEquals(2, uploadedFiles.size());
+	}
+
+	@Test
+	public void largeFileIsUploadedByDefault() throws IOException {
+		synchronizer.synchronizeFile(new MapTernFile("a.js", createText("")));
+		String text = createText("a.");
+		TernDoc doc = new TernDoc(new TernCompletionsQuery("a.js",
+				text.indexOf("a.") + 2));
+		synchronizer.synchronizeFile(doc, new MapTernFile("a.js", text));
+
+		Assert.assertEquals(2, uploadedFiles.size());
+		Assert.assertFalse(doc.hasFiles());
+	}
+
+	@Test
+	public void smallFileIsUploaded() throws IOException {
+		synchronizer.setIncrementalSync(true);
+		synchronizer.synchronizeFile(new MapTernFile("a.js", "var a;"));
+		TernDoc doc = new TernDoc(new TernCompletionsQuery("a.js", 6));
+		synchronizer.synchronizeFile(doc, new MapTernFile("a.js", "var a;a."));
+
+		Assert.assertEquals(2, uploadedFiles.size());
+		Assert.assertFalse(doc.hasFiles());
+	}
+
+	/**
+	 * Returns the text of 100 functions of 3 lines, the given code is inserted
+	 * in the body of the function f50.
+	 */
+	private static String createText(String code) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			text.append("function f").append(i).append("() {\n");
+			text.append("  var a = ").append(i).append(";")
+					.append(i == 50 ? code : "").append("\n");
+			text.append("}\n");
+		}
+		return text.toString();
+	}
+
+	@Test
+	public void filesAreLoadedInParallel() {
+		// each file waits the read of another file.
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		List<ITernFile> files = new ArrayList<ITernFile>();
+		for (int i = 0; i < 10; i++) {
+			files.add(new MapTernFile(i + ".js", "var a" + i + ";") {
+				@Override
+				public TernFile toTernServerFile(ITernProject context)
+						throws IOException {
+					try {
+						barrier.await(5, TimeUnit.SECONDS);
+					} catch (Exception e) {
+						throw new IOException(e);
+					}
+					return super.toTernServerFile(context);
+				}
+			});
+		}
+		files.add(5, new MapTernFile("error.js", null) {
+			@Override
+			public TernFile toTernServerFile(ITernProject context)
+					throws IOException {
+				throw new IOException("error.js cannot be read");
+			}
+		});
+
+		List<TernFile> ternFiles = synchronizer.loadFiles(files);
+		Assert.assertEquals(1, errors.size());
+		Assert.assertEquals(10, ternFiles.size());
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals(i + ".js", ternFiles.get(i).getName());
+		}
+	}
+
+	@Test
+	public void filesAreSentInBatchesBySize() {
+		TernDoc doc = new TernDoc();
+		for (int i = 0; i < 40; i++) {
+			doc.addFile(i + ".js", createText(20 * 1024), null, null);
+		}
+		doc.addFile("large.js", createText(1024 * 1024), null, null);
+		synchronizer.sendFiles(doc);
+
+		// 12 files of 20KB by batch of 256KB, then the large file alone.
+		Assert.assertEquals(5, batches.size());
+		Assert.assertEquals(12, batches.get(0).getFiles().size());
+		Assert.assertEquals(4, batches.get(3).getFiles().size());
+		Assert.assertEquals(1, batches.get(4).getFiles().size());
+		Assert.assertEquals(41, uploadedFiles.size());
+		Assert.assertTrue(synchronizer.isIndexedFile("large.js"));
+	}
+
+	@Test
+	public void batchesArePipelined() {
+		server = Executors.newFixedThreadPool(4);
+		synchronizer.setMaxPipelinedBatches(2);
+		TernDoc doc = new TernDoc();
+		for (int i = 0; i < 10; i++) {
+			doc.addFile(i + ".js", createText(200 * 1024), null, null);
+		}
+		synchronizer.sendFiles(doc);
+
+		// all the batches are uploaded when sendFiles returns.
+		Assert.assertEquals(10, uploadedFiles.size());
+		Assert.assertEquals(2, maxPendingBatches.get());
+	}
+
+	private static String createText(int size) {
+		StringBuilder text = new StringBuilder(size);
+		while (text.length() < size) {
+			text.append("var a;\n");
+		}
+		text.setLength(size);
+		return text.toString();
+	}
+
+	@Test
+	public void deletedFileIsNotIndexed() throws IOException {
+		synchronizer.synchronizeFile(new MapTernFile("a.js", "var a;"));
+		TernDoc doc = new TernDoc();
+		doc.delFile("a.js");
+		synchronizer.filesUploaded(doc);
+		Assert.assertFalse(synchronizer.isIndexedFile("a.js"));
+
+		synchronizer.synchronizeFile(new MapTernFile("a.js", "var a;"));
+		Assert.assertEquals(2, uploadedFiles.size());
+	}
+
+	@Test
+	public void dependenciesOfQueriedFileAreLoadedLazily()
+			throws IOException {
+		File dir = File.createTempFile("tern", "");
+		dir.delete();
+		new File(dir, "lib").mkdirs();
+		try {
+			write(dir, "main.js", "var a = require('./lib/a');\n"
+					+ "var b = require(\"b\");\nvar c = require('jquery');");
+			write(dir, "lib/a.js", "define(['./c', 'text!a.html'], "
+					+ "function(c) {});");
+			write(dir, "lib/c.js", "var c;");
+			write(dir, "b.js", "var b;");
+			write(dir, "other.js", "var other;");
+			write(dir, "eager.js", "var eager;");
+			final List<ITernScriptPath> paths;
+			paths = new ArrayList<ITernScriptPath>();
+			TernProject project = new TernProject(dir) {
+				@Override
+				public List<ITernScriptPath> getScriptPaths() {
+					return paths;
+				}
+			};
+			for (String name : dir.list()) {
+				if (name.endsWith(".js")) {
+					paths.add(new JSFileScriptPath(project, project
+							.getFile(name), null));
+				}
+			}
+			project.addLoadEagerlyPattern("eager*.js");
+			TernFileSynchronizer lazySynchronizer = new TernFileSynchronizer(
+					project) {
+				@Override
+				protected Future<?> requestAsync(TernDoc doc, int size,
+						TernRequestPriority priority) {
+					for (Object file : doc.getFiles()) {
+						uploadedFiles.add((TernFile) file);
+					}
+					filesUploaded(doc);
+					return null;
+				}
+			};
+			lazySynchronizer.setLazyLoading(true);
+
+			lazySynchronizer.ensureSynchronized();
+			Assert.assertEquals(1, uploadedFiles.size());
+			Assert.assertEquals("eager.js", uploadedFiles.get(0).getName());
+
+			lazySynchronizer.synchronizeFile(project.getFile("main.js"));
+			List<String> names = new ArrayList<String>();
+			for (TernFile file : uploadedFiles) {
+				names.add(file.getName());
+			}
+			Collections.sort(names);
+			Assert.assertEquals(
+					"[b.js, eager.js, lib/a.js, lib/c.js, main.js]",
+					names.toString());
+
+			// the dependencies are already indexed.
+			lazySynchronizer.synchronizeFile(project.getFile("main.js"));
+			lazySynchronizer.ensureSynchronized();
+			Assert.assertEquals(5, uploadedFiles.size());
+			Assert.assertFalse(lazySynchronizer.isIndexedFile("other.js"));
+		} finally {
+			for (String name : new String[] { "main.js", "lib/a.js",
+					"lib/c.js", "b.js", "other.js", "eager.js", "lib", "" }) {
+				new File(dir, name).delete();
+			}
+		}
+	}
+
+	@Test
+	public void dependenciesAreLoadedWhenModulesChange() throws IOException {
+		File dir = File.createTempFile("tern", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			write(dir, "main.js", "var b = require('b');");
+			write(dir, "b.js", "var b;");
+			write(dir, "c.js", "var c;");
+			final AtomicInteger resolutions = new AtomicInteger();
+			TernProject project = new TernProject(dir) {
+				@Override
+				public ITernFile getFile(String name) {
+					resolutions.incrementAndGet();
+					return super.getFile(name);
+				}
+			};
+			TernFileSynchronizer lazySynchronizer = new TernFileSynchronizer(
+					project) {
+				@Override
+				protected Future<?> requestAsync(TernDoc doc, int size,
+						TernRequestPriority priority) {
+					for (Object file : doc.getFiles()) {
+						uploadedFiles.add((TernFile) file);
+					}
+					filesUploaded(doc);
+					return null;
+				}
+			};
+			lazySynchronizer.setLazyLoading(true);
+			lazySynchronizer.synchronizeFile(new MapTernFile("main.js",
+					"var b = require('b');"));
+			Assert.assertEquals(2, uploadedFiles.size());
+			Assert.assertEquals(1, resolutions.get());
+
+			// a modification of the code only: the dependencies are not
+			// searched again.
+			lazySynchronizer.synchronizeFile(new MapTernFile("main.js",
+					"var b = require('b');\nb.x = 1;"));
+			Assert.assertEquals(3, uploadedFiles.size());
+			Assert.assertEquals(1, resolutions.get());
+
+			lazySynchronizer.synchronizeFile(new MapTernFile("main.js",
+					"var b = require('b');\nvar c = require('c');"));
+			Assert.assertEquals(5, uploadedFiles.size());
+			Assert.assertEquals("c.js", uploadedFiles.get(3).getName());
+			Assert.assertEquals(3, resolutions.get());
+		} finally {
+			for (String name : new String[] { "main.js", "b.js", "c.js", "" }) {
+				new File(dir, name).delete();
+			}
+		}
+	}
+
+	@Test
+	public void queriedFileIsSynchronizedWhileReplay() throws Exception {
+		File dir = File.createTempFile("tern", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			final List<ITernScriptPath> paths = new ArrayList<ITernScriptPath>();
+			TernProject project = new TernProject(dir) {
+				@Override
+				public List<ITernScriptPath> getScriptPaths() {
+					return paths;
+				}
+			};
+			for (String name : new String[] { "a.js", "b.js", "c.js" }) {
+				write(dir, name, "var " + name.charAt(0) + ";");
+				paths.add(new JSFileScriptPath(project, project
+						.getFile(name), null));
+			}
+			final CountDownLatch replayStarted = new CountDownLatch(1);
+			final CountDownLatch serverRestarted = new CountDownLatch(1);
+			final boolean[] restarting = new boolean[1];
+			final TernFileSynchronizer replaySynchronizer = new TernFileSynchronizer(
+					project) {
+				@Override
+				protected Future<?> requestAsync(TernDoc doc, int size,
+						TernRequestPriority priority) {
+					if (restarting[0]
+							&& priority == TernRequestPriority.Background) {
+						// the replay waits the restarted server.
+						replayStarted.countDown();
+						try {
+							serverRestarted.await(5, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					for (Object file : doc.getFiles()) {
+						uploadedFiles.add((TernFile) file);
+					}
+					filesUploaded(doc);
+					return null;
+				}
+			};
+			replaySynchronizer.ensureSynchronized();
+			Assert.assertEquals(3, uploadedFiles.size());
+
+			restarting[0] = true;
+			Thread replay = new Thread() {
+				@Override
+				public void run() {
+					replaySynchronizer.replayIndexedFiles();
+				}
+			};
+			replay.start();
+			Assert.assertTrue(replayStarted.await(5, TimeUnit.SECONDS));
+			// a query while the files are replayed: only the queried file is
+			// uploaded.
+			replaySynchronizer.ensureSynchronized();
+			replaySynchronizer.synchronizeFile(project.getFile("a.js"));
+			Assert.assertEquals(4, uploadedFiles.size());
+			Assert.assertEquals("a.js", uploadedFiles.get(3).getName());
+			Assert.assertTrue(replaySynchronizer.isIndexedFile("a.js"));
+			Assert.assertTrue(replaySynchronizer.isReplayedFile("b.js"));
+
+			serverRestarted.countDown();
+			replay.join(5000);
+			Assert.assertEquals(7, uploadedFiles.size());
+			for (String name : new String[] { "a.js", "b.js", "c.js" }) {
+				Assert.assertTrue(replaySynchronizer.isIndexedFile(name));
+				Assert.assertFalse(replaySynchronizer.isReplayedFile(name));
+			}
+		} finally {
+			for (String name : new String[] { "a.js", "b.js", "c.js", "" }) {
+				new File(dir, name).delete();
+			}
+		}
+	}
+
+	@Test
+	public void fileSynchronizedDuringTraversalIsKept() throws Exception {
+		final TernFileSynchronizer[] holder = new TernFileSynchronizer[1];
+		TernProject project = new TernProject(new File(".")) {
+			@Override
+			public List<ITernScriptPath> getScriptPaths() {
+				// a query on another file while the script paths are
+				// traversed.
+				try {
+					holder[0].synchronizeFile(new MapTernFile("query.js",
+							"var query;"));
+				} catch (IOException e) {
+					errors.add(e);
+				}
+				return Collections.emptyList();
+			}
+		};
+		holder[0] = new TernFileSynchronizer(project) {
+			@Override
+			protected Future<?> requestAsync(TernDoc doc, int size,
+					TernRequestPriority priority) {
+				filesUploaded(doc);
+				return null;
+			}
+		};
+		holder[0].ensureSynchronized();
+
+		JsonArray names = new JsonArray();
+		holder[0].fillSyncedFileNames(names, null);
+		Assert.assertEquals("[\"query.js\"]", names.toString());
+		Assert.assertTrue(errors.isEmpty());
+	}
+
+	private static void write(File dir, String name, String text)
+			throws IOException {
+		FileOutputStream output = new FileOutputStream(new File(dir, name));
+		try {
+			output.write(text.getBytes("UTF-8"));
+		} finally {
+			output.close();
+		}
+	}
+
+	@Test
+	public void filesAreSynchronizedConcurrently() throws Exception {
+		final int threads = 8;
+		final int filesPerThread = 50;
+		final CyclicBarrier barrier = new CyclicBarrier(threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int i = 0; i < threads; i++) {
+			final int thread = i;
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					barrier.await(5, TimeUnit.SECONDS);
+					for (int j = 0; j < filesPerThread; j++) {
+						String name = thread + "_" + j + ".js";
+						synchronizer.synchronizeFile(new MapTernFile(name,
+								"var a" + j + ";"));
+						// a query on another file of the project.
+						synchronizer.fillSyncedFileNames(new JsonArray(),
+								null);
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<Void> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Assert.assertEquals(threads * filesPerThread, uploadedFiles.size());
+		JsonArray names = new JsonArray();
+		synchronizer.fillSyncedFileNames(names, null);
+		Assert.assertEquals(threads * filesPerThread, names.size());
+		for (int i = 0; i < threads; i++) {
+			for (int j = 0; j < filesPerThread; j++) {
+				Assert.assertTrue(synchronizer.isIndexedFile(i + "_" + j
+						+ ".js"));
+			}
+		}
+		Assert.assertTrue(errors.isEmpty());
+	}
+}
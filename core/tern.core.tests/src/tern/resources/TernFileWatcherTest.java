@@ -0,0 +1,140 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.resources;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tern.server.TernRequestPriority;
+import tern.server.protocol.TernDoc;
+import tern.server.protocol.TernFile;
+
+public class TernFileWatcherTest {
+
+	private File dir;
+	private TernFileSynchronizer synchronizer;
+	private TernFileWatcher watcher;
+	private List<TernDoc> docs;
+
+	@Before
+	public void init() throws IOException {
+		dir = File.createTempFile("tern", "");
+		dir.delete();
+		dir.mkdir();
+		docs = new ArrayList<TernDoc>();
+		synchronizer = new TernFileSynchronizer(new TernProject(dir)) {
+			@Override
+			protected Future<?> requestAsync(TernDoc doc, int size,
+					TernRequestPriority priority) {
+				docs.add(doc);
+				filesUploaded(doc);
+				return null;
+			}
+		};
+		watcher = new TernFileWatcher(synchronizer);
+	}
+
+	@After
+	public void stop() {
+		watcher.stop();
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void changesAreAppliedWhenPollIsQuiet() throws IOException {
+		long time = System.currentTimeMillis() - 60000;
+		write("a.js", "var a;", time);
+		File b = write("b.js", "var b;", time);
+		index("a.js", "b.js");
+		watcher.poll();
+		Assert.assertTrue(synchronizer.isIndexedFile("a.js"));
+
+		write("a.js", "var aa;", time + 10000);
+		b.delete();
+		watcher.poll();
+		// the changes are coalesced until a poll finds no new change.
+		Assert.assertTrue(synchronizer.isIndexedFile("a.js"));
+		watcher.poll();
+		Assert.assertFalse(synchronizer.isIndexedFile("a.js"));
+
+		synchronizer.ensureSynchronized();
+		Assert.assertEquals(1, docs.size());
+		TernFile deleted = (TernFile) docs.get(0).getFiles().get(0);
+		Assert.assertEquals("b.js", deleted.getName());
+		Assert.assertTrue(deleted.isDelete());
+		Assert.assertFalse(synchronizer.isIndexedFile("b.js"));
+
+		// a file indexed again is not reported if it has not changed.
+		index("a.js");
+		watcher.poll();
+		watcher.poll();
+		Assert.assertTrue(synchronizer.isIndexedFile("a.js"));
+	}
+
+	@Test
+	public void fileModifiedAfterStartIsReported() throws IOException {
+		write("a.js", "var a;", System.currentTimeMillis());
+		index("a.js");
+		watcher.poll();
+		watcher.poll();
+		Assert.assertFalse(synchronizer.isIndexedFile("a.js"));
+	}
+
+	@Test
+	public void changesAreAppliedAfterMaxCoalescedPolls() throws IOException {
+		long time = System.currentTimeMillis() - 60000;
+		write("a.js", "var a;", time);
+		index("a.js");
+		watcher.setMaxCoalescedPolls(3);
+		watcher.poll();
+		for (int i = 1; i < 3; i++) {
+			write("a.js", "var a;", time + i * 10000);
+			watcher.poll();
+			Assert.assertTrue(synchronizer.isIndexedFile("a.js"));
+		}
+		write("a.js", "var a;", time + 30000);
+		watcher.poll();
+		Assert.assertFalse(synchronizer.isIndexedFile("a.js"));
+	}
+
+	private void index(String... names) {
+		TernDoc doc = new TernDoc();
+		for (String name : names) {
+			doc.addFile(name, null, null, null);
+		}
+		synchronizer.filesUploaded(doc);
+	}
+
+	private File write(String name, String text, long time)
+			throws IOException {
+		File file = new File(dir, name);
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(text.getBytes("UTF-8"));
+		} finally {
+			output.close();
+		}
+		file.setLastModified(time);
+		return file;
+	}
+}
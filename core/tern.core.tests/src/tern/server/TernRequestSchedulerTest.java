@@ -0,0 +1,298 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tern.TernException;
+import tern.server.protocol.TernDoc;
+import tern.server.protocol.completions.TernCompletionsQuery;
+import tern.server.protocol.definition.TernDefinitionQuery;
+import tern.server.protocol.lint.TernLintQuery;
+
+public class TernRequestSchedulerTest {
+
+	private TernRequestScheduler scheduler;
+	private CountDownLatch blocker;
+	private List<String> executed;
+
+	@Before
+	public void init() throws InterruptedException {
+		scheduler = new TernRequestScheduler(1);
+		executed = Collections.synchronizedList(new ArrayList<String>());
+		blocker = new CountDownLatch(1);
+		// keep the single thread busy to queue the next requests.
+		final CountDownLatch started = new CountDownLatch(1);
+		scheduler.submit(new TernDoc(), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				started.countDown();
+				blocker.await();
+				return null;
+			}
+		});
+		started.await();
+	}
+
+	@After
+	public void stop() {
+		scheduler.dispose();
+	}
+
+	@Test
+	public void supersededCompletionsAreCancelled()
+			throws InterruptedException, ExecutionException, TernException {
+		Future<?> first = submit(completions("a.js", 1), "1");
+		Future<?> second = submit(completions("a.js", 2), "2");
+		Future<?> last = submit(completions("a.js", 3), "3");
+		blocker.countDown();
+		last.get();
+
+		Assert.assertTrue(first.isCancelled());
+		Assert.assertTrue(second.isCancelled());
+		// the callers of the superseded requests return without result.
+		TernRequestScheduler.waitFor(first);
+		Assert.assertEquals(Collections.singletonList("3"), executed);
+		Assert.assertEquals(2, scheduler.getCoalescedCount());
+	}
+
+	@Test
+	public void otherFilesAndQueryTypesAreNotCoalesced()
+			throws InterruptedException, ExecutionException {
+		Future<?> a = submit(completions("a.js", 1), "a");
+		Future<?> b = submit(completions("b.js", 1), "b");
+		Future<?> definition = submit(new TernDoc(new TernDefinitionQuery(
+				"a.js", 1)), "definition");
+		Future<?> definition2 = submit(new TernDoc(new TernDefinitionQuery(
+				"a.js", 2)), "definition2");
+		blocker.countDown();
+		a.get();
+		b.get();
+		definition.get();
+		definition2.get();
+
+		Assert.assertEquals(4, executed.size());
+		Assert.assertEquals(0, scheduler.getCoalescedCount());
+	}
+
+	@Test
+	public void requestsWithFilesAreNotCoalesced()
+			throws InterruptedException, ExecutionException {
+		TernDoc doc = completions("a.js", 1);
+		doc.addFile("a.js", "var a;", null, null);
+		Future<?> withFile = submit(doc, "withFile");
+		Future<?> last = submit(completions("a.js", 2), "last");
+		blocker.countDown();
+		withFile.get();
+		last.get();
+
+		Assert.assertEquals(2, executed.size());
+	}
+
+	@Test
+	public void interactiveRequestsPreemptBackgroundRequests()
+			throws InterruptedException, ExecutionException {
+		Future<?> upload = submit(new TernDoc(), "upload");
+		Future<?> lint = submit(new TernDoc(new TernLintQuery(true)), "lint");
+		Future<?> definition = submit(new TernDoc(new TernDefinitionQuery(
+				"a.js", 1)), "definition");
+		Future<?> forced = scheduler.submit(new TernDoc(),
+				createTask("forced"), TernRequestPriority.Interactive);
+		blocker.countDown();
+		upload.get();
+		lint.get();
+		definition.get();
+		forced.get();
+
+		Assert.assertEquals(
+				Arrays.asList("definition", "forced", "upload", "lint"),
+				executed);
+	}
+
+	@Test
+	public void nestedRequestIsExecutedInline() throws InterruptedException,
+			ExecutionException {
+		final Future<?>[] nested = new Future<?>[1];
+		Future<?> outer = scheduler.submit(new TernDoc(), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				nested[0] = submit(completions("a.js", 1), "nested");
+				// the single thread is busy, the nested request must not be
+				// queued.
+				nested[0].get();
+				executed.add("outer");
+				return null;
+			}
+		});
+		blocker.countDown();
+		outer.get();
+
+		Assert.assertEquals(Arrays.asList("nested", "outer"), executed);
+	}
+
+	@Test
+	public void requestsAreRejectedWhenQueueIsFull()
+			throws InterruptedException, ExecutionException {
+		scheduler.setMaxQueuedRequests(2);
+		Future<?> a = submit(completions("a.js", 1), "a");
+		Future<?> b = submit(completions("b.js", 1), "b");
+		Future<?> c = submit(completions("c.js", 1), "c");
+		TernDoc upload = new TernDoc();
+		upload.addFile("a.js", "var a;", null, null);
+		Future<?> withFile = submit(upload, "withFile");
+		Assert.assertEquals(3, scheduler.getQueueDepth());
+		blocker.countDown();
+		a.get();
+		b.get();
+		withFile.get();
+		try {
+			c.get();
+			Assert.fail("the request should be rejected");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TernOverloadException);
+		}
+
+		Assert.assertEquals(Arrays.asList("a", "b", "withFile"), executed);
+		Assert.assertEquals(1, scheduler.getRejectedCount());
+		Assert.assertEquals(3, scheduler.getMaxQueueDepth());
+	}
+
+	@Test
+	public void oldestBackgroundRequestIsShedWhenQueueIsFull()
+			throws InterruptedException, ExecutionException {
+		scheduler.setMaxQueuedRequests(2);
+		scheduler.setOverloadPolicy(TernOverloadPolicy.Shed);
+		Future<?> lint1 = submit(new TernDoc(new TernLintQuery(true)), "lint1");
+		Future<?> lint2 = submit(new TernDoc(new TernLintQuery(true)), "lint2");
+		Future<?> definition = submit(new TernDoc(new TernDefinitionQuery(
+				"a.js", 1)), "definition");
+		Future<?> lint3 = submit(new TernDoc(new TernLintQuery(true)), "lint3");
+		Assert.assertEquals(2, scheduler.getQueueDepth());
+		blocker.countDown();
+		definition.get();
+		lint3.get();
+
+		// the callers of the shed requests know they were not sent.
+		assertOverloaded(lint1);
+		assertOverloaded(lint2);
+		Assert.assertEquals(Arrays.asList("definition", "lint3"), executed);
+		Assert.assertEquals(2, scheduler.getShedCount());
+		Assert.assertEquals(0, scheduler.getRejectedCount());
+	}
+
+	@Test
+	public void backgroundRequestIsRejectedWhenQueueIsFullOfInteractiveRequests()
+			throws InterruptedException, ExecutionException {
+		scheduler.setMaxQueuedRequests(1);
+		scheduler.setOverloadPolicy(TernOverloadPolicy.Shed);
+		Future<?> definition = submit(new TernDoc(new TernDefinitionQuery(
+				"a.js", 1)), "definition");
+		Future<?> lint = submit(new TernDoc(new TernLintQuery(true)), "lint");
+		blocker.countDown();
+		definition.get();
+
+		Assert.assertTrue(lint.isDone());
+		Assert.assertEquals(Collections.singletonList("definition"), executed);
+		Assert.assertEquals(1, scheduler.getRejectedCount());
+	}
+
+	@Test
+	public void inFlightRequestsAreBounded() throws Exception {
+		blocker.countDown();
+		scheduler.setMaxInFlightRequests(1);
+		scheduler.setMaxQueuedRequests(1);
+		final TernDoc doc = completions("a.js", 1);
+		scheduler.beginRequest(doc);
+		// a nested request of the same thread doesn't wait.
+		scheduler.beginRequest(doc);
+		scheduler.endRequest();
+		Assert.assertEquals(1, scheduler.getInFlightCount());
+
+		final CountDownLatch sent = new CountDownLatch(1);
+		Thread waiting = new Thread() {
+			@Override
+			public void run() {
+				try {
+					scheduler.beginRequest(doc);
+					sent.countDown();
+					scheduler.endRequest();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		waiting.start();
+		while (scheduler.getQueueDepth() == 0) {
+			Thread.sleep(10);
+		}
+		final Exception[] error = new Exception[1];
+		Thread rejected = new Thread() {
+			@Override
+			public void run() {
+				try {
+					scheduler.beginRequest(doc);
+					scheduler.endRequest();
+				} catch (Exception e) {
+					error[0] = e;
+				}
+			}
+		};
+		rejected.start();
+		rejected.join();
+		Assert.assertTrue(error[0] instanceof TernOverloadException);
+		Assert.assertEquals(1, sent.getCount());
+		scheduler.endRequest();
+		sent.await();
+		waiting.join();
+
+		Assert.assertEquals(0, scheduler.getInFlightCount());
+		Assert.assertEquals(1, scheduler.getRejectedCount());
+	}
+
+	private static void assertOverloaded(Future<?> future) {
+		try {
+			TernRequestScheduler.waitFor(future);
+			Assert.fail("request must fail with TernOverloadException");
+		} catch (TernException e) {
+			Assert.assertTrue(e instanceof TernOverloadException);
+		}
+	}
+
+	private TernDoc completions(String file, int pos) {
+		return new TernDoc(new TernCompletionsQuery(file, pos));
+	}
+
+	private Future<?> submit(TernDoc doc, String name) {
+		return scheduler.submit(doc, createTask(name));
+	}
+
+	private Callable<Void> createTask(final String name) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() {
+				executed.add(name);
+				return null;
+			}
+		};
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tern.TernResourcesManager;
+import tern.server.protocol.JsonStreamReader;
+import tern.server.protocol.guesstypes.ITernGuessTypesCollector;
+
+/**
+ * Tests of the streamed guess types response.
+ *
+ */
+public class NodejsGuessTypesReaderTest {
+
+	private NodejsTernServer server;
+	private List<String> proposals;
+	private ITernGuessTypesCollector collector;
+
+	@Before
+	public void init() {
+		server = new NodejsTernServer(
+				TernResourcesManager.getTernProject(new File(".")), 0);
+		proposals = new ArrayList<String>();
+		collector = new ITernGuessTypesCollector() {
+			@Override
+			public void addProposal(int arg, String name) {
+				proposals.add(arg + ":" + name);
+			}
+		};
+	}
+
+	@After
+	public void stop() {
+		server.dispose();
+	}
+
+	@Test
+	public void namesAreCollectedInArgumentOrder() throws IOException {
+		String json = "{\"args\":[\"String\",\"Number\",\"String\"],"
+				+ "\"Number\":[\"n\",\"count\"],\"String\":[\"s\"]}";
+		server.readGuessTypes(new JsonStreamReader(new StringReader(json)),
+				collector);
+		Assert.assertEquals("[0:s, 1:n, 1:count, 2:s]", proposals.toString());
+	}
+
+	@Test
+	public void namesReadBeforeArgsAreCollectedInArgumentOrder()
+			throws IOException {
+		String json = "{\"Number\":[\"n\"],\"Boolean\":[\"b\"],"
+				+ "\"args\":[\"Boolean\",\"Object\",\"Number\"],"
+				+ "\"String\":[\"s\"]}";
+		server.readGuessTypes(new JsonStreamReader(new StringReader(json)),
+				collector);
+		// the argument without names is skipped.
+		Assert.assertEquals("[0:b, 2:n]", proposals.toString());
+	}
+}
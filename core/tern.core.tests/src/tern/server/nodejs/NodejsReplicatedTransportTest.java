@@ -0,0 +1,239 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tern.TernException;
+import tern.resources.TernFileSynchronizer;
+import tern.server.protocol.TernDoc;
+import tern.server.protocol.TernFile;
+import tern.server.protocol.completions.TernCompletionsQuery;
+
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Tests of the sharing of the requests between replicated node.js servers.
+ *
+ */
+public class NodejsReplicatedTransportTest {
+
+	private FakeTransport primary;
+	private FakeTransport replica;
+	private NodejsReplicatedTransport transport;
+
+	/**
+	 * Transport which records the received docs.
+	 */
+	private static class FakeTransport implements INodejsTransport {
+
+		private final List<TernDoc> docs = new ArrayList<TernDoc>();
+		private boolean down;
+		private boolean disposed;
+
+		@Override
+		public synchronized JsonObject send(TernDoc doc,
+				INodejsResponseReader responseReader) throws IOException,
+				TernException {
+			if (down) {
+				throw new IOException("Connection refused");
+			}
+			docs.add(doc);
+			return new JsonObject();
+		}
+
+		synchronized List<TernDoc> getDocs() {
+			return new ArrayList<TernDoc>(docs);
+		}
+
+		@Override
+		public void dispose() {
+			disposed = true;
+		}
+	}
+
+	@Before
+	public void init() {
+		primary = new FakeTransport();
+		replica = new FakeTransport();
+		transport = new NodejsReplicatedTransport(primary);
+		transport.addReplica(new NodejsReplicatedTransport.Replica(replica));
+	}
+
+	@After
+	public void dispose() {
+		transport.dispose();
+	}
+
+	@Test
+	public void filesAreSentToEachReplica() throws Exception {
+		TernDoc doc = new TernDoc(new TernCompletionsQuery("a.js", 1));
+		doc.addFile("a.js", "var a;", null, null);
+		transport.send(doc, null);
+
+		List<TernDoc> docs = new ArrayList<TernDoc>(primary.getDocs());
+		docs.addAll(replica.getDocs());
+		Assert.assertEquals(2, docs.size());
+		int queries = 0;
+		for (TernDoc sent : docs) {
+			Assert.assertEquals(1, sent.getFiles().size());
+			if (sent.getQuery() != null) {
+				queries++;
+			}
+		}
+		// the query is sent once.
+		Assert.assertEquals(1, queries);
+	}
+
+	@Test
+	public void partFilesAreNotSentToOtherReplicas() throws Exception {
+		TernDoc doc = new TernDoc(new TernCompletionsQuery("#0", 1));
+		doc.addFile("a.js", "var a;", null, 10);
+		transport.send(doc, null);
+
+		Assert.assertEquals(1, primary.getDocs().size()
+				+ replica.getDocs().size());
+	}
+
+	@Test
+	public void newReplicaReceivesIndexedFilesBeforeQueries()
+			throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch indexed = new CountDownLatch(1);
+		TernFileSynchronizer synchronizer = new TernFileSynchronizer(null) {
+			@Override
+			public List<TernDoc> createIndexedFilesDocs() {
+				started.countDown();
+				try {
+					indexed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				TernDoc doc = new TernDoc();
+				doc.addFile("a.js", "var a;", null, null);
+				return Collections.singletonList(doc);
+			}
+		};
+		FakeTransport late = new FakeTransport();
+		transport.addReplica(new NodejsReplicatedTransport.Replica(late),
+				synchronizer);
+		started.await();
+		// files uploaded while the replica receives the indexed files.
+		TernDoc doc = new TernDoc();
+		doc.addFile("b.js", "var b;", null, null);
+		transport.send(doc, null);
+		for (int i = 0; i < 6; i++) {
+			transport.send(
+					new TernDoc(new TernCompletionsQuery("c.js", 1)), null);
+		}
+		Assert.assertEquals(0, late.getDocs().size());
+
+		indexed.countDown();
+		long maxTime = System.currentTimeMillis() + 5000;
+		while (transport.getHealthyReplicaCount() == 3
+				&& late.getDocs().size() < 2
+				&& System.currentTimeMillis() < maxTime) {
+			Thread.sleep(10);
+		}
+		List<TernDoc> docs = late.getDocs();
+		Assert.assertEquals(2, docs.size());
+		Assert.assertEquals("a.js", ((TernFile) docs.get(0).getFiles().get(0))
+				.getName());
+		Assert.assertEquals("b.js", ((TernFile) docs.get(1).getFiles().get(0))
+				.getName());
+	}
+
+	@Test
+	public void queriesAreSharedBetweenReplicas() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			transport.send(
+					new TernDoc(new TernCompletionsQuery("a.js", 1)), null);
+		}
+		Assert.assertEquals(2, primary.getDocs().size());
+		Assert.assertEquals(2, replica.getDocs().size());
+	}
+
+	@Test
+	public void queriesAreSentToReplicasWhichHaveTheFile() throws Exception {
+		TernDoc doc = new TernDoc();
+		doc.addFile("a.js", "var a;", null, null);
+		transport.send(doc, null);
+		// the "late" replica is added after the upload of a.js.
+		FakeTransport late = new FakeTransport();
+		transport.addReplica(new NodejsReplicatedTransport.Replica(late));
+
+		for (int i = 0; i < 6; i++) {
+			transport.send(
+					new TernDoc(new TernCompletionsQuery("a.js", 1)), null);
+		}
+		Assert.assertEquals(0, late.getDocs().size());
+
+		for (int i = 0; i < 6; i++) {
+			transport.send(
+					new TernDoc(new TernCompletionsQuery("b.js", 1)), null);
+		}
+		// nobody has b.js: the queries are shared.
+		Assert.assertEquals(2, late.getDocs().size());
+	}
+
+	@Test
+	public void unreachableReplicaIsRemoved() throws Exception {
+		replica.down = true;
+		for (int i = 0; i < 4; i++) {
+			transport.send(
+					new TernDoc(new TernCompletionsQuery("a.js", 1)), null);
+		}
+		Assert.assertEquals(4, primary.getDocs().size());
+		Assert.assertEquals(1, transport.getHealthyReplicaCount());
+		Assert.assertTrue(replica.disposed);
+		Assert.assertFalse(primary.disposed);
+	}
+
+	@Test
+	public void queriesAreSharedBetweenRemainingReplicas() throws Exception {
+		FakeTransport other = new FakeTransport();
+		transport.addReplica(new NodejsReplicatedTransport.Replica(other));
+		replica.down = true;
+		while (!replica.disposed) {
+			transport.send(
+					new TernDoc(new TernCompletionsQuery("a.js", 1)), null);
+		}
+		int primaryDocs = primary.getDocs().size();
+		int otherDocs = other.getDocs().size();
+
+		for (int i = 0; i < 6; i++) {
+			transport.send(
+					new TernDoc(new TernCompletionsQuery("a.js", 1)), null);
+		}
+		// the removed replica is not counted by the round-robin.
+		Assert.assertEquals(3, primary.getDocs().size() - primaryDocs);
+		Assert.assertEquals(3, other.getDocs().size() - otherDocs);
+	}
+
+	@Test(expected = IOException.class)
+	public void unreachablePrimaryFails() throws Exception {
+		primary.down = true;
+		replica.down = true;
+		for (int i = 0; i < 2; i++) {
+			transport.send(
+					new TernDoc(new TernCompletionsQuery("a.js", 1)), null);
+		}
+	}
+}
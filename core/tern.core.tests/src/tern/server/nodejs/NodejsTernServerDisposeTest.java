@@ -0,0 +1,50 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs;
+
+import java.io.File;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import tern.TernException;
+import tern.TernResourcesManager;
+import tern.server.TernRequestScheduler;
+import tern.server.protocol.TernDoc;
+import tern.server.protocol.completions.MockTernCompletionCollector;
+import tern.server.protocol.completions.TernCompletionsQuery;
+
+/**
+ * Tests of the requests of a disposed node.js tern server.
+ *
+ */
+public class NodejsTernServerDisposeTest {
+
+	@Test
+	public void disposedServerRejectsAsyncRequests()
+			throws InterruptedException {
+		NodejsTernServer server = new NodejsTernServer(
+				TernResourcesManager.getTernProject(new File(".")), 0);
+		server.dispose();
+		Future<?> future = server.requestAsync(new TernDoc(
+				new TernCompletionsQuery("a.js", 1)),
+				new MockTernCompletionCollector());
+		try {
+			TernRequestScheduler.waitFor(future);
+			Assert.fail("request of a disposed server must fail");
+		} catch (TernException e) {
+			// expected
+		}
+		// the scheduler (and its threads) is not created again.
+		Assert.assertNull(server.getRequestScheduler());
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs.process;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tern.ITernProject;
+import tern.TernException;
+
+/**
+ * Tests of the standby processes of {@link NodejsProcessManager}.
+ *
+ */
+public class NodejsProcessManagerTest {
+
+	private File dir;
+	private NodejsProcessManager manager;
+	private BlockingQueue<FakeProcess> startedProcesses;
+
+	/**
+	 * Process which doesn't start node.js.
+	 */
+	private class FakeProcess extends NodejsProcess {
+
+		private boolean started;
+		private boolean killed;
+		private INodejsProcessListener listener;
+
+		FakeProcess(File projectDir) throws TernException {
+			super(null, dir, projectDir);
+		}
+
+		@Override
+		public synchronized void start() {
+			started = true;
+			startedProcesses.add(this);
+		}
+
+		@Override
+		public boolean isStarted() {
+			return started && !killed;
+		}
+
+		@Override
+		public void kill() {
+			killed = true;
+		}
+
+		@Override
+		public void addProcessListener(INodejsProcessListener listener) {
+			this.listener = listener;
+			super.addProcessListener(listener);
+		}
+	}
+
+	@Before
+	public void init() throws IOException {
+		dir = File.createTempFile("tern", "");
+		dir.delete();
+		new File(dir, "bin").mkdirs();
+		write("bin/tern", "");
+		write(ITernProject.TERN_PROJECT_FILE, "{\"plugins\":{}}");
+		startedProcesses = new LinkedBlockingQueue<FakeProcess>();
+		manager = new NodejsProcessManager() {
+			@Override
+			NodejsProcess newProcess(File nodejsBaseDir,
+					File nodejsTernBaseDir, File projectDir)
+					throws TernException {
+				return new FakeProcess(projectDir);
+			}
+		};
+		manager.setStandbyCount(1);
+	}
+
+	@After
+	public void stop() {
+		manager.dispose();
+		for (String name : new String[] { "bin/tern", "bin",
+				ITernProject.TERN_PROJECT_FILE, "" }) {
+			new File(dir, name).delete();
+		}
+	}
+
+	@Test
+	public void standbyIsNotUsedAfterProjectChange() throws Exception {
+		manager.prestart(manager.create(dir, null, dir));
+		FakeProcess standby = startedProcesses.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull(standby);
+		NodejsProcess first = manager.create(dir, null, dir);
+		Assert.assertSame(standby, manager.takeStandby(first));
+		// the taken standby process is replaced.
+		FakeProcess next = startedProcesses.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull(next);
+
+		// the plugins of the project have changed: the standby process has
+		// loaded the old plugins.
+		write(ITernProject.TERN_PROJECT_FILE,
+				"{\"plugins\":{\"node\":{}}}");
+		NodejsProcess second = manager.create(dir, null, dir);
+		Assert.assertSame(second, manager.takeStandby(second));
+		Assert.assertTrue(next.killed);
+	}
+
+	@Test
+	public void stoppedStandbyIsReplaced() throws Exception {
+		manager.prestart(manager.create(dir, null, dir));
+		FakeProcess standby = startedProcesses.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull(standby);
+
+		// the idle timeout of tern stops the standby process.
+		standby.killed = true;
+		standby.listener.onStop(standby);
+		FakeProcess next = startedProcesses.poll(5, TimeUnit.SECONDS);
+		Assert.assertNotNull(next);
+		Assert.assertSame(next,
+				manager.takeStandby(manager.create(dir, null, dir)));
+	}
+
+	private void write(String name, String text) throws IOException {
+		FileOutputStream output = new FileOutputStream(new File(dir, name));
+		try {
+			output.write(text.getBytes("UTF-8"));
+		} finally {
+			output.close();
+		}
+	}
+}
@@ -12,8 +12,13 @@ package tern.server.nodejs.process;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Assert;
 import org.junit.Test;
@@ -31,6 +36,9 @@ public class NodejsProcessTest {
 
 	@After
 	public void shutdown() {
+		NodejsProcessManager.getInstance().setStandbyCount(
+				NodejsProcessManager.DEFAULT_STANDBY_PROCESSES);
+		NodejsProcessManager.getInstance().setHostPolicy(null);
 		NodejsProcessManager.getInstance().dispose();
 	}
 
@@ -112,4 +120,163 @@ public class NodejsProcessTest {
 		System.err.println(error.toString());
 
 	}
+
+	@Test
+	public void standbyProcess() throws IOException, InterruptedException,
+			TernException {
+
+		File nodejsBaseDir = PathHelper.getNodejsBasedir();
+		File nodejsTernBaseDir = PathHelper.getNodejsTernBaseDir();
+		File projectDir = new File(".");
+
+		NodejsProcessManager manager = NodejsProcessManager.getInstance();
+		manager.setStandbyCount(1);
+		NodejsProcess process = manager.create(projectDir, nodejsBaseDir,
+				nodejsTernBaseDir);
+		process.start(TIMEOUT, 10);
+
+		// the start of the process has started a standby process.
+		NodejsProcess other = manager.create(projectDir, nodejsBaseDir,
+				nodejsTernBaseDir);
+		NodejsProcess standby = other;
+		for (int i = 0; i < 20 && standby == other; i++) {
+			Thread.sleep(100);
+			standby = manager.takeStandby(other);
+		}
+		Assert.assertNotSame(other, standby);
+		Assert.assertTrue(standby.isStarted());
+		Assert.assertFalse(other.isStarted());
+
+		// a standby process with another configuration is not used.
+		NodejsProcess persistent = manager.create(projectDir, nodejsBaseDir,
+				nodejsTernBaseDir);
+		persistent.setPersistent(true);
+		Assert.assertSame(persistent, manager.takeStandby(persistent));
+	}
+
+	@Test
+	public void sharedHost() throws IOException, InterruptedException,
+			TernException {
+
+		File nodejsBaseDir = PathHelper.getNodejsBasedir();
+		File nodejsTernBaseDir = PathHelper.getNodejsTernBaseDir();
+		File projectDir = new File(".");
+		File otherProjectDir = new File("..");
+
+		NodejsProcessManager manager = NodejsProcessManager.getInstance();
+		NodejsProcess process = manager.create(projectDir, nodejsBaseDir,
+				nodejsTernBaseDir);
+		// no policy: each project has its own process.
+		Assert.assertNull(manager.acquireHost(process));
+
+		manager.setHostPolicy(SharedNodejsHostPolicy.getInstance());
+		NodejsProcess host = manager.acquireHost(process);
+		Assert.assertTrue(host.isMultiProject());
+		NodejsProcess other = manager.create(otherProjectDir, nodejsBaseDir,
+				nodejsTernBaseDir);
+		Assert.assertSame(host, manager.acquireHost(other));
+		host.start(TIMEOUT, 10);
+
+		// a project which loads local plugins has its own process.
+		NodejsProcess local = manager.create(projectDir, nodejsBaseDir,
+				nodejsTernBaseDir);
+		local.setLoadingLocalPlugins(true);
+		Assert.assertNull(manager.acquireHost(local));
+
+		manager.releaseHost(host, projectDir);
+		Assert.assertTrue(host.isStarted());
+		manager.releaseHost(host, otherProjectDir);
+		Assert.assertFalse(host.isStarted());
+	}
+
+	@Test
+	public void resourceUsage() throws IOException, InterruptedException,
+			TernException {
+		// the resources are read from /proc on Linux.
+		Assume.assumeTrue(new File("/proc/self/status").exists());
+
+		File nodejsBaseDir = PathHelper.getNodejsBasedir();
+		File nodejsTernBaseDir = PathHelper.getNodejsTernBaseDir();
+		File projectDir = new File(".");
+
+		NodejsProcess process = NodejsProcessManager.getInstance().create(
+				projectDir, nodejsBaseDir, nodejsTernBaseDir);
+		process.setMonitoringInterval(100);
+		final List<NodejsProcessUsage> usages = new ArrayList<NodejsProcessUsage>();
+		process.addProcessListener(new NodejsProcessAdapter() {
+
+			@Override
+			public void onResourceUsage(NodejsProcess process,
+					NodejsProcessUsage usage) {
+				synchronized (usages) {
+					usages.add(usage);
+					usages.notifyAll();
+				}
+			}
+		});
+		process.start(TIMEOUT, 10);
+		Assert.assertNotNull(process.getPid());
+		synchronized (usages) {
+			if (usages.isEmpty()) {
+				usages.wait(5000);
+			}
+			Assert.assertFalse(usages.isEmpty());
+			Assert.assertTrue(usages.get(0).getRss() > 0);
+		}
+		Assert.assertNotNull(process.getResourceUsage());
+	}
+
+	@Test
+	public void startPhases() throws IOException, InterruptedException,
+			ExecutionException, TernException {
+
+		File nodejsBaseDir = PathHelper.getNodejsBasedir();
+		File nodejsTernBaseDir = PathHelper.getNodejsTernBaseDir();
+		File projectDir = new File(".");
+
+		NodejsProcess process = NodejsProcessManager.getInstance().create(
+				projectDir, nodejsBaseDir, nodejsTernBaseDir);
+		final List<NodejsStartPhase> phases = new ArrayList<NodejsStartPhase>();
+		final List<String> plugins = new ArrayList<String>();
+		process.addProcessListener(new NodejsProcessAdapter() {
+
+			@Override
+			public void onStartPhase(NodejsProcess process,
+					NodejsStartPhase phase, String name, long time) {
+				if (phase == NodejsStartPhase.Plugin) {
+					plugins.add(name);
+				} else if (phase != NodejsStartPhase.Def) {
+					phases.add(phase);
+				}
+			}
+		});
+
+		Integer port = process.startAsync().get();
+		Assert.assertEquals(port, process.getPort());
+		Assert.assertEquals(
+				"[Spawn, TernLoaded, PluginsLoaded, DefsLoaded, Listening]",
+				phases.toString());
+		// doc_comment plugin is loaded by default.
+		Assert.assertTrue(plugins.contains("doc_comment"));
+	}
+
+	@Test
+	public void killBeforeStart() throws IOException, InterruptedException,
+			TernException {
+
+		File nodejsBaseDir = PathHelper.getNodejsBasedir();
+		File nodejsTernBaseDir = PathHelper.getNodejsTernBaseDir();
+		File projectDir = new File(".");
+
+		NodejsProcess process = NodejsProcessManager.getInstance().create(
+				projectDir, nodejsBaseDir, nodejsTernBaseDir);
+		Future<Integer> start = process.startAsync();
+		process.kill();
+		try {
+			start.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof NodejsProcessException);
+		}
+	}
 }
@@ -0,0 +1,135 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs.process;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import tern.TernException;
+import tern.server.nodejs.INodejsResponseReader;
+import tern.server.protocol.JsonHelper;
+import tern.server.protocol.TernDoc;
+import tern.server.protocol.completions.TernCompletionsQuery;
+
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Tests of the framing of the requests and responses sent over the stdin and
+ * stdout of the node.js process.
+ *
+ */
+public class NodejsStdioTransportTest {
+
+	private NodejsStdioTransport transport;
+	private BufferedReader stdin;
+	private ExecutorService executor;
+
+	@Before
+	public void init() throws IOException {
+		PipedInputStream in = new PipedInputStream(64 * 1024);
+		transport = new NodejsStdioTransport(new PipedOutputStream(in));
+		stdin = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void dispose() {
+		transport.dispose();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void requestAndResponse() throws Exception {
+		Future<JsonObject> future = send(new TernDoc(new TernCompletionsQuery(
+				"a.js", 3)));
+		String request = stdin.readLine();
+		Assert.assertTrue(request.startsWith("0 {"));
+		JsonObject query = (JsonObject) JsonObject.readFrom(
+				request.substring(2)).get("query");
+		Assert.assertEquals("a.js", JsonHelper.getString(query, "file"));
+
+		// the body contains a new line and a non ASCII character.
+		String body = "{\"completions\":[\"café\"],\"doc\":\"a\\nb\"}";
+		String stdout = "#tern-response 0 200 " + body.length() + "\n" + body
+				+ "\nnext line\n";
+		BufferedReader reader = new BufferedReader(new StringReader(stdout));
+		String header = reader.readLine();
+		Assert.assertTrue(transport.isResponse(header));
+		transport.readResponse(header, reader);
+
+		JsonObject response = future.get();
+		Assert.assertEquals("café", response.get("completions").asArray()
+				.get(0).asString());
+		Assert.assertEquals("next line", reader.readLine());
+	}
+
+	@Test
+	public void errorResponse() throws Exception {
+		Future<JsonObject> future = send(new TernDoc(new TernCompletionsQuery(
+				"a.js", null)));
+		stdin.readLine();
+
+		String body = "TernError: missing .query.end field";
+		BufferedReader reader = new BufferedReader(new StringReader(
+				"#tern-response 0 400 " + body.length() + "\n" + body + "\n"));
+		transport.readResponse(reader.readLine(), reader);
+		try {
+			future.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TernException);
+			Assert.assertEquals(body, e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void disposeReleasesPendingRequests() throws Exception {
+		Future<JsonObject> future = send(new TernDoc(new TernCompletionsQuery(
+				"a.js", 3)));
+		stdin.readLine();
+		transport.dispose();
+		try {
+			future.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	private Future<JsonObject> send(final TernDoc doc) {
+		return executor.submit(new Callable<JsonObject>() {
+			@Override
+			public JsonObject call() throws Exception {
+				return transport.send(doc, new INodejsResponseReader() {
+					@Override
+					public JsonObject read(Reader reader) throws IOException {
+						return JsonObject.readFrom(reader);
+					}
+				});
+			}
+		});
+	}
+}
@@ -10,6 +10,9 @@
  */
 package tern.server.protocol;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -103,4 +106,33 @@ public abstract class AbstractTernServerCompletionQueryTest extends
 		return doc;
 	}
 
+	@Test
+	public void completionAsync() throws InterruptedException,
+			ExecutionException {
+		TernDoc doc = createTernDocWithComplexResult();
+		MockTernCompletionCollector collector = new MockTernCompletionCollector();
+		Future<?> future = server.requestAsync(doc, collector);
+		future.get();
+
+		Assert.assertTrue(collector.getCompletions().size() > 0);
+		TernCompletionItem item = collector.get("concat");
+		Assert.assertNotNull(item);
+		Assert.assertEquals("fn(other: [?])", item.getType());
+	}
+
+	@Test
+	public void completionAsyncWithMissingEnd() throws InterruptedException {
+		TernDoc doc = createTernDocWithMissingEnd();
+		MockTernCompletionCollector collector = new MockTernCompletionCollector();
+		Future<?> future = server.requestAsync(doc, collector);
+		try {
+			future.get();
+			Assert.assertTrue(false);
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TernException);
+			Assert.assertEquals("TernError: missing .query.end field", e
+					.getCause().getMessage());
+		}
+	}
+
 }
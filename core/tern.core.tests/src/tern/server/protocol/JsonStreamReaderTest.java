@@ -0,0 +1,93 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.protocol;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+public class JsonStreamReaderTest {
+
+	@Test
+	public void readCompletions() throws IOException {
+		String json = "{\"start\":{\"line\":0,\"ch\":5}, \"end\":{\"line\":0,\"ch\":6},"
+				+ "\"isProperty\":true,\"isObjectKey\":false,"
+				+ "\"completions\":[{\"name\":\"max\",\"type\":\"fn(number) -> number\"},"
+				+ "{\"name\":\"min\",\"doc\":\"a \\\"quoted\\\" \\u00e9 doc\\n\"}, \"PI\"]}";
+		JsonStreamReader reader = new JsonStreamReader(new StringReader(json));
+		List<JsonValue> completions = new ArrayList<JsonValue>();
+		JsonValue start = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("start".equals(name)) {
+				start = reader.nextValue();
+			} else if ("completions".equals(name)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					completions.add(reader.nextValue());
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		Assert.assertEquals(5, ((JsonObject) start).get("ch").asInt());
+		Assert.assertEquals(3, completions.size());
+		Assert.assertEquals("max",
+				JsonHelper.getString((JsonObject) completions.get(0), "name"));
+		Assert.assertEquals("a \"quoted\" é doc\n",
+				JsonHelper.getString((JsonObject) completions.get(1), "doc"));
+		Assert.assertEquals("PI", completions.get(2).asString());
+	}
+
+	@Test
+	public void nextValueBuildsSameTree() throws IOException {
+		String json = "{\"a\":[1,-2.5e3,true,false,null,\"s\"],\"b\":{\"c\":{}},\"d\":[]}";
+		JsonStreamReader reader = new JsonStreamReader(new StringReader(json));
+		Assert.assertEquals(JsonObject.readFrom(json), reader.nextValue());
+	}
+
+	@Test
+	public void skipNestedValues() throws IOException {
+		String json = "{\"skip\":{\"a\":[{\"b\":\"}]\"}, [1, 2]]},\"skip2\":12,\"keep\":\"value\"}";
+		JsonStreamReader reader = new JsonStreamReader(new StringReader(json));
+		String keep = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("keep".equals(name)) {
+				keep = reader.nextValue().asString();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		Assert.assertEquals("value", keep);
+	}
+
+	@Test(expected = IOException.class)
+	public void unterminatedString() throws IOException {
+		JsonStreamReader reader = new JsonStreamReader(new StringReader(
+				"{\"name"));
+		reader.beginObject();
+		reader.nextName();
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.protocol.html;
+
+/**
+ * Benchmark of the extract of JS content from HTML content with
+ * {@link HtmlJSExtractor} against the states. Run it as a Java application.
+ */
+public class HtmlHelperBenchmark {
+
+	private static final int ITERATIONS = 200;
+
+	public static void main(String[] args) {
+		String html = createHtml(2000);
+		System.out.println("HTML size: " + html.length() + " chars");
+		for (int round = 0; round < 3; round++) {
+			long states = run(html, true);
+			long extractor = run(html, false);
+			System.out.println("states: " + states + "ms, extractor: "
+					+ extractor + "ms");
+		}
+	}
+
+	private static long run(String html, boolean states) {
+		long start = System.nanoTime();
+		int length = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			String js = states ? HtmlHelper.extractJSByStates(html,
+					ScriptTagRegion.SCRIPT_TAG) : HtmlHelper.extractJS(html);
+			length += js.length();
+		}
+		if (length != html.length() * ITERATIONS) {
+			throw new IllegalStateException();
+		}
+		return (System.nanoTime() - start) / 1000000L;
+	}
+
+	/**
+	 * Returns a page with the given number of blocks of HTML and scripts.
+	 */
+	private static String createHtml(int blocks) {
+		StringBuilder html = new StringBuilder("<html>\n<body>\n");
+		for (int i = 0; i < blocks; i++) {
+			html.append("<div class=\"item\" id=\"item").append(i)
+					.append("\">\n\t<span>Item ").append(i)
+					.append("</span> &lt;b&gt;\n</div>\n");
+			if (i % 4 == 0) {
+				html.append("<script type=\"text/javascript\">\n")
+						.append("\tvar item").append(i)
+						.append(" = document.getElementById('item")
+						.append(i).append("');\n\tif (item").append(i)
+						.append(" && a < b) { item").append(i)
+						.append(".style.color = 'red'; }\n</script>\n");
+			}
+		}
+		return html.append("</body>\n</html>\n").toString();
+	}
+}
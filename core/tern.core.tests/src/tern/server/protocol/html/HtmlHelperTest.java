@@ -10,6 +10,8 @@
  */
 package tern.server.protocol.html;
 
+import java.util.Random;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -52,4 +54,43 @@ public class HtmlHelperTest {
 				html);
 
 	}
+
+	@Test
+	public void extractorGivesSameResultAsStates() {
+		// characters of the patterns, whitespaces and JS.
+		String alphabet = "<</>>scriptaui:  \n\r\tvar=;";
+		ScriptTagRegion[][] tagRegions = new ScriptTagRegion[][] {
+				{ ScriptTagRegion.SCRIPT_TAG }, { AUI_SCRIPT_TAG },
+				{ ScriptTagRegion.SCRIPT_TAG, AUI_SCRIPT_TAG },
+				{ AUI_SCRIPT_TAG, ScriptTagRegion.SCRIPT_TAG } };
+		Random random = new Random(0);
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder html = new StringBuilder();
+			int length = random.nextInt(60);
+			for (int j = 0; j < length; j++) {
+				if (random.nextInt(8) == 0) {
+					// a complete pattern
+					html.append(random.nextBoolean() ? "<script>"
+							: "</script>");
+				} else {
+					html.append(alphabet.charAt(random.nextInt(alphabet
+							.length())));
+				}
+			}
+			ScriptTagRegion[] tags = tagRegions[i % tagRegions.length];
+			String text = html.toString();
+			Assert.assertEquals(text,
+					HtmlHelper.extractJSByStates(text, tags),
+					HtmlHelper.extractJS(text, tags));
+		}
+	}
+
+	@Test
+	public void patternRestartsAfterMismatch() {
+		// the second '<' doesn't start again the pattern.
+		Assert.assertEquals("               ",
+				HtmlHelper.extractJS("<<script>var a;"));
+		Assert.assertEquals("        var a;         ",
+				HtmlHelper.extractJS("<script>var a;</script>"));
+	}
 }
@@ -0,0 +1,76 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.protocol.html;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IncrementalHtmlJSExtractorTest {
+
+	private static final ScriptTagRegion AUI_SCRIPT_TAG = new ScriptTagRegion(
+			"aui:script");
+
+	@Test
+	public void extractJSOfEditedScript() {
+		IncrementalHtmlJSExtractor extractor = new IncrementalHtmlJSExtractor(
+				ScriptTagRegion.SCRIPT_TAG);
+		String html = "<html><script>var a = [];</script>  <script>var b = [];</script></html>";
+		Assert.assertEquals(HtmlHelper.extractJS(html), extractor.extract(html));
+		// edit of the second script
+		html = "<html><script>var a = [];</script>  <script>var bb = [];</script></html>";
+		Assert.assertEquals(HtmlHelper.extractJS(html),
+				extractor.extract(html, 48, 1));
+		// edit which closes the first script
+		html = "<html><script>var a</script> = [];</script>  <script>var bb = [];</script></html>";
+		Assert.assertEquals(HtmlHelper.extractJS(html), extractor.extract(html));
+	}
+
+	@Test
+	public void incrementalExtractGivesSameResultAsExtract() {
+		// characters of the patterns, whitespaces and JS.
+		String alphabet = "<</>>scriptaui:  \n\r\tvar=;";
+		ScriptTagRegion[][] tagRegions = new ScriptTagRegion[][] {
+				{ ScriptTagRegion.SCRIPT_TAG },
+				{ ScriptTagRegion.SCRIPT_TAG, AUI_SCRIPT_TAG } };
+		Random random = new Random(0);
+		for (int i = 0; i < 200; i++) {
+			ScriptTagRegion[] tags = tagRegions[i % tagRegions.length];
+			IncrementalHtmlJSExtractor extractor = new IncrementalHtmlJSExtractor(
+					tags);
+			String html = "";
+			for (int j = 0; j < 100; j++) {
+				// replace a random region with random text.
+				int offset = random.nextInt(html.length() + 1);
+				int length = random.nextInt(Math.min(10, html.length()
+						- offset) + 1);
+				StringBuilder text = new StringBuilder();
+				int textLength = random.nextInt(html.length() < 200 ? 20 : 5);
+				for (int k = 0; k < textLength; k++) {
+					if (random.nextInt(8) == 0) {
+						// a complete pattern
+						text.append(random.nextBoolean() ? "<script>"
+								: "</script>");
+					} else {
+						text.append(alphabet.charAt(random.nextInt(alphabet
+								.length())));
+					}
+				}
+				html = html.substring(0, offset) + text
+						+ html.substring(offset + length);
+				String js = random.nextBoolean() ? extractor.extract(html,
+						offset, length) : extractor.extract(html);
+				Assert.assertEquals(html, HtmlHelper.extractJS(html, tags), js);
+			}
+		}
+	}
+}
@@ -11,6 +11,7 @@
 package tern;
 
 import java.io.IOException;
+import java.util.List;
 
 import com.eclipsesource.json.JsonArray;
 
@@ -50,6 +51,21 @@ public interface ITernFileSynchronizer {
 	 */
 	public void synchronizeFile(ITernFile file) throws IOException;
 
+	/**
+	 * Synchronizes the given file before sending the query of the given doc.
+	 * When the tern server has a previous version of the file which differs
+	 * only around the position of the query, the synchronizer can add this
+	 * part of the file to the doc and make the query refer to it instead of
+	 * uploading the whole file.
+	 * 
+	 * @param doc
+	 *            the tern doc which contains the query on the file.
+	 * @param file
+	 *            the file to synchronize.
+	 * @throws IOException
+	 */
+	public void synchronizeFile(TernDoc doc, ITernFile file) throws IOException;
+
 	/**
 	 * Sends contents referred by the custom script path to Tern Server. Useful
 	 * when needed for example to synchronize files referred by an HTML file.
@@ -76,6 +92,26 @@ public interface ITernFileSynchronizer {
 	 */
 	public void cleanIndexedFiles();
 
+	/**
+	 * Uploads again the files which were indexed, for instance when the tern
+	 * server was restarted after a crash. The files which were recently
+	 * synchronized with {@link #synchronizeFile(ITernFile)} (files opened in
+	 * editors) are uploaded first. The synchronizations done in the meantime
+	 * don't upload again the files which are replayed, except the queried
+	 * files. Blocks until server processes the files.
+	 */
+	public void replayIndexedFiles();
+
+	/**
+	 * Returns the tern docs which upload the files which are indexed, for
+	 * instance to fill a new tern server which will replace the current one.
+	 * The files which were recently synchronized with
+	 * {@link #synchronizeFile(ITernFile)} are in the first docs.
+	 * 
+	 * @return the tern docs which upload the files which are indexed.
+	 */
+	public List<TernDoc> createIndexedFilesDocs();
+
 	/**
 	 * Dispose the synchronizer.
 	 */
@@ -105,6 +105,13 @@ public interface ITernProject extends ITernAdaptable {
 	 */
 	JsonArray getLibs();
 
+	/**
+	 * Return the patterns of the files which must be loaded eagerly.
+	 * 
+	 * @return the loadEagerly patterns of the tern project or null.
+	 */
+	JsonArray getLoadEagerlyPatterns();
+
 	/**
 	 * Clear JSON Type Definitions.
 	 */
@@ -11,15 +11,36 @@
 package tern.resources;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import tern.ITernFile;
 import tern.ITernProject;
 import tern.internal.resources.InternalTernResourcesManager;
 import tern.server.protocol.TernFile;
+import tern.server.protocol.html.IncrementalHtmlJSExtractor;
 import tern.server.protocol.html.ScriptTagRegion;
 
 public abstract class AbstractTernFile implements ITernFile {
 
+	private static final int MAX_EXTRACTORS = 16;
+
+	/**
+	 * Extractors of the JS content of the last synchronized HTML files, which
+	 * extract again only the edited region of a file.
+	 */
+	private static final Map<String, IncrementalHtmlJSExtractor> extractors = new LinkedHashMap<String, IncrementalHtmlJSExtractor>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, IncrementalHtmlJSExtractor> eldest) {
+			return size() > MAX_EXTRACTORS;
+		}
+	};
+
 	@Override
 	public ScriptTagRegion[] getScriptTags() {
 		return InternalTernResourcesManager.getInstance().getScriptTagRegions(this);
@@ -27,8 +48,27 @@ public abstract class AbstractTernFile implements ITernFile {
 
 	@Override
 	public TernFile toTernServerFile(ITernProject context) throws IOException {
-		return new TernFile(getFullName(context), getContents(), 
-				getScriptTags(), null);
+		String name = getFullName(context);
+		String contents = getContents();
+		ScriptTagRegion[] tags = getScriptTags();
+		if (contents == null || tags == null) {
+			return new TernFile(name, contents, tags, null);
+		}
+		IncrementalHtmlJSExtractor extractor = getExtractor(context != null ? context
+				.getName() + "/" + name : name, tags);
+		return new TernFile(name, extractor.extract(contents), null, null);
+	}
+
+	private static IncrementalHtmlJSExtractor getExtractor(String key,
+			ScriptTagRegion[] tags) {
+		synchronized (extractors) {
+			IncrementalHtmlJSExtractor extractor = extractors.get(key);
+			if (extractor == null || !extractor.hasTagRegions(tags)) {
+				extractor = new IncrementalHtmlJSExtractor(tags);
+				extractors.put(key, extractor);
+			}
+			return extractor;
+		}
 	}
 	
 }
@@ -13,41 +13,89 @@ package tern.resources;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 import tern.ITernFile;
 import tern.ITernProject;
 import tern.TernResourcesManager;
 import tern.utils.ExtensionUtils;
-import tern.utils.IOUtils;
 
 /**
  * Basic Tern file implementation, which provides wrapper for java.io.File
+ * 
+ * <p>
+ * The file is read with a {@link FileChannel}: a file larger than the mapping
+ * threshold is mapped in memory instead of being copied, and the bytes are
+ * decoded directly into a char buffer reused by the reading thread. A file
+ * larger than the max file size is skipped: it is not accessible and its
+ * contents is empty.
+ * </p>
+ * 
+ * <p>
+ * The contents is cached in the {@link TernContentsCache} while the last
+ * modification time and the size of the file are the same.
+ * </p>
  */
 public class FilesystemTernFile extends AbstractTernFile implements ITernFile {
 
+	/**
+	 * Default min size in bytes of a file to map it in memory.
+	 */
+	public static final long DEFAULT_MAPPING_THRESHOLD = 256 * 1024;
+
+	/**
+	 * Max capacity of the char buffer kept by a reading thread.
+	 */
+	private static final int MAX_CACHED_CHARS = 1024 * 1024;
+
+	private static volatile String defaultEncoding;
+	private static volatile long maxFileSize;
+	private static volatile long mappingThreshold = DEFAULT_MAPPING_THRESHOLD;
+
+	/**
+	 * Decoder and char buffer of the reading thread.
+	 */
+	private static final ThreadLocal<Decoder> DECODER = new ThreadLocal<Decoder>();
+
+	private static class Decoder {
+
+		final CharsetDecoder decoder;
+		CharBuffer chars;
+
+		Decoder(Charset charset) {
+			this.decoder = charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	}
+
 	private File file;
 	private File canonical;
+	private String encoding;
 	
 	public FilesystemTernFile(File file) {
 		this.file = file;
 	}
 	
+	public FilesystemTernFile(File file, String encoding) {
+		this.file = file;
+		this.encoding = encoding;
+	}
+	
 	@Override
 	public boolean isAccessible() {
-		return file.isFile() && file.canRead();
+		return file.isFile() && file.canRead() && !isTooLarge(file.length());
 	}
 
 	@Override
 	public String getFullName(ITernProject project) {
-		if (canonical == null) {
-			//get the canonical path of the file
-			try {
-				canonical = file.getCanonicalFile();
-			} catch (IOException ex) {
-				//best effort
-				canonical = file;
-			}
-		}
+		File canonical = getCanonicalFile();
 		if (project != null) {
 			//check if the file belongs to the project
 			try {
@@ -67,6 +115,19 @@ public class FilesystemTernFile extends AbstractTernFile implements ITernFile {
 		return EXTERNAL_PROTOCOL + canonical.toString();
 	}
 
+	private File getCanonicalFile() {
+		if (canonical == null) {
+			//get the canonical path of the file
+			try {
+				canonical = file.getCanonicalFile();
+			} catch (IOException ex) {
+				//best effort
+				canonical = file;
+			}
+		}
+		return canonical;
+	}
+
 	@Override
 	public String getFileName() {
 		String full = getFullName(null);
@@ -79,17 +140,152 @@ public class FilesystemTernFile extends AbstractTernFile implements ITernFile {
 
 	@Override
 	public String getContents() throws IOException {
+		long stamp = file.lastModified();
+		long size = file.length();
+		if (isTooLarge(size)) {
+			return ""; //$NON-NLS-1$
+		}
+		Charset charset = getCharset();
+		if (stamp == 0) {
+			// the file doesn't exist or its time cannot be read.
+			return readContents(charset);
+		}
+		TernContentsCache cache = TernContentsCache.getInstance();
+		String path = getCanonicalFile().getPath();
+		String contents = cache.get(path, stamp, size, charset.name());
+		if (contents == null) {
+			contents = readContents(charset);
+			cache.put(path, stamp, size, charset.name(), contents);
+		}
+		return contents;
+	}
+
+	private String readContents(Charset charset) throws IOException {
 		FileInputStream input = new FileInputStream(file);
 		try {
-			return IOUtils.toString(input);
+			FileChannel channel = input.getChannel();
+			long size = channel.size();
+			if (isTooLarge(size)) {
+				return ""; //$NON-NLS-1$
+			}
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File too large: " + file); //$NON-NLS-1$
+			}
+			ByteBuffer bytes;
+			if (size >= mappingThreshold) {
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				bytes = ByteBuffer.allocate((int) size);
+				while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+					// read until the end of the file
+				}
+				bytes.flip();
+			}
+			return decode(bytes, charset);
 		} finally {
 			input.close();
 		}
 	}
 
+	/**
+	 * Returns the charset of the file: its encoding, the default encoding if
+	 * it has no encoding and the platform charset otherwise.
+	 */
+	private Charset getCharset() {
+		String name = encoding != null ? encoding : defaultEncoding;
+		return name != null ? Charset.forName(name) : Charset
+				.defaultCharset();
+	}
+
+	/**
+	 * Decode the given bytes with the decoder of the current thread. Malformed
+	 * bytes are replaced like with a {@link java.io.InputStreamReader}.
+	 */
+	private static String decode(ByteBuffer bytes, Charset charset)
+			throws IOException {
+		Decoder decoder = DECODER.get();
+		if (decoder == null || !decoder.decoder.charset().equals(charset)) {
+			decoder = new Decoder(charset);
+			DECODER.set(decoder);
+		}
+		int capacity = (int) Math.min(Integer.MAX_VALUE, (long) Math
+				.ceil(bytes.remaining()
+						* (double) decoder.decoder.maxCharsPerByte()) + 1);
+		CharBuffer chars = decoder.chars;
+		if (chars == null || chars.capacity() < capacity) {
+			chars = CharBuffer.allocate(capacity);
+		}
+		chars.clear();
+		CharsetDecoder charsetDecoder = decoder.decoder.reset();
+		CoderResult result = charsetDecoder.decode(bytes, chars, true);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		result = charsetDecoder.flush(chars);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		chars.flip();
+		String text = chars.toString();
+		// don't keep the buffer of a very large file.
+		decoder.chars = chars.capacity() <= MAX_CACHED_CHARS ? chars : null;
+		return text;
+	}
+
+	private static boolean isTooLarge(long size) {
+		long max = maxFileSize;
+		return max > 0 && size > max;
+	}
+
+	/**
+	 * Set the encoding of the file, null to use the default encoding.
+	 * 
+	 * @param encoding
+	 *            the encoding name.
+	 */
+	public void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Set the encoding of the files which have no encoding, null to use the
+	 * platform encoding.
+	 * 
+	 * @param encoding
+	 *            the encoding name.
+	 */
+	public static void setDefaultEncoding(String encoding) {
+		defaultEncoding = encoding;
+	}
+
+	/**
+	 * Set the max size in bytes of the files which are read, 0 to read all
+	 * the files. A larger file is skipped: its contents is empty.
+	 * 
+	 * @param size
+	 *            the max file size.
+	 */
+	public static void setMaxFileSize(long size) {
+		maxFileSize = size;
+	}
+
+	/**
+	 * Set the min size in bytes of a file to map it in memory instead of
+	 * reading it into a buffer.
+	 * 
+	 * @param threshold
+	 *            the mapping threshold.
+	 */
+	public static void setMappingThreshold(long threshold) {
+		mappingThreshold = threshold;
+	}
+
 	@Override
 	public ITernFile getRelativeFile(String relativePath) {
-		File f = new File(file, relativePath);
+		File f = new File(file.getParentFile(), relativePath);
+		if (!f.isFile()) {
+			return null;
+		}
 		return TernResourcesManager.getTernFile(f);
 	}
 	
@@ -0,0 +1,253 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.resources;
+
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the contents of the files, shared by the projects to avoid reading
+ * again the files which have not changed on each synchronization with the tern
+ * server.
+ * 
+ * <p>
+ * An entry is keyed by the canonical path of the file and is valid while the
+ * modification stamp, the size and the encoding of the file are the same. The
+ * contents of a file modified less than the resolution of the modification
+ * times ago is not cached, because the file could be modified again with the
+ * same stamp. The cache is bounded by the memory used by the contents: the
+ * least recently used entries are evicted when the max size is reached.
+ * </p>
+ */
+public class TernContentsCache {
+
+	/**
+	 * Default max size in bytes of the cached contents.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+	private static final TernContentsCache INSTANCE = new TernContentsCache(
+			DEFAULT_MAX_SIZE);
+
+	private static class Entry {
+
+		final long stamp;
+		final long size;
+		final String encoding;
+		final String contents;
+
+		Entry(long stamp, long size, String encoding, String contents) {
+			this.stamp = stamp;
+			this.size = size;
+			this.encoding = encoding;
+			this.contents = contents;
+		}
+
+		boolean isValid(long stamp, long size, String encoding) {
+			return this.stamp == stamp && this.size == size
+					&& (this.encoding == null ? encoding == null
+							: this.encoding.equals(encoding));
+		}
+	}
+
+	/**
+	 * Entries in access order, the least recently used first.
+	 */
+	private final LinkedHashMap<String, Entry> entries;
+
+	private long maxSize;
+	private long size;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public static TernContentsCache getInstance() {
+		return INSTANCE;
+	}
+
+	public TernContentsCache(long maxSize) {
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the cached contents of the given file and null if the contents
+	 * is not cached or if the file has changed since.
+	 * 
+	 * @param path
+	 *            the canonical path of the file.
+	 * @param stamp
+	 *            the modification stamp of the file.
+	 * @param size
+	 *            the size of the file.
+	 * @param encoding
+	 *            the encoding of the file.
+	 * @return the cached contents of the file or null.
+	 */
+	public synchronized String get(String path, long stamp, long size,
+			String encoding) {
+		encoding = normalizeEncoding(encoding);
+		Entry entry = entries.get(path);
+		if (entry != null) {
+			if (entry.isValid(stamp, size, encoding)) {
+				hits++;
+				return entry.contents;
+			}
+			remove(path);
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Cache the contents of the given file.
+	 * 
+	 * @param path
+	 *            the canonical path of the file.
+	 * @param stamp
+	 *            the modification stamp of the file before it was read.
+	 * @param size
+	 *            the size of the file before it was read.
+	 * @param encoding
+	 *            the encoding of the file.
+	 * @param contents
+	 *            the contents of the file.
+	 */
+	public synchronized void put(String path, long stamp, long size,
+			String encoding, String contents) {
+		remove(path);
+		long contentsSize = getSize(contents);
+		if (contentsSize > maxSize || stamp > System.currentTimeMillis()
+				- TernFileWatcher.TIME_RESOLUTION) {
+			return;
+		}
+		entries.put(path, new Entry(stamp, size, normalizeEncoding(encoding),
+				contents));
+		this.size += contentsSize;
+		evict();
+	}
+
+	/**
+	 * Remove the contents of the given file from the cache.
+	 * 
+	 * @param path
+	 *            the canonical path of the file.
+	 */
+	public synchronized void remove(String path) {
+		Entry entry = entries.remove(path);
+		if (entry != null) {
+			size -= getSize(entry.contents);
+		}
+	}
+
+	/**
+	 * Remove all the contents from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Set the max size in bytes of the cached contents, 0 to disable the
+	 * cache.
+	 * 
+	 * @param maxSize
+	 *            the max size in bytes.
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	/**
+	 * Evict the least recently used entries while the max size is exceeded.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet()
+				.iterator();
+		while (size > maxSize && it.hasNext()) {
+			size -= getSize(it.next().getValue().contents);
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Returns the canonical name of the given encoding, so that the aliases of
+	 * a charset (for instance "utf8" and "UTF-8") share the same entries.
+	 */
+	private static String normalizeEncoding(String encoding) {
+		if (encoding == null) {
+			return null;
+		}
+		try {
+			return Charset.forName(encoding).name();
+		} catch (IllegalArgumentException e) {
+			// unknown charset: the file cannot be read with it anyway.
+			return encoding;
+		}
+	}
+
+	/**
+	 * Returns the memory used by the given contents: 2 bytes per char.
+	 */
+	private static long getSize(String contents) {
+		return contents.length() * 2L;
+	}
+
+	/**
+	 * Returns the size in bytes of the cached contents.
+	 * 
+	 * @return the size in bytes of the cached contents.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of contents found in the cache.
+	 * 
+	 * @return the number of contents found in the cache.
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of contents not found in the cache or which have
+	 * changed.
+	 * 
+	 * @return the number of contents not found in the cache.
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of contents evicted to respect the max size.
+	 * 
+	 * @return the number of contents evicted.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return new StringBuilder("files=").append(entries.size())
+				.append(", size=").append(size).append(", hits=")
+				.append(hits).append(", misses=").append(misses)
+				.append(", evictions=").append(evictions).toString();
+	}
+}
@@ -12,12 +12,30 @@
 package tern.resources;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import tern.ITernFileSynchronizer;
 import tern.ITernFile;
@@ -27,43 +45,292 @@ import tern.scriptpath.ITernScriptResource;
 import tern.scriptpath.ITernScriptPath;
 import tern.server.IResponseHandler;
 import tern.server.ITernServer;
+import tern.server.TernRequestPriority;
+import tern.server.TernRequestScheduler;
 import tern.server.protocol.TernDoc;
 import tern.server.protocol.TernFile;
+import tern.server.protocol.TernQuery;
 
 import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonValue;
 
 /**
  * Tern file synchronizer is used to maintain a cache with indexed files which
  * was already parsed by the tern server to avoid parsing files on each tern
  * request. It is also responsible to keep up-to-date version of those files on
  * the server.
+ * 
+ * <p>
+ * The synchronizer keeps a hash of the text of each file uploaded to the tern
+ * server. A file which is not indexed anymore (ex : its resource has changed)
+ * is uploaded again only if its text is different from the uploaded text.
+ * </p>
+ * 
+ * <p>
+ * In incremental mode (disabled by default), the synchronizer keeps the text
+ * uploaded for the files recently synchronized before a query. When such a
+ * large file is modified only around the position of the query, the enclosing
+ * top-level function is sent with the query as a tern "part" file instead of
+ * the whole file. The tern server keeps its previous text of the file, that's
+ * why the whole file is uploaded again after a max number of part updates or
+ * when the text outside the part has changed.
+ * </p>
+ * 
+ * <p>
+ * The synchronizer is used by several threads (hover, completion, validation,
+ * background synchronization). The state of each file is updated under the
+ * lock of this file only and the sets of file names are concurrent sets, so
+ * that independent files are synchronized in parallel and no lock is held
+ * while the script paths are traversed and the files are read.
+ * </p>
+ * 
+ * <p>
+ * In lazy loading mode, the files of the script paths are not uploaded before
+ * the first query: only the files which match the loadEagerly patterns of the
+ * project are uploaded. The file of a query is uploaded with the files which
+ * it depends on, through require("./module") and define([...]) references,
+ * recursively. The script paths of HTML pages are uploaded when they are
+ * synchronized, that's why the scripts of a page are loaded with the page.
+ * </p>
  */
 public class TernFileSynchronizer implements ITernFileSynchronizer {
 
 	private static final int MAX_FILES = 20;
 
 	/**
-	 * List of JS files which was already parsed by the tern server.
+	 * Max number of files recently synchronized which are replayed first.
 	 */
-	private final Set<String> indexedFiles;
-	private final Set<String> syncedFiles;
-	private final Map<ITernScriptPath, Set<String>> syncedFilesPerPath;
+	private static final int MAX_RECENT_FILES = MAX_FILES;
+
+	/**
+	 * Incremental mode is disabled by default: outside the sent part, the
+	 * query is executed on the previous text of the file.
+	 */
+	public static final boolean DEFAULT_INCREMENTAL_SYNC = false;
+
+	/**
+	 * Default min number of lines of a file to send a part of it.
+	 */
+	public static final int DEFAULT_MIN_PARTIAL_LINES = 250;
+
+	/**
+	 * Default max number of consecutive part updates of a file after which
+	 * the whole file is uploaded.
+	 */
+	public static final int DEFAULT_MAX_PARTIAL_UPDATES = 10;
+
+	/**
+	 * Query types which can be executed on a part of a file by default.
+	 */
+	public static final Collection<String> DEFAULT_PARTIAL_QUERY_TYPES = Arrays
+			.asList("completions", "type", "definition", "documentation");
+
+	/**
+	 * Max number of lines before the query position where the enclosing
+	 * function is searched.
+	 */
+	private static final int MAX_PART_LINES_BEFORE = 50;
+
+	/**
+	 * Max number of lines of a part after the query position.
+	 */
+	private static final int MAX_PART_LINES_AFTER = 20;
+
+	private static final int TAB_SIZE = 4;
+
+	/**
+	 * Max size of a batch of files before the upload throughput is measured.
+	 */
+	private static final int DEFAULT_BATCH_SIZE = 256 * 1024;
+
+	private static final int MIN_BATCH_SIZE = 32 * 1024;
+
+	private static final int MAX_BATCH_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Min size of a batch of files to measure the upload throughput.
+	 */
+	private static final int MIN_MEASURED_SIZE = 4 * 1024;
+
+	/**
+	 * Time in ms that the tern server should spend to parse a batch of files.
+	 */
+	private static final long TARGET_BATCH_TIME = 200L;
+
+	/**
+	 * Weight of the last measure in the upload throughput.
+	 */
+	private static final double THROUGHPUT_WEIGHT = 0.3;
+
+	/**
+	 * Default max number of batches of files sent without waiting the
+	 * response of the previous batch.
+	 */
+	public static final int DEFAULT_MAX_PIPELINED_BATCHES = 2;
+
+	/**
+	 * Min number of threads which read the files, the files are read by one
+	 * thread per processor otherwise.
+	 */
+	private static final int MIN_LOADER_THREADS = 2;
+
+	/**
+	 * Time in seconds after which an idle file loader thread is stopped.
+	 */
+	private static final long LOADER_KEEP_ALIVE = 60L;
+
+	/**
+	 * Threads which read the files to synchronize, shared by the projects.
+	 */
+	private static ExecutorService loaderExecutor;
+
+	private static final Pattern FUNCTION_PATTERN = Pattern
+			.compile("\\bfunction\\b");
+
+	/**
+	 * Max number of dependencies of a queried file loaded in lazy mode.
+	 */
+	private static final int MAX_LAZY_FILES = 500;
+
+	/**
+	 * CommonJS module reference : require("module")
+	 */
+	private static final Pattern REQUIRE_PATTERN = Pattern
+			.compile("\\brequire\\s*\\(\\s*(['\"])([^'\"\\s]+)\\1\\s*\\)");
+
+	/**
+	 * AMD module references : define("name", ["module", ...]) or
+	 * require(["module", ...])
+	 */
+	private static final Pattern AMD_PATTERN = Pattern
+			.compile("\\b(?:define|require)\\s*\\(\\s*(?:(['\"])[^'\"]*\\1\\s*,\\s*)?\\[([^\\]]*)\\]");
+
+	private static final Pattern STRING_PATTERN = Pattern
+			.compile("(['\"])([^'\"\\s]+)\\1");
+
+	/**
+	 * State on the tern server of the JS files, by file name.
+	 */
+	private final ConcurrentMap<String, FileState> fileStates;
+
+	/**
+	 * Names of the files of the script paths and of the files synchronized
+	 * since the last synchronization of all the script paths.
+	 */
+	private volatile Set<String> syncedFiles;
+	private final ConcurrentMap<ITernScriptPath, Set<String>> syncedFilesPerPath;
+
+	/**
+	 * Names of the files synchronized while all the script paths are
+	 * traversed, null if there is no such traversal. Guarded by
+	 * syncedFilesLock, like the replacement of syncedFiles.
+	 */
+	private Set<String> concurrentSyncedFiles;
+	private final Object syncedFilesLock = new Object();
+
+	private volatile boolean incrementalSync;
+	private volatile int minPartialLines;
+	private volatile int maxPartialUpdates;
+	private volatile Set<String> partialQueryTypes;
+
+	private volatile int maxPipelinedBatches;
+
+	private volatile boolean lazyLoading;
+
+	/**
+	 * Names of the files which the queried files depend on, loaded in lazy
+	 * mode.
+	 */
+	private final Set<String> reachableFiles;
+
+	/**
+	 * Number of characters parsed per ms by the tern server.
+	 */
+	private double uploadThroughput;
+
+	/**
+	 * Time in ns when the last batch of files was uploaded.
+	 */
+	private long lastUploadTime;
 
 	/**
 	 * List of JS files to delete.
 	 */
 	private final Set<String> filesToDelete;
 
+	/**
+	 * Names of the files recently synchronized with synchronizeFile, the most
+	 * recent at the end.
+	 */
+	private final LinkedHashSet<String> recentFiles;
+
 	private final ITernProject project;
 
+	/**
+	 * State of a JS file on the tern server. The fields, except the indexed
+	 * flag, are guarded by the state itself.
+	 */
+	private static class FileState {
+
+		/**
+		 * true if the file was already parsed by the tern server.
+		 */
+		volatile boolean indexed;
+
+		/**
+		 * true while the file is uploaded again to a restarted tern server by
+		 * {@link TernFileSynchronizer#replayIndexedFiles()}.
+		 */
+		volatile boolean replayed;
+
+		/**
+		 * Hash of the text uploaded to the tern server, null if unknown.
+		 */
+		Long hash;
+
+		/**
+		 * Text uploaded to the tern server if the file is a recent file.
+		 */
+		String text;
+
+		/**
+		 * Number of consecutive part updates.
+		 */
+		int partialUpdates;
+
+		/**
+		 * Hash of the text whose dependencies were searched, null if unknown.
+		 */
+		Long scannedHash;
+
+		/**
+		 * Ids of the modules referenced by the searched text.
+		 */
+		Set<String> moduleIds;
+
+		/**
+		 * Files which the file depends on.
+		 */
+		List<ITernFile> dependencies;
+	}
+
 	/**
 	 * Tern file manager constructor.
 	 */
 	public TernFileSynchronizer(ITernProject project) {
-		this.indexedFiles = new HashSet<String>();
-		this.syncedFiles = new HashSet<String>();
-		this.syncedFilesPerPath = new HashMap<ITernScriptPath, Set<String>>();
-		this.filesToDelete = new HashSet<String>();
+		this.fileStates = new ConcurrentHashMap<String, FileState>();
+		this.syncedFiles = newConcurrentSet();
+		this.syncedFilesPerPath = new ConcurrentHashMap<ITernScriptPath,
+				Set<String>>();
+		this.incrementalSync = DEFAULT_INCREMENTAL_SYNC;
+		this.minPartialLines = DEFAULT_MIN_PARTIAL_LINES;
+		this.maxPartialUpdates = DEFAULT_MAX_PARTIAL_UPDATES;
+		this.partialQueryTypes = new HashSet<String>(
+				DEFAULT_PARTIAL_QUERY_TYPES);
+		this.maxPipelinedBatches = DEFAULT_MAX_PIPELINED_BATCHES;
+		this.filesToDelete = newConcurrentSet();
+		this.reachableFiles = newConcurrentSet();
+		this.recentFiles = new LinkedHashSet<String>();
 		this.project = project;
 	}
 
@@ -79,9 +346,15 @@ public class TernFileSynchronizer implements ITernFileSynchronizer {
 	 *            file name.
 	 */
 	protected void addFileToDelete(String name) {
-		synchronized (filesToDelete) {
-			filesToDelete.add(name);
+		FileState state = fileStates.get(name);
+		if (state != null) {
+			synchronized (state) {
+				state.hash = null;
+				state.text = null;
+				state.partialUpdates = 0;
+			}
 		}
+		filesToDelete.add(name);
 	}
 
 	/**
@@ -91,9 +364,7 @@ public class TernFileSynchronizer implements ITernFileSynchronizer {
 	 *            file name.
 	 */
 	protected void removeFileToDelete(String name) {
-		synchronized (filesToDelete) {
-			filesToDelete.remove(name);
-		}
+		filesToDelete.remove(name);
 	}
 
 	/**
@@ -103,8 +374,9 @@ public class TernFileSynchronizer implements ITernFileSynchronizer {
 	 *            file name.
 	 */
 	protected void removeIndexedFile(String name) {
-		synchronized (indexedFiles) {
-			internalRemoveIndexedFile(name);
+		FileState state = fileStates.get(name);
+		if (state != null) {
+			state.indexed = false;
 		}
 		removeFileToDelete(name);
 	}
@@ -119,9 +391,22 @@ public class TernFileSynchronizer implements ITernFileSynchronizer {
 	 *         and false otherwise.
 	 */
 	protected boolean isIndexedFile(String name) {
-		synchronized (indexedFiles) {
-			return internalIsIndexedFile(name);
-		}
+		FileState state = fileStates.get(name);
+		return state != null && state.indexed;
+	}
+
+	/**
+	 * Returns true if the given file name is uploaded again to a restarted
+	 * tern server and false otherwise.
+	 * 
+	 * @param name
+	 *            file name.
+	 * @return true if the given file name is uploaded again to a restarted
+	 *         tern server and false otherwise.
+	 */
+	protected boolean isReplayedFile(String name) {
+		FileState state = fileStates.get(name);
+		return state != null && state.replayed;
 	}
 
 	/**
@@ -129,9 +414,7 @@ public class TernFileSynchronizer implements ITernFileSynchronizer {
 	 */
 	@Override
 	public void cleanIndexedFiles() {
-		synchronized (indexedFiles) {
-			indexedFiles.clear();
-		}
+		fileStates.clear();
 	}
 
 	/**
@@ -144,14 +427,32 @@ public class TernFileSynchronizer implements ITernFileSynchronizer {
 	@Override
 	public void filesUploaded(TernDoc doc) {
 		if (doc.hasFiles()) {
-			synchronized (indexedFiles) {
-				JsonArray files = doc.getFiles();
-				TernFile file = null;
-				for (Object object : files) {
-					file = (TernFile) object;
-					if (!internalIsIndexedFile(file.getName())) {
-						internalAddIndexedFile(file.getName());
-					}
+			JsonArray files = doc.getFiles();
+			TernFile file = null;
+			for (Object object : files) {
+				file = (TernFile) object;
+				String name = file.getName();
+				if (file.isPart()) {
+					// a part is only used by the query of the doc, the tern
+					// server keeps its previous text of the file.
+					continue;
+				}
+				if (file.isDelete()) {
+					fileStates.remove(name);
+					continue;
+				}
+				// the text of the file on the server is unknown if null.
+				String text = file.getText();
+				Long hash = text != null ? computeHash(text) : null;
+				boolean keepText = text != null && incrementalSync
+						&& isRecentFile(name);
+				FileState state = getFileState(name);
+				synchronized (state) {
+					state.hash = hash;
+					state.text = keepText ? text : null;
+					state.partialUpdates = 0;
+					state.indexed = true;
+					state.replayed = false;
 				}
 			}
 		}
@@ -160,24 +461,22 @@ public class TernFileSynchronizer implements ITernFileSynchronizer {
 	// ----------------- Internal methods
 
 	/**
-	 * Add the given file name to the the indexed files.
+	 * Returns the state of the given file name, created if needed.
 	 * 
 	 * @param name
 	 *            file name.
-	 * @return
+	 * @return the state of the given file name.
 	 */
-	private boolean internalAddIndexedFile(String name) {
-		return indexedFiles.add(name);
-	}
-
-	/**
-	 * Remove the file name from the indexed files.
-	 * 
-	 * @param name
-	 *            file name.
-	 */
-	private boolean internalRemoveIndexedFile(String name) {
-		return indexedFiles.remove(name);
+	private FileState getFileState(String name) {
+		FileState state = fileStates.get(name);
+		if (state == null) {
+			FileState newState = new FileState();
+			state = fileStates.putIfAbsent(name, newState);
+			if (state == null) {
+				state = newState;
+			}
+		}
+		return state;
 	}
 
 	/**
@@ -190,23 +489,67 @@ public class TernFileSynchronizer implements ITernFileSynchronizer {
 	 *         and false otherwise.
 	 */
 	protected boolean internalIsIndexedFile(String name) {
-		return indexedFiles.contains(name);
+		return isIndexedFile(name);
+	}
+
+	/**
+	 * Returns true if the text of the given file is different from the text
+	 * uploaded to the tern server or if the file is uploaded again to a
+	 * restarted tern server. A file which has the same text is indexed again.
+	 * 
+	 * @param file
+	 *            the tern file to upload.
+	 * @return true if the given file must be uploaded and false otherwise.
+	 */
+	private boolean isModified(TernFile file) {
+		FileState state = fileStates.get(file.getName());
+		String text = file.getText();
+		if (state == null || text == null) {
+			return true;
+		}
+		long hash = computeHash(text);
+		synchronized (state) {
+			if (state.hash == null || state.hash != hash || state.replayed) {
+				return true;
+			}
+			state.indexed = true;
+		}
+		return false;
+	}
+
+	private static Set<String> newConcurrentSet() {
+		return Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	}
+
+	/**
+	 * Returns the 64-bit FNV-1a hash of the given text.
+	 * 
+	 * @param text
+	 *            the text.
+	 * @return the hash of the given text.
+	 */
+	protected static long computeHash(String text) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < text.length(); i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
 	}
 
 	// ------- Main synchronization code
 	@Override
 	public void fillSyncedFileNames(JsonArray fileNames, ITernScriptPath path) {
-		synchronized (indexedFiles) {
-			Set<String> files;
-			if (path != null) {
-				files = syncedFilesPerPath.get(path);
-			} else {
-				files = syncedFiles;
-			}
-			if (files != null) {
-				for (String file : files) {
-					fileNames.add(file);
-				}
+		Set<String> files;
+		if (path != null) {
+			files = syncedFilesPerPath.get(path);
+		} else {
+			files = syncedFiles;
+		}
+		if (files != null) {
+			for (String file : files) {
+				fileNames.add(file);
 			}
 		}
 	}
@@ -215,118 +558,1010 @@ public class TernFileSynchronizer implements ITernFileSynchronizer {
 	public void ensureSynchronized() {
 		TernDoc doc = new TernDoc();
 		// updated/added new JS files
-		synchronized (indexedFiles) {
-			// make sure we do not send duplicate files
-			Set<String> requestedFiles = new HashSet<String>();
-			syncedFilesPerPath.clear();
-			syncedFiles.clear();
-			for (ITernScriptPath path : getProject().getScriptPaths()) {
-				Set<String> perPath = new HashSet<String>();
-				syncedFilesPerPath.put(path, perPath);
-				for (ITernScriptResource resource : path.getScriptResources()) {
-					ITernFile file = resource.getFile();
-					if (file == null) {
-						continue;
-					}
-					String name = file.getFullName(getProject());
-					perPath.add(name);
-					syncedFiles.add(name);
-					if (!indexedFiles.contains(name)
-							&& !requestedFiles.contains(name)) {
-						try {
-							doc.addFile(file.toTernServerFile(getProject()));
-							requestedFiles.add(name);
-						} catch (IOException e) {
-							getProject().handleException(e);
-						}
-					}
+		List<ITernFile> filesToLoad = new ArrayList<ITernFile>();
+		// make sure we do not send duplicate files
+		Set<String> requestedFiles = new HashSet<String>();
+		// the synced files are replaced at the end of the traversal to not
+		// expose a partial list to the queries.
+		Set<String> files = newConcurrentSet();
+		Set<String> concurrentFiles = new HashSet<String>();
+		synchronized (syncedFilesLock) {
+			concurrentSyncedFiles = concurrentFiles;
+		}
+		List<Pattern> eagerPatterns = lazyLoading ? getLoadEagerlyPatterns()
+				: null;
+		List<ITernScriptPath> paths = getProject().getScriptPaths();
+		for (ITernScriptPath path : paths) {
+			Set<String> perPath = new HashSet<String>();
+			for (ITernScriptResource resource : path.getScriptResources()) {
+				ITernFile file = resource.getFile();
+				if (file == null) {
+					continue;
 				}
+				String name = file.getFullName(getProject());
+				if (eagerPatterns != null && !reachableFiles.contains(name)
+						&& !matches(eagerPatterns, name)) {
+					// the file is loaded when a queried file depends on it.
+					continue;
+				}
+				perPath.add(name);
+				files.add(name);
+				if (!isIndexedFile(name) && !isReplayedFile(name)
+						&& requestedFiles.add(name)) {
+					filesToLoad.add(file);
+				}
+			}
+			syncedFilesPerPath.put(path, perPath);
+		}
+		syncedFilesPerPath.keySet().retainAll(paths);
+		synchronized (syncedFilesLock) {
+			// keep the files synchronized by the queries during the traversal.
+			files.addAll(concurrentFiles);
+			syncedFiles = files;
+			if (concurrentSyncedFiles == concurrentFiles) {
+				concurrentSyncedFiles = null;
 			}
 		}
+		addModifiedFiles(doc, loadFiles(filesToLoad));
 		// delete files
-		synchronized (filesToDelete) {
-			for (String name : filesToDelete) {
+		for (String name : filesToDelete) {
+			if (filesToDelete.remove(name)) {
 				doc.delFile(name);
 			}
-			filesToDelete.clear();
 		}
 		// perform actual synchronization with the server
 		sendFiles(doc);
 	}
 
+	/**
+	 * Add the given file to the synchronized files, and to the files of the
+	 * running traversal of the script paths if any, so that the file is not
+	 * lost when the traversal replaces the synchronized files.
+	 * 
+	 * @param name
+	 *            the name of the synchronized file.
+	 */
+	private void addSyncedFile(String name) {
+		synchronized (syncedFilesLock) {
+			syncedFiles.add(name);
+			if (concurrentSyncedFiles != null) {
+				concurrentSyncedFiles.add(name);
+			}
+		}
+	}
+
 	@Override
 	public void synchronizeFile(ITernFile file) throws IOException {
-		TernDoc doc = new TernDoc();
-		syncedFiles.add(file.getFullName(getProject()));
-		doc.addFile(file.toTernServerFile(getProject()));
-		request(doc);
+		synchronizeFile(null, file);
 	}
 
 	@Override
-	public void synchronizeScriptPath(ITernScriptPath path, String... forced) {
+	public void synchronizeFile(TernDoc doc, ITernFile file)
+			throws IOException {
+		String name = file.getFullName(getProject());
+		addSyncedFile(name);
+		addRecentFile(name);
+		TernFile ternFile = file.toTernServerFile(getProject());
+		if (lazyLoading) {
+			reachableFiles.add(name);
+			loadDependencies(file, ternFile);
+		}
+		if (!isModified(ternFile)) {
+			// the tern server has already this text.
+			return;
+		}
+		if (doc != null && addPart(doc, ternFile)) {
+			// the query is executed on the part of the file.
+			return;
+		}
+		TernDoc uploadDoc = new TernDoc();
+		uploadDoc.addFile(ternFile);
+		// the file is synchronized before a query on it, don't wait the
+		// background synchronization.
+		request(uploadDoc, TernRequestPriority.Interactive);
+	}
+
+	/**
+	 * Upload the files which the given queried file depends on, recursively,
+	 * if they are not indexed. The dependencies are loaded again only when the
+	 * modules referenced by the queried file have changed, not on each
+	 * modification of its text.
+	 * 
+	 * @param file
+	 *            the queried file.
+	 * @param ternFile
+	 *            the loaded queried file.
+	 */
+	private void loadDependencies(ITernFile file, TernFile ternFile) {
+		if (!scanDependencies(file, ternFile)) {
+			// the dependencies were loaded by a previous query.
+			return;
+		}
+		Set<String> visited = new HashSet<String>();
+		visited.add(ternFile.getName());
+		List<ITernFile> pending = getScannedDependencies(ternFile.getName());
 		TernDoc doc = new TernDoc();
-		synchronized (indexedFiles) {
-			// make sure we do not send duplicate files
-			Set<String> requestedFiles = new HashSet<String>();
-			List<String> forcedFiles = Arrays.asList(forced);
-			Set<String> perPath = new HashSet<String>();
-			syncedFilesPerPath.put(path, perPath);
-			for (ITernScriptResource resource : path.getScriptResources()) {
-				ITernFile file = resource.getFile();
-				if (file == null) {
+		while (pending != null && !pending.isEmpty()
+				&& visited.size() < MAX_LAZY_FILES) {
+			Map<String, ITernFile> filesToLoad = new LinkedHashMap<String, ITernFile>();
+			List<ITernFile> next = new ArrayList<ITernFile>();
+			for (ITernFile dependency : pending) {
+				String name = dependency.getFullName(getProject());
+				if (!visited.add(name)) {
 					continue;
 				}
-				String name = file.getFullName(getProject());
-				syncedFiles.add(name);
-				perPath.add(name);
-				if ((!indexedFiles.contains(name) || forcedFiles.contains(name))
-						&& !requestedFiles.contains(name)) {
-					try {
-						doc.addFile(file.toTernServerFile(getProject()));
-						requestedFiles.add(name);
-					} catch (IOException e) {
-						getProject().handleException(e);
-					}
+				reachableFiles.add(name);
+				addSyncedFile(name);
+				List<ITernFile> dependencies = isIndexedFile(name)
+						|| isReplayedFile(name) ? getScannedDependencies(name)
+						: null;
+				if (dependencies != null) {
+					next.addAll(dependencies);
+				} else {
+					filesToLoad.put(name, dependency);
+				}
+			}
+			for (TernFile loadedFile : loadFiles(new ArrayList<ITernFile>(
+					filesToLoad.values()))) {
+				if (!isReplayedFile(loadedFile.getName())
+						&& isModified(loadedFile)) {
+					doc.addFile(loadedFile);
+				}
+				next.addAll(getDependencies(
+						filesToLoad.get(loadedFile.getName()), loadedFile));
+			}
+			pending = next;
+		}
+		sendFiles(doc);
+	}
+
+	/**
+	 * Returns the files which the given file depends on, searched in its text
+	 * if it has changed since the last search.
+	 */
+	private List<ITernFile> getDependencies(ITernFile file, TernFile ternFile) {
+		scanDependencies(file, ternFile);
+		List<ITernFile> dependencies = getScannedDependencies(ternFile
+				.getName());
+		if (dependencies == null) {
+			return Collections.emptyList();
+		}
+		return dependencies;
+	}
+
+	/**
+	 * Search the modules referenced by the given file if its text has changed
+	 * since the last search, and resolve them to files if they are not the
+	 * modules found by the last search.
+	 * 
+	 * @return true if the referenced modules have changed and false otherwise.
+	 */
+	private boolean scanDependencies(ITernFile file, TernFile ternFile) {
+		String text = ternFile.getText();
+		if (file == null || text == null) {
+			return false;
+		}
+		long hash = computeHash(text);
+		FileState state = getFileState(ternFile.getName());
+		synchronized (state) {
+			if (state.scannedHash != null && state.scannedHash == hash) {
+				return false;
+			}
+		}
+		Set<String> moduleIds = new LinkedHashSet<String>();
+		Matcher matcher = REQUIRE_PATTERN.matcher(text);
+		while (matcher.find()) {
+			moduleIds.add(matcher.group(2));
+		}
+		matcher = AMD_PATTERN.matcher(text);
+		while (matcher.find()) {
+			Matcher ids = STRING_PATTERN.matcher(matcher.group(2));
+			while (ids.find()) {
+				moduleIds.add(ids.group(2));
+			}
+		}
+		synchronized (state) {
+			if (moduleIds.equals(state.moduleIds)) {
+				// only the code has changed.
+				state.scannedHash = hash;
+				return false;
+			}
+		}
+		List<ITernFile> dependencies = new ArrayList<ITernFile>();
+		for (String id : moduleIds) {
+			addDependency(file, id, dependencies);
+		}
+		synchronized (state) {
+			state.scannedHash = hash;
+			state.moduleIds = moduleIds;
+			state.dependencies = dependencies;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the dependencies of the given file name and null if they were
+	 * not searched.
+	 */
+	private List<ITernFile> getScannedDependencies(String name) {
+		FileState state = fileStates.get(name);
+		if (state == null) {
+			return null;
+		}
+		synchronized (state) {
+			return state.scannedHash != null ? state.dependencies : null;
+		}
+	}
+
+	/**
+	 * Add the file of the given module id to the given dependencies if it
+	 * exists. A relative id is resolved from the given file, another id from
+	 * the project. Ids with a loader plugin, a protocol or an absolute path
+	 * are ignored.
+	 */
+	private void addDependency(ITernFile file, String id,
+			List<ITernFile> dependencies) {
+		if (id.indexOf('!') != -1 || id.indexOf(':') != -1
+				|| id.startsWith("/")) {
+			return;
+		}
+		String path = id.endsWith(".js") ? id : id + ".js";
+		ITernFile dependency;
+		if (id.startsWith("./") || id.startsWith("../")) {
+			dependency = file.getRelativeFile(path);
+		} else {
+			dependency = getProject().getFile(path);
+		}
+		if (dependency != null && dependency.isAccessible()) {
+			dependencies.add(dependency);
+		}
+	}
+
+	/**
+	 * Returns the loadEagerly patterns of the project compiled to regular
+	 * expressions.
+	 */
+	private List<Pattern> getLoadEagerlyPatterns() {
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		JsonArray globs = getProject().getLoadEagerlyPatterns();
+		if (globs != null) {
+			for (JsonValue glob : globs) {
+				if (glob.isString()) {
+					patterns.add(compileGlob(glob.asString()));
+				}
+			}
+		}
+		return patterns;
+	}
+
+	/**
+	 * Returns the regular expression of the given glob pattern, where "**"
+	 * matches any path, "*" any name and "?" any character of a name.
+	 */
+	private static Pattern compileGlob(String glob) {
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*') {
+				if (glob.startsWith("**/", i)) {
+					regex.append("(?:.*/)?");
+					i += 2;
+				} else if (glob.startsWith("**", i)) {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+				}
+			} else if (c == '?') {
+				regex.append("[^/]");
+			} else {
+				if ("\\.[]{}()+-^$|".indexOf(c) != -1) {
+					regex.append('\\');
+				}
+				regex.append(c);
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	private static boolean matches(List<Pattern> patterns, String name) {
+		for (Pattern pattern : patterns) {
+			if (pattern.matcher(name).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Set true to upload only the files which the queried files depend on and
+	 * the files which match the loadEagerly patterns, and false to upload all
+	 * the files of the script paths.
+	 * 
+	 * @param lazyLoading
+	 */
+	public void setLazyLoading(boolean lazyLoading) {
+		this.lazyLoading = lazyLoading;
+	}
+
+	/**
+	 * Returns true if only the files which the queried files depend on are
+	 * uploaded and false otherwise.
+	 * 
+	 * @return true if the files are loaded lazily and false otherwise.
+	 */
+	public boolean isLazyLoading() {
+		return lazyLoading;
+	}
+
+	/**
+	 * Add to the given doc the part of the given file around the position of
+	 * the query of the doc and make the query refer to this part, if the text
+	 * of the file outside the part is the text uploaded to the tern server.
+	 * 
+	 * @param doc
+	 *            the tern doc which contains the query on the file.
+	 * @param file
+	 *            the modified file.
+	 * @return true if the part was added to the doc and false if the whole
+	 *         file must be uploaded.
+	 */
+	private boolean addPart(TernDoc doc, TernFile file) {
+		String name = file.getName();
+		String text = file.getText();
+		TernQuery query = doc.getQuery();
+		FileState state = fileStates.get(name);
+		if (!incrementalSync || text == null || state == null
+				|| query == null || !name.equals(query.getFile())
+				|| !partialQueryTypes.contains(query.getType())) {
+			return false;
+		}
+		String uploadedText;
+		int updates;
+		synchronized (state) {
+			uploadedText = state.text;
+			updates = state.partialUpdates;
+		}
+		if (uploadedText == null) {
+			return false;
+		}
+		Integer end = query.getEnd();
+		if (end == null || end < 0 || end > text.length()
+				|| updates >= maxPartialUpdates) {
+			return false;
+		}
+		int[] lineStarts = getLineStarts(text);
+		if (lineStarts.length < minPartialLines) {
+			return false;
+		}
+		int line = getLine(lineStarts, end);
+		int fromLine = getPartStartLine(text, lineStarts, line);
+		int toLine = getPartEndLine(text, lineStarts, line, fromLine);
+		int from = lineStarts[fromLine];
+		int to = toLine < lineStarts.length ? lineStarts[toLine] : text
+				.length();
+		if (from == 0 && to == text.length()) {
+			return false;
+		}
+		// the text outside the part must not have changed, otherwise the
+		// tern server would execute the query with an obsolete structure.
+		int suffix = text.length() - to;
+		if (uploadedText.length() - suffix < from
+				|| !text.regionMatches(0, uploadedText, 0, from)
+				|| !text.regionMatches(to, uploadedText, uploadedText.length()
+						- suffix, suffix)) {
+			return false;
+		}
+		synchronized (state) {
+			if (state.text != uploadedText || state.partialUpdates != updates) {
+				// the file was uploaded by another thread in the meantime.
+				return false;
+			}
+			state.partialUpdates++;
+		}
+		int index = doc.hasFiles() ? doc.getFiles().size() : 0;
+		doc.addFile(name, text.substring(from, to), null, fromLine);
+		query.setFile("#" + index);
+		query.setEnd(end - from);
+		return true;
+	}
+
+	/**
+	 * Returns the start line of the part around the given line: the line of
+	 * the least indented function declared in the previous lines.
+	 */
+	private static int getPartStartLine(String text, int[] lineStarts,
+			int line) {
+		int min = Math.max(0, line - MAX_PART_LINES_BEFORE);
+		int minIndent = -1;
+		int minLine = min;
+		for (int i = line - 1; i >= min; i--) {
+			String lineText = getLineText(text, lineStarts, i);
+			if (!FUNCTION_PATTERN.matcher(lineText).find()) {
+				continue;
+			}
+			int indent = getIndent(lineText);
+			if (minIndent == -1 || indent < minIndent) {
+				minIndent = indent;
+				minLine = i;
+			}
+		}
+		return minLine;
+	}
+
+	/**
+	 * Returns the line after the part around the given line: the part ends
+	 * with the first line which is not more indented than the function of the
+	 * start line (the closing brace of the function).
+	 */
+	private static int getPartEndLine(String text, int[] lineStarts,
+			int line, int startLine) {
+		int max = Math.min(lineStarts.length, line + 1
+				+ MAX_PART_LINES_AFTER);
+		String startText = getLineText(text, lineStarts, startLine);
+		if (startLine == line
+				|| !FUNCTION_PATTERN.matcher(startText).find()) {
+			return max;
+		}
+		int startIndent = getIndent(startText);
+		if (startIndent == getIndent(getLineText(text, lineStarts, line))) {
+			return max;
+		}
+		for (int i = line + 1; i < max; i++) {
+			String lineText = getLineText(text, lineStarts, i);
+			if (lineText.trim().length() > 0
+					&& getIndent(lineText) <= startIndent) {
+				return i + 1;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the offsets of the start of the lines of the given text.
+	 */
+	private static int[] getLineStarts(String text) {
+		int count = 1;
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\n') {
+				count++;
+			}
+		}
+		int[] lineStarts = new int[count];
+		int line = 1;
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\n') {
+				lineStarts[line++] = i + 1;
+			}
+		}
+		return lineStarts;
+	}
+
+	private static int getLine(int[] lineStarts, int offset) {
+		int index = Arrays.binarySearch(lineStarts, offset);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	private static String getLineText(String text, int[] lineStarts, int line) {
+		int end = line + 1 < lineStarts.length ? lineStarts[line + 1] - 1
+				: text.length();
+		return text.substring(lineStarts[line], end);
+	}
+
+	/**
+	 * Returns the column of the first non whitespace character of the given
+	 * line.
+	 */
+	private static int getIndent(String line) {
+		int column = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '\t') {
+				column += TAB_SIZE - (column % TAB_SIZE);
+			} else if (Character.isWhitespace(c) || c == '\u00a0') {
+				column++;
+			} else {
+				break;
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * Set true to send a part of the large modified files before a query and
+	 * false to upload the whole files (default).
+	 * 
+	 * @param incrementalSync
+	 */
+	public void setIncrementalSync(boolean incrementalSync) {
+		this.incrementalSync = incrementalSync;
+		if (!incrementalSync) {
+			for (FileState state : fileStates.values()) {
+				synchronized (state) {
+					state.text = null;
+					state.partialUpdates = 0;
 				}
 			}
 		}
+	}
+
+	/**
+	 * Returns true if a part of the large modified files is sent before a
+	 * query and false otherwise.
+	 * 
+	 * @return true if a part of the large modified files is sent before a
+	 *         query and false otherwise.
+	 */
+	public boolean isIncrementalSync() {
+		return incrementalSync;
+	}
+
+	/**
+	 * Set the min number of lines of a file to send a part of it.
+	 * 
+	 * @param minPartialLines
+	 */
+	public void setMinPartialLines(int minPartialLines) {
+		this.minPartialLines = minPartialLines;
+	}
+
+	/**
+	 * Set the max number of consecutive part updates of a file after which
+	 * the whole file is uploaded.
+	 * 
+	 * @param maxPartialUpdates
+	 */
+	public void setMaxPartialUpdates(int maxPartialUpdates) {
+		this.maxPartialUpdates = maxPartialUpdates;
+	}
+
+	/**
+	 * Set the query types which can be executed on a part of a file.
+	 * 
+	 * @param queryTypes
+	 *            the query types.
+	 */
+	public void setPartialQueryTypes(Collection<String> queryTypes) {
+		this.partialQueryTypes = new HashSet<String>(queryTypes);
+	}
+
+	/**
+	 * Add the given file name to the recently synchronized files.
+	 * 
+	 * @param name
+	 *            file name.
+	 */
+	private void addRecentFile(String name) {
+		String oldest = null;
+		synchronized (recentFiles) {
+			recentFiles.remove(name);
+			recentFiles.add(name);
+			if (recentFiles.size() > MAX_RECENT_FILES) {
+				Iterator<String> it = recentFiles.iterator();
+				oldest = it.next();
+				it.remove();
+			}
+		}
+		FileState state = oldest != null ? fileStates.get(oldest) : null;
+		if (state != null) {
+			synchronized (state) {
+				state.text = null;
+				state.partialUpdates = 0;
+			}
+		}
+	}
+
+	private boolean isRecentFile(String name) {
+		synchronized (recentFiles) {
+			return recentFiles.contains(name);
+		}
+	}
+
+	@Override
+	public void replayIndexedFiles() {
+		List<String> names = getIndexedFileNames();
+		// the hashes are kept: the synchronizations of the other threads skip
+		// the replayed files instead of uploading the whole project again.
+		// A replayed file is indexed again when the server has processed it.
+		for (String name : names) {
+			FileState state = fileStates.get(name);
+			if (state != null) {
+				state.replayed = true;
+				state.indexed = false;
+			}
+		}
+		Set<String> replayed = new HashSet<String>(names);
+		for (TernDoc doc : createDocs(names)) {
+			request(doc);
+			for (Object object : doc.getFiles()) {
+				String name = ((TernFile) object).getName();
+				replayed.remove(name);
+				forgetReplayedFile(name);
+			}
+		}
+		// the files which don't exist anymore or which cannot be read.
+		for (String name : replayed) {
+			forgetReplayedFile(name);
+		}
+	}
+
+	/**
+	 * Forget the state of the given file if it is still replayed: the text of
+	 * the file on the tern server is unknown because its replay has failed.
+	 */
+	private void forgetReplayedFile(String name) {
+		FileState state = fileStates.get(name);
+		if (state != null && state.replayed) {
+			fileStates.remove(name, state);
+		}
+	}
+
+	/**
+	 * Returns the names of the files which was already parsed by the tern
+	 * server.
+	 * 
+	 * @return the names of the indexed files.
+	 */
+	protected List<String> getIndexedFileNames() {
+		List<String> names = new ArrayList<String>();
+		for (Map.Entry<String, FileState> entry : fileStates.entrySet()) {
+			if (entry.getValue().indexed) {
+				names.add(entry.getKey());
+			}
+		}
+		return names;
+	}
+
+	@Override
+	public List<TernDoc> createIndexedFilesDocs() {
+		return createDocs(getIndexedFileNames());
+	}
+
+	/**
+	 * Returns the tern docs which upload the existing files of the given
+	 * names, the most recently synchronized files first.
+	 */
+	private List<TernDoc> createDocs(List<String> names) {
+		names = new ArrayList<String>(names);
+		// the files recently synchronized, the most recent first.
+		List<String> recent;
+		synchronized (recentFiles) {
+			recent = new ArrayList<String>(recentFiles);
+		}
+		Collections.reverse(recent);
+		recent.retainAll(names);
+		names.removeAll(recent);
+		recent.addAll(names);
+		List<TernDoc> docs = new ArrayList<TernDoc>();
+		for (int i = 0; i < recent.size(); i += MAX_FILES) {
+			TernDoc doc = createDoc(recent.subList(i,
+					Math.min(i + MAX_FILES, recent.size())));
+			if (doc.hasFiles()) {
+				docs.add(doc);
+			}
+		}
+		return docs;
+	}
+
+	/**
+	 * Returns a tern doc which contains the existing files of the given names.
+	 * 
+	 * @param names
+	 *            the file names.
+	 * @return a tern doc which contains the existing files of the given names.
+	 */
+	private TernDoc createDoc(List<String> names) {
+		TernDoc doc = new TernDoc();
+		for (String name : names) {
+			ITernFile file = getProject().getFile(name);
+			if (file == null) {
+				// the file doesn't exist anymore.
+				continue;
+			}
+			try {
+				doc.addFile(file.toTernServerFile(getProject()));
+			} catch (IOException e) {
+				getProject().handleException(e);
+			}
+		}
+		return doc;
+	}
+
+	/**
+	 * Returns the tern files of the given files. The files are read and their
+	 * JavaScript is extracted in parallel by the file loader threads. A file
+	 * which cannot be read is ignored after its error has been handled by the
+	 * project.
+	 * 
+	 * @param files
+	 *            the files to load.
+	 * @return the tern files of the given files, in the same order.
+	 */
+	protected List<TernFile> loadFiles(List<ITernFile> files) {
+		List<TernFile> ternFiles = new ArrayList<TernFile>(files.size());
+		if (files.size() < 2) {
+			for (ITernFile file : files) {
+				try {
+					ternFiles.add(file.toTernServerFile(getProject()));
+				} catch (IOException e) {
+					getProject().handleException(e);
+				}
+			}
+			return ternFiles;
+		}
+		List<Future<TernFile>> futures = new ArrayList<Future<TernFile>>(
+				files.size());
+		ExecutorService executor = getLoaderExecutor();
+		for (final ITernFile file : files) {
+			futures.add(executor.submit(new Callable<TernFile>() {
+				@Override
+				public TernFile call() throws IOException {
+					return file.toTernServerFile(getProject());
+				}
+			}));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				ternFiles.add(futures.get(i).get());
+			} catch (ExecutionException e) {
+				getProject().handleException(e.getCause());
+			} catch (InterruptedException e) {
+				// the files which are not loaded will be loaded by the next
+				// synchronization.
+				for (int j = i; j < futures.size(); j++) {
+					futures.get(j).cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return ternFiles;
+	}
+
+	/**
+	 * Add to the given doc the given files which are modified.
+	 * 
+	 * @param doc
+	 *            the tern doc.
+	 * @param files
+	 *            the loaded tern files.
+	 */
+	private void addModifiedFiles(TernDoc doc, List<TernFile> files) {
+		for (TernFile file : files) {
+			if (isModified(file)) {
+				doc.addFile(file);
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getLoaderExecutor() {
+		if (loaderExecutor == null) {
+			int threads = Math.max(MIN_LOADER_THREADS, Runtime.getRuntime()
+					.availableProcessors());
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+					threads, LOADER_KEEP_ALIVE, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "Tern file loader");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+			loaderExecutor = executor;
+		}
+		return loaderExecutor;
+	}
+
+	@Override
+	public void synchronizeScriptPath(ITernScriptPath path, String... forced) {
+		TernDoc doc = new TernDoc();
+		List<ITernFile> filesToLoad = new ArrayList<ITernFile>();
+		// make sure we do not send duplicate files
+		Set<String> requestedFiles = new HashSet<String>();
+		List<String> forcedFiles = Arrays.asList(forced);
+		Set<String> perPath = new HashSet<String>();
+		for (ITernScriptResource resource : path.getScriptResources()) {
+			ITernFile file = resource.getFile();
+			if (file == null) {
+				continue;
+			}
+			String name = file.getFullName(getProject());
+			addSyncedFile(name);
+			perPath.add(name);
+			if (lazyLoading) {
+				reachableFiles.add(name);
+			}
+			if ((!isIndexedFile(name) || forcedFiles.contains(name))
+					&& requestedFiles.add(name)) {
+				filesToLoad.add(file);
+			}
+		}
+		syncedFilesPerPath.put(path, perPath);
+		addModifiedFiles(doc, loadFiles(filesToLoad));
 		// perform actual synchronization with the server
 		sendFiles(doc);
 	}
 
+	/**
+	 * Send the files of the given doc with background priority and wait the
+	 * end of the upload. The files are sent with several requests (batches) to
+	 * give the capability to interactive queries to be executed between two
+	 * requests: the size of a batch is the size of the text that the tern
+	 * server parses during the target batch time, measured with the previous
+	 * batches. Several batches are sent without waiting the response of the
+	 * previous batch (see {@link #setMaxPipelinedBatches(int)}).
+	 * 
+	 * @param doc
+	 *            the tern doc with files to send.
+	 */
 	protected void sendFiles(TernDoc doc) {
 		if (doc.hasFiles()) {
 			JsonArray files = doc.getFiles();
-			if (files.size() > MAX_FILES) {
-				// max files size reached => send files grouped by MAX_FILES
-				TernDoc newDoc = new TernDoc();
-				for (int i = 0; i < files.size(); i++) {
-					newDoc.addFile((TernFile) files.get(i));
-					if (i > 0 && (i % MAX_FILES) == 0) {
-						request(newDoc);
-						newDoc.cleanFiles();
-					}
+			LinkedList<Future<?>> pendingBatches = new LinkedList<Future<?>>();
+			TernDoc batch = new TernDoc();
+			int batchSize = 0;
+			int maxBatchSize = getBatchSize();
+			for (int i = 0; i < files.size(); i++) {
+				TernFile file = (TernFile) files.get(i);
+				int size = getSize(file);
+				if (batch.hasFiles() && batchSize + size > maxBatchSize) {
+					sendBatch(batch, batchSize, pendingBatches);
+					batch = new TernDoc();
+					batchSize = 0;
+					maxBatchSize = getBatchSize();
 				}
-				if (newDoc.hasFiles()) {
-					request(newDoc);
-				}
-			} else {
-				// no max files size reached => send all files.
-				request(doc);
+				batch.addFile(file);
+				batchSize += size;
+			}
+			sendBatch(batch, batchSize, pendingBatches);
+			while (!pendingBatches.isEmpty()) {
+				waitFor(pendingBatches.removeFirst());
 			}
 			doc.cleanFiles();
 		}
 	}
 
+	/**
+	 * Send the given batch of files after waiting the end of the oldest
+	 * pending batch if the max number of pipelined batches is reached.
+	 */
+	private void sendBatch(TernDoc batch, int size,
+			LinkedList<Future<?>> pendingBatches) {
+		while (pendingBatches.size() >= Math.max(1, maxPipelinedBatches)) {
+			waitFor(pendingBatches.removeFirst());
+		}
+		Future<?> future = requestAsync(batch, size,
+				TernRequestPriority.Background);
+		if (future != null) {
+			pendingBatches.add(future);
+		}
+	}
+
+	/**
+	 * Returns the size of the given file: the length of its text, which is
+	 * the number of bytes sent for an ASCII text.
+	 */
+	private static int getSize(TernFile file) {
+		String text = file.getText();
+		return text != null ? text.length() : 0;
+	}
+
+	/**
+	 * Returns the max size of a batch of files: the size of the text parsed
+	 * by the tern server during the target batch time.
+	 * 
+	 * @return the max size of a batch of files.
+	 */
+	private synchronized int getBatchSize() {
+		if (uploadThroughput <= 0) {
+			return DEFAULT_BATCH_SIZE;
+		}
+		double size = uploadThroughput * TARGET_BATCH_TIME;
+		return (int) Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, size));
+	}
+
+	/**
+	 * Update the upload throughput with the given uploaded batch. The time of
+	 * a batch starts when the previous batch ends if the batch was sent
+	 * before, to measure only the time spent by the server on the batch.
+	 * 
+	 * @param size
+	 *            the size of the uploaded batch.
+	 * @param sendTime
+	 *            the time in ns when the batch was sent.
+	 */
+	private synchronized void batchUploaded(int size, long sendTime) {
+		long now = System.nanoTime();
+		long elapsed = now - Math.max(sendTime, lastUploadTime);
+		lastUploadTime = now;
+		if (size < MIN_MEASURED_SIZE || elapsed <= 0) {
+			// the time is spent on the transport.
+			return;
+		}
+		double throughput = size * 1000000.0 / elapsed;
+		uploadThroughput = uploadThroughput <= 0 ? throughput
+				: uploadThroughput * (1 - THROUGHPUT_WEIGHT) + throughput
+						* THROUGHPUT_WEIGHT;
+	}
+
+	/**
+	 * Returns the measured number of characters that the tern server parses
+	 * per ms and 0 if no upload was measured.
+	 * 
+	 * @return the measured number of characters uploaded per ms.
+	 */
+	public synchronized double getUploadThroughput() {
+		return uploadThroughput;
+	}
+
+	/**
+	 * Set the max number of batches of files sent to the tern server without
+	 * waiting the response of the previous batch, 1 to wait the response of
+	 * each batch. The number of requests executed in the same time is also
+	 * bounded by the request scheduler of the tern server.
+	 * 
+	 * @param maxPipelinedBatches
+	 */
+	public void setMaxPipelinedBatches(int maxPipelinedBatches) {
+		this.maxPipelinedBatches = maxPipelinedBatches;
+	}
+
 	protected void request(TernDoc doc) {
+		request(doc, TernRequestPriority.Background);
+	}
+
+	/**
+	 * Send the given doc to the tern server with the given priority and wait
+	 * the end of the request.
+	 * 
+	 * @param doc
+	 *            the tern doc.
+	 * @param priority
+	 *            the priority of the request.
+	 */
+	protected void request(TernDoc doc, TernRequestPriority priority) {
+		Future<?> future = requestAsync(doc, 0, priority);
+		if (future != null) {
+			waitFor(future);
+		}
+	}
+
+	private void waitFor(Future<?> future) {
+		try {
+			TernRequestScheduler.waitFor(future);
+		} catch (TernException e) {
+			getProject().handleException(e);
+		}
+	}
+
+	/**
+	 * Send the given doc to the tern server with the given priority.
+	 * 
+	 * @param doc
+	 *            the tern doc.
+	 * @param size
+	 *            the size of the files of the doc to measure the upload
+	 *            throughput, 0 to not measure it.
+	 * @param priority
+	 *            the priority of the request.
+	 * @return the future of the request and null if there is no tern server.
+	 */
+	protected Future<?> requestAsync(TernDoc doc, final int size,
+			TernRequestPriority priority) {
 		ITernServer server = project.getTernServer();
 		if (server == null) {
-			return;
+			return null;
 		}
-		server.request(doc, new IResponseHandler() {
+		final long sendTime = System.nanoTime();
+		return server.requestAsync(doc, new IResponseHandler() {
 
 			@Override
 			public void onSuccess(Object data, String dataAsJsonString) {
+				if (size > 0) {
+					batchUploaded(size, sendTime);
+				}
 			}
 
 			@Override
@@ -338,53 +1573,11 @@ public class TernFileSynchronizer implements ITernFileSynchronizer {
 			public boolean isDataAsJsonString() {
 				return false;
 			}
-		});
+		}, priority);
 	}
 
 	@Override
 	public void dispose() {
 		cleanIndexedFiles();
 	}
-	/*
-	 * private void updateFragmentAround(TernDoc doc, String name, IDocument
-	 * document, int start, int end) {
-	 * 
-	 * FindReplaceDocumentAdapter adapter = new FindReplaceDocumentAdapter(
-	 * document); try { long s = System.currentTimeMillis();
-	 * 
-	 * IRegion region = adapter.find(end, "\\bfunction\\b", false, false, false,
-	 * true); System.err.println(region);
-	 * System.err.println(System.currentTimeMillis() - s);
-	 * 
-	 * if (region != null) { String text = document.get(region.getOffset(), end
-	 * - region.getOffset()); int n =
-	 * document.getLineOfOffset(region.getOffset()); System.err.println(n);
-	 * doc.addFile(name, text, n); doc.getQuery().setEnd(
-	 * JsonHelper.getInteger(doc.getQuery(), "end") - region.getOffset()); }
-	 * else { String text = document.get(); doc.addFile(name, text, null); }
-	 * 
-	 * } catch (BadLocationException e) { // TODO Auto-generated catch block
-	 * e.printStackTrace(); }
-	 * 
-	 * }
-	 */
-
-	/*
-	 * function getFragmentAround(data, start, end) { var doc = data.doc; var
-	 * minIndent = null, minLine = null, endLine, tabSize = 4; for (var p =
-	 * start.line - 1, min = Math.max(0, p - 50); p >= min; --p) { var line =
-	 * doc.getLine(p), fn = line.search(/\bfunction\b/); if (fn < 0) continue;
-	 * var indent = CodeMirror.countColumn(line, null, tabSize); if (minIndent
-	 * != null && minIndent <= indent) continue; minIndent = indent; minLine =
-	 * p; } if (minLine == null) minLine = min; var max =
-	 * Math.min(doc.lastLine(), end.line + 20); if (minIndent == null ||
-	 * minIndent == CodeMirror.countColumn(doc.getLine(start.line), null,
-	 * tabSize)) endLine = max; else for (endLine = end.line + 1; endLine < max;
-	 * ++endLine) { var indent = CodeMirror.countColumn(doc.getLine(endLine),
-	 * null, tabSize); if (indent <= minIndent) break; } var from = Pos(minLine,
-	 * 0); console.log(doc.getRange(from, Pos(endLine, 0))) return {type:
-	 * "part", name: data.name, offsetLines: from.line, text: doc.getRange(from,
-	 * Pos(endLine, 0))}; }
-	 */
-
 }
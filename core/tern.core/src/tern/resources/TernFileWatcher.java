@@ -0,0 +1,223 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.resources;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import tern.ITernFile;
+import tern.ITernProject;
+
+/**
+ * Watcher of the files indexed by a {@link TernFileSynchronizer} of a project
+ * outside Eclipse (files which can be adapted to {@link File}): it polls the
+ * last modification time and the size of the indexed files, so that a
+ * modified file is synchronized again by the next request and a deleted file
+ * is deleted from the tern server.
+ * 
+ * <p>
+ * The changes are coalesced: they are applied when a poll doesn't find new
+ * changes, or after a max number of polls, so that a mass change (ex : a
+ * branch switch) is applied once.
+ * </p>
+ * 
+ * <p>
+ * A file which is indexed while the watcher is started is considered as
+ * modified if it was modified after the start of the watcher: the watcher
+ * should be started before the first synchronization.
+ * </p>
+ */
+public class TernFileWatcher {
+
+	/**
+	 * Default time in ms between two polls.
+	 */
+	public static final long DEFAULT_POLL_INTERVAL = 1000L;
+
+	/**
+	 * Default max number of polls during which the changes are coalesced.
+	 */
+	public static final int DEFAULT_MAX_COALESCED_POLLS = 10;
+
+	/**
+	 * Resolution in ms of the last modification time of the file systems.
+	 */
+	static final long TIME_RESOLUTION = 2000L;
+
+	private static class FileStamp {
+
+		final long lastModified;
+		final long length;
+		final boolean exists;
+
+		FileStamp(File file) {
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+			this.exists = lastModified != 0 || file.exists();
+		}
+
+		boolean isModified(FileStamp stamp) {
+			return lastModified != stamp.lastModified
+					|| length != stamp.length || exists != stamp.exists;
+		}
+	}
+
+	private final TernFileSynchronizer synchronizer;
+
+	/**
+	 * Stamps of the watched files, only used by the poll thread.
+	 */
+	private final Map<String, FileStamp> stamps;
+
+	/**
+	 * Changes not applied yet, true for a deleted file.
+	 */
+	private final Map<String, Boolean> changes;
+
+	private final long startTime;
+	private int coalescedPolls;
+	private volatile long pollInterval = DEFAULT_POLL_INTERVAL;
+	private volatile int maxCoalescedPolls = DEFAULT_MAX_COALESCED_POLLS;
+
+	private ScheduledExecutorService executor;
+
+	public TernFileWatcher(TernFileSynchronizer synchronizer) {
+		this.synchronizer = synchronizer;
+		this.stamps = new HashMap<String, FileStamp>();
+		this.changes = new LinkedHashMap<String, Boolean>();
+		this.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Start to poll the indexed files in background.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Tern file watcher");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					poll();
+				} catch (Throwable e) {
+					synchronizer.getProject().handleException(e);
+				}
+			}
+		}, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop to poll the indexed files.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Compare the stamps of the indexed files with their previous stamps and
+	 * apply the changes if this poll has not found new changes.
+	 */
+	synchronized void poll() {
+		ITernProject project = synchronizer.getProject();
+		Set<String> names = new HashSet<String>(
+				synchronizer.getIndexedFileNames());
+		// a deleted file stays indexed until it is deleted from the server.
+		names.addAll(changes.keySet());
+		boolean changed = false;
+		for (String name : names) {
+			File file = getFile(project, name);
+			if (file == null) {
+				continue;
+			}
+			FileStamp stamp = new FileStamp(file);
+			FileStamp oldStamp = stamps.put(name, stamp);
+			if (oldStamp == null ? stamp.exists
+					&& stamp.lastModified >= startTime - TIME_RESOLUTION
+					: oldStamp.isModified(stamp)) {
+				changes.put(name, !stamp.exists);
+				changed = true;
+			}
+		}
+		// forget the deleted files which are not indexed anymore. The stamp
+		// of a modified file is kept to compare it when it is indexed again.
+		Iterator<Map.Entry<String, FileStamp>> it = stamps.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, FileStamp> entry = it.next();
+			if (!entry.getValue().exists && !names.contains(entry.getKey())) {
+				it.remove();
+			}
+		}
+		if (changes.isEmpty()) {
+			return;
+		}
+		if (changed && ++coalescedPolls < maxCoalescedPolls) {
+			// wait the end of the mass change.
+			return;
+		}
+		for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+			if (change.getValue()) {
+				synchronizer.addFileToDelete(change.getKey());
+			} else {
+				synchronizer.removeIndexedFile(change.getKey());
+			}
+		}
+		changes.clear();
+		coalescedPolls = 0;
+	}
+
+	private static File getFile(ITernProject project, String name) {
+		ITernFile file = project.getFile(name);
+		return file != null ? (File) file.getAdapter(File.class) : null;
+	}
+
+	/**
+	 * Set the time in ms between two polls, used when the watcher is
+	 * started.
+	 * 
+	 * @param pollInterval
+	 */
+	public void setPollInterval(long pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * Set the max number of polls during which the changes are coalesced
+	 * while new changes are found.
+	 * 
+	 * @param maxCoalescedPolls
+	 */
+	public void setMaxCoalescedPolls(int maxCoalescedPolls) {
+		this.maxCoalescedPolls = maxCoalescedPolls;
+	}
+}
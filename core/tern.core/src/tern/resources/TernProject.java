@@ -33,6 +33,7 @@ import tern.scriptpath.impl.dom.DOMElementsScriptPath;
 import tern.server.ITernDef;
 import tern.server.ITernPlugin;
 import tern.server.ITernServer;
+import tern.server.TernRequestScheduler;
 import tern.server.protocol.JsonHelper;
 import tern.server.protocol.TernDoc;
 import tern.server.protocol.TernQuery;
@@ -318,6 +319,11 @@ public class TernProject extends JsonObject implements ITernProject {
 		patterns.add(pattern);
 	}
 
+	@Override
+	public JsonArray getLoadEagerlyPatterns() {
+		return (JsonArray) super.get(LOAD_EAGERLY_FIELD_NAME);
+	}
+
 	/**
 	 * Save the tern project in the file .tern-project of the project base dir.
 	 * 
@@ -434,11 +440,15 @@ public class TernProject extends JsonObject implements ITernProject {
 		return null;
 	}
 
-	protected void synchronize(TernQuery query, JsonArray names,
+	protected void synchronize(TernDoc doc, JsonArray names,
 			ITernScriptPath scriptPath, Node domNode, ITernFile file) {
 		ITernFileSynchronizer synchronizer = getFileSynchronizer();
 		synchronizer.ensureSynchronized();
 		if (file != null) {
+			TernQuery query = doc.getQuery();
+			if (query != null) {
+				query.setFile(file.getFullName(this));
+			}
 			if (domNode != null) {
 				DOMElementsScriptPath domPath = createDOMElementsScriptPath(
 						domNode, file);
@@ -446,14 +456,12 @@ public class TernProject extends JsonObject implements ITernProject {
 						file.getFullName(this));
 			} else {
 				try {
-					synchronizer.synchronizeFile(file);
+					// the synchronizer can add a part of the file to the doc.
+					synchronizer.synchronizeFile(doc, file);
 				} catch (IOException e) {
 					handleException(e);
 				}
 			}
-			if (query != null) {
-				query.setFile(file.getFullName(this));
-			}
 		}
 		if (names != null) {
 			synchronizer.fillSyncedFileNames(names, scriptPath);
@@ -483,10 +491,12 @@ public class TernProject extends JsonObject implements ITernProject {
 			ITernScriptPath scriptPath, Node domNode, ITernFile file,
 			ITernCompletionCollector collector) throws IOException,
 			TernException {
-		synchronize(query, names, scriptPath, domNode, file);
-		ITernServer server = getTernServer();
 		TernDoc doc = new TernDoc(query);
-		server.request(doc, collector);
+		synchronize(doc, names, scriptPath, domNode, file);
+		ITernServer server = getTernServer();
+		// the scheduler drops this completion if a newer completion is
+		// requested for the same file while it is queued (fast typing).
+		TernRequestScheduler.waitFor(server.requestAsync(doc, collector));
 	}
 
 	@Override
@@ -501,10 +511,10 @@ public class TernProject extends JsonObject implements ITernProject {
 			ITernScriptPath scriptPath, Node domNode, ITernFile file,
 			ITernDefinitionCollector collector) throws IOException,
 			TernException {
-		synchronize(query, names, scriptPath, domNode, file);
-		ITernServer server = getTernServer();
 		TernDoc doc = new TernDoc(query);
-		server.request(doc, collector);
+		synchronize(doc, names, scriptPath, domNode, file);
+		ITernServer server = getTernServer();
+		TernRequestScheduler.waitFor(server.requestAsync(doc, collector));
 	}
 
 	@Override
@@ -517,19 +527,19 @@ public class TernProject extends JsonObject implements ITernProject {
 	public void request(TernQuery query, JsonArray names,
 			ITernScriptPath scriptPath, Node domNode, ITernFile file,
 			ITernTypeCollector collector) throws IOException, TernException {
-		synchronize(query, names, scriptPath, domNode, file);
-		ITernServer server = getTernServer();
 		TernDoc doc = new TernDoc(query);
-		server.request(doc, collector);
+		synchronize(doc, names, scriptPath, domNode, file);
+		ITernServer server = getTernServer();
+		TernRequestScheduler.waitFor(server.requestAsync(doc, collector));
 	}
 
 	@Override
 	public void request(TernQuery query, ITernFile file,
 			ITernLintCollector collector) throws IOException, TernException {
-		synchronize(query, null, null, null, file);
-		ITernServer server = getTernServer();
 		TernDoc doc = new TernDoc(query);
-		server.request(doc, collector);
+		synchronize(doc, null, null, null, file);
+		ITernServer server = getTernServer();
+		TernRequestScheduler.waitFor(server.requestAsync(doc, collector));
 	}
 
 	@Override
@@ -542,10 +552,10 @@ public class TernProject extends JsonObject implements ITernProject {
 	public void request(TernGuessTypesQuery query, ITernFile file,
 			ITernGuessTypesCollector collector) throws IOException,
 			TernException {
-		synchronize(query, null, null, null, file);
-		ITernServer server = getTernServer();
 		TernDoc doc = new TernDoc(query);
-		server.request(doc, collector);
+		synchronize(doc, null, null, null, file);
+		ITernServer server = getTernServer();
+		TernRequestScheduler.waitFor(server.requestAsync(doc, collector));
 	}
 
 	@Override
@@ -12,7 +12,9 @@
 package tern.scriptpath.impl.dom;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -37,6 +39,12 @@ public class DOMElementsScriptPath extends AbstractTernFileScriptPath {
 	private static final String SCRIPT_ELT = "script"; //$NON-NLS-1$
 	private static final String HTTP_ATTR = "http"; //$NON-NLS-1$
 	private static final String SRC_ATTR = "src"; //$NON-NLS-1$
+
+	/**
+	 * Resources of the external files of the last traversal, by src, to not
+	 * resolve again their file.
+	 */
+	private volatile Map<String, ITernScriptResource> relativeResources = new HashMap<String, ITernScriptResource>();
 	
 	public DOMElementsScriptPath(ITernProject project, ITernFile file, String external) {
 		super(project, file, external);
@@ -45,6 +53,8 @@ public class DOMElementsScriptPath extends AbstractTernFileScriptPath {
 	@Override
 	public List<ITernScriptResource> getScriptResources() {
 		List<ITernScriptResource> resources = new ArrayList<ITernScriptResource>();
+		Map<String, ITernScriptResource> oldRelativeResources = relativeResources;
+		Map<String, ITernScriptResource> newRelativeResources = new HashMap<String, ITernScriptResource>();
 		Document document = getDocument();
 		if (document != null) {
 			// loop for each script elements (how to improve that?)
@@ -67,7 +77,12 @@ public class DOMElementsScriptPath extends AbstractTernFileScriptPath {
 						resource = new DOMAbsoluteURLScriptResource(src);
 					} else {
 						// JS script declared in an external file.
-						resource = createDOMRelativeURLScriptResource(src);
+						resource = oldRelativeResources.get(src);
+						if (resource == null || resource.getFile() == null
+								|| !resource.getFile().isAccessible()) {
+							resource = createDOMRelativeURLScriptResource(src);
+						}
+						newRelativeResources.put(src, resource);
 					}
 				}
 				if (resource != null) {
@@ -75,6 +90,7 @@ public class DOMElementsScriptPath extends AbstractTernFileScriptPath {
 				}
 			}
 		}
+		relativeResources = newRelativeResources;
 		return resources;
 	}
 	
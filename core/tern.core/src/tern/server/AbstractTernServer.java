@@ -12,10 +12,19 @@ package tern.server;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import tern.ITernFileSynchronizer;
 import tern.ITernProject;
+import tern.TernException;
+import tern.server.protocol.TernDoc;
 import tern.server.protocol.completions.ITernCompletionCollector;
+import tern.server.protocol.definition.ITernDefinitionCollector;
+import tern.server.protocol.guesstypes.ITernGuessTypesCollector;
+import tern.server.protocol.lint.ITernLintCollector;
+import tern.server.protocol.type.ITernTypeCollector;
 
 /**
  * Abstract tern server.
@@ -35,6 +44,21 @@ public abstract class AbstractTernServer implements ITernServer {
 	protected static final String IS_PROPERTY_PROPERTY = "isProperty";
 	protected static final String IS_OBJECT_KEY_PROPERTY = "isObjectKey";
 
+	/**
+	 * Default max number of asynchronous requests executed in the same time.
+	 */
+	public static final int DEFAULT_MAX_ASYNC_REQUESTS = 2;
+
+	/**
+	 * Default max number of requests sent in the same time to the tern server.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 8;
+
+	/**
+	 * Default max number of requests which wait to be executed.
+	 */
+	public static final int DEFAULT_MAX_QUEUED_REQUESTS = 64;
+
 	private final ITernProject project;
 
 	private final List<ITernServerListener> listeners;
@@ -43,6 +67,16 @@ public abstract class AbstractTernServer implements ITernServer {
 	private boolean dispose;
 	private boolean loadingLocalPlugins;
 
+	private int maxAsyncRequests = DEFAULT_MAX_ASYNC_REQUESTS;
+	private int maxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+	private int maxQueuedRequests = DEFAULT_MAX_QUEUED_REQUESTS;
+	private TernOverloadPolicy overloadPolicy = TernOverloadPolicy.Shed;
+
+	/**
+	 * Scheduler used to execute asynchronous requests.
+	 */
+	private TernRequestScheduler requestScheduler;
+
 	public AbstractTernServer(ITernProject project) {
 		this.project = project;
 		this.listeners = new ArrayList<ITernServerListener>();
@@ -100,10 +134,296 @@ public abstract class AbstractTernServer implements ITernServer {
 		if (!isDisposed()) {
 			this.dispose = true;
 			doDispose();
+			disposeRequestScheduler();
 			// fireEndServer();
 		}
 	}
 
+	// ------------------ Asynchronous requests
+
+	/**
+	 * Request sent by an asynchronous task.
+	 */
+	private interface AsyncRequest {
+
+		void send() throws TernException;
+	}
+
+	@Override
+	public Future<?> requestAsync(final TernDoc doc,
+			final IResponseHandler handler) {
+		return submitRequest(doc, new AsyncRequest() {
+			@Override
+			public void send() throws TernException {
+				request(doc, handler);
+			}
+		}, null);
+	}
+
+	@Override
+	public Future<?> requestAsync(final TernDoc doc,
+			final IResponseHandler handler, TernRequestPriority priority) {
+		return submitRequest(doc, new AsyncRequest() {
+			@Override
+			public void send() throws TernException {
+				request(doc, handler);
+			}
+		}, priority);
+	}
+
+	@Override
+	public Future<?> requestAsync(final TernDoc doc,
+			final ITernCompletionCollector collector) {
+		return submitRequest(doc, new AsyncRequest() {
+			@Override
+			public void send() throws TernException {
+				request(doc, collector);
+			}
+		}, null);
+	}
+
+	@Override
+	public Future<?> requestAsync(final TernDoc doc,
+			final ITernDefinitionCollector collector) {
+		return submitRequest(doc, new AsyncRequest() {
+			@Override
+			public void send() throws TernException {
+				request(doc, collector);
+			}
+		}, null);
+	}
+
+	@Override
+	public Future<?> requestAsync(final TernDoc doc,
+			final ITernTypeCollector collector) {
+		return submitRequest(doc, new AsyncRequest() {
+			@Override
+			public void send() throws TernException {
+				request(doc, collector);
+			}
+		}, null);
+	}
+
+	@Override
+	public Future<?> requestAsync(final TernDoc doc,
+			final ITernLintCollector collector) {
+		return submitRequest(doc, new AsyncRequest() {
+			@Override
+			public void send() throws TernException {
+				request(doc, collector);
+			}
+		}, null);
+	}
+
+	@Override
+	public Future<?> requestAsync(final TernDoc doc,
+			final ITernGuessTypesCollector collector) {
+		return submitRequest(doc, new AsyncRequest() {
+			@Override
+			public void send() throws TernException {
+				request(doc, collector);
+			}
+		}, null);
+	}
+
+	/**
+	 * Submit a task which sends the given request to the request scheduler.
+	 * 
+	 * @param doc
+	 *            the tern doc of the request.
+	 * @param request
+	 *            the request sent by the task.
+	 * @param priority
+	 *            the priority of the request, or null to compute it from the
+	 *            tern doc.
+	 * @return the future of the request.
+	 */
+	private Future<?> submitRequest(TernDoc doc, final AsyncRequest request,
+			TernRequestPriority priority) {
+		Callable<Void> task = new Callable<Void>() {
+			@Override
+			public Void call() throws TernException {
+				request.send();
+				return null;
+			}
+		};
+		return priority != null ? submit(doc, task, priority) : submit(doc,
+				task);
+	}
+
+	/**
+	 * Submit the given request task to the request scheduler.
+	 * 
+	 * @param doc
+	 *            the tern doc of the request.
+	 * @param task
+	 *            the request task.
+	 * @return the future of the request.
+	 */
+	protected Future<?> submit(TernDoc doc, Callable<Void> task) {
+		TernRequestScheduler scheduler = getRequestScheduler();
+		if (scheduler == null) {
+			return createDisposedFuture();
+		}
+		return scheduler.submit(doc, task);
+	}
+
+	/**
+	 * Submit the given request task to the request scheduler with the given
+	 * priority.
+	 * 
+	 * @param doc
+	 *            the tern doc of the request.
+	 * @param task
+	 *            the request task.
+	 * @param priority
+	 *            the priority of the request.
+	 * @return the future of the request.
+	 */
+	protected Future<?> submit(TernDoc doc, Callable<Void> task,
+			TernRequestPriority priority) {
+		TernRequestScheduler scheduler = getRequestScheduler();
+		if (scheduler == null) {
+			return createDisposedFuture();
+		}
+		return scheduler.submit(doc, task, priority);
+	}
+
+	/**
+	 * Returns a future which fails because the server is disposed.
+	 */
+	private static Future<?> createDisposedFuture() {
+		FutureTask<Void> future = new FutureTask<Void>(new Callable<Void>() {
+			@Override
+			public Void call() throws TernException {
+				throw new TernException("Tern server is disposed");
+			}
+		});
+		future.run();
+		return future;
+	}
+
+	/**
+	 * Returns the scheduler used to execute asynchronous requests and create
+	 * it if needed. A disposed server has no scheduler.
+	 * 
+	 * @return the scheduler used to execute asynchronous requests, or null if
+	 *         the server is disposed.
+	 */
+	public synchronized TernRequestScheduler getRequestScheduler() {
+		if (isDisposed()) {
+			return null;
+		}
+		if (requestScheduler == null) {
+			requestScheduler = createRequestScheduler(getMaxAsyncRequests());
+			requestScheduler.setMaxInFlightRequests(getMaxInFlightRequests());
+			requestScheduler.setMaxQueuedRequests(getMaxQueuedRequests());
+			requestScheduler.setOverloadPolicy(getOverloadPolicy());
+		}
+		return requestScheduler;
+	}
+
+	/**
+	 * Create the scheduler used to execute asynchronous requests.
+	 * 
+	 * @param maxThreads
+	 *            max number of requests executed in the same time.
+	 * @return the scheduler used to execute asynchronous requests.
+	 */
+	protected TernRequestScheduler createRequestScheduler(int maxThreads) {
+		return new TernRequestScheduler(maxThreads);
+	}
+
+	private synchronized void disposeRequestScheduler() {
+		if (requestScheduler != null) {
+			requestScheduler.dispose();
+			requestScheduler = null;
+		}
+	}
+
+	/**
+	 * Set the max number of asynchronous requests executed in the same time.
+	 * 
+	 * @param maxAsyncRequests
+	 */
+	public void setMaxAsyncRequests(int maxAsyncRequests) {
+		this.maxAsyncRequests = maxAsyncRequests;
+	}
+
+	/**
+	 * Returns the max number of asynchronous requests executed in the same
+	 * time.
+	 * 
+	 * @return the max number of asynchronous requests executed in the same
+	 *         time.
+	 */
+	public int getMaxAsyncRequests() {
+		return maxAsyncRequests;
+	}
+
+	/**
+	 * Set the max number of requests sent in the same time to the tern server,
+	 * 0 for no limit. This property is used when the request scheduler is
+	 * created.
+	 * 
+	 * @param maxInFlightRequests
+	 */
+	public void setMaxInFlightRequests(int maxInFlightRequests) {
+		this.maxInFlightRequests = maxInFlightRequests;
+	}
+
+	/**
+	 * Returns the max number of requests sent in the same time to the tern
+	 * server, 0 for no limit.
+	 * 
+	 * @return the max number of requests sent in the same time to the tern
+	 *         server.
+	 */
+	public int getMaxInFlightRequests() {
+		return maxInFlightRequests;
+	}
+
+	/**
+	 * Set the max number of requests which wait to be executed, 0 for no
+	 * limit. This property is used when the request scheduler is created.
+	 * 
+	 * @param maxQueuedRequests
+	 */
+	public void setMaxQueuedRequests(int maxQueuedRequests) {
+		this.maxQueuedRequests = maxQueuedRequests;
+	}
+
+	/**
+	 * Returns the max number of requests which wait to be executed, 0 for no
+	 * limit.
+	 * 
+	 * @return the max number of requests which wait to be executed.
+	 */
+	public int getMaxQueuedRequests() {
+		return maxQueuedRequests;
+	}
+
+	/**
+	 * Set the policy applied when a request arrives while the max number of
+	 * queued requests is reached. This property is used when the request
+	 * scheduler is created.
+	 * 
+	 * @param overloadPolicy
+	 */
+	public void setOverloadPolicy(TernOverloadPolicy overloadPolicy) {
+		this.overloadPolicy = overloadPolicy;
+	}
+
+	/**
+	 * Returns the policy applied when a request arrives while the max number
+	 * of queued requests is reached.
+	 * 
+	 * @return the overload policy.
+	 */
+	public TernOverloadPolicy getOverloadPolicy() {
+		return overloadPolicy;
+	}
+
 	@Override
 	public boolean isDisposed() {
 		return dispose;
@@ -11,6 +11,8 @@
 package tern.server;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import tern.ITernFileSynchronizer;
 import tern.TernException;
@@ -103,6 +105,99 @@ public interface ITernServer {
 	void request(TernDoc doc, ITernGuessTypesCollector collector)
 			throws TernException;
 
+	/**
+	 * Execute asynchronously the request with the given response handler. The
+	 * returned future can be used to wait the end of the request or to cancel
+	 * it. A request which is cancelled before it starts is never sent to the
+	 * tern server.
+	 * 
+	 * @param doc
+	 *            the tern doc.
+	 * @param handler
+	 *            the response handler.
+	 * @return the future of the request.
+	 */
+	Future<?> requestAsync(TernDoc doc, IResponseHandler handler);
+
+	/**
+	 * Execute asynchronously the request with the given response handler and
+	 * priority. Queued interactive requests are sent before queued background
+	 * requests.
+	 * 
+	 * @param doc
+	 *            the tern doc.
+	 * @param handler
+	 *            the response handler.
+	 * @param priority
+	 *            the priority of the request.
+	 * @return the future of the request.
+	 * @see #requestAsync(TernDoc, IResponseHandler)
+	 */
+	Future<?> requestAsync(TernDoc doc, IResponseHandler handler,
+			TernRequestPriority priority);
+
+	/**
+	 * Execute asynchronously the request with the given completion collector.
+	 * 
+	 * @param doc
+	 *            the tern doc.
+	 * @param collector
+	 *            the completion collector.
+	 * @return the future of the request. {@link Future#get()} throws an
+	 *         {@link ExecutionException} which wraps the {@link TernException}
+	 *         if the request fails.
+	 * @see #requestAsync(TernDoc, IResponseHandler)
+	 */
+	Future<?> requestAsync(TernDoc doc, ITernCompletionCollector collector);
+
+	/**
+	 * Execute asynchronously the request with the given definition collector.
+	 * 
+	 * @param doc
+	 *            the tern doc.
+	 * @param collector
+	 *            the definition collector.
+	 * @return the future of the request.
+	 * @see #requestAsync(TernDoc, ITernCompletionCollector)
+	 */
+	Future<?> requestAsync(TernDoc doc, ITernDefinitionCollector collector);
+
+	/**
+	 * Execute asynchronously the request with the given type collector.
+	 * 
+	 * @param doc
+	 *            the tern doc.
+	 * @param collector
+	 *            the type collector.
+	 * @return the future of the request.
+	 * @see #requestAsync(TernDoc, ITernCompletionCollector)
+	 */
+	Future<?> requestAsync(TernDoc doc, ITernTypeCollector collector);
+
+	/**
+	 * Execute asynchronously the request with the given lint collector.
+	 * 
+	 * @param doc
+	 *            the tern doc.
+	 * @param collector
+	 *            the lint collector.
+	 * @return the future of the request.
+	 * @see #requestAsync(TernDoc, ITernCompletionCollector)
+	 */
+	Future<?> requestAsync(TernDoc doc, ITernLintCollector collector);
+
+	/**
+	 * Execute asynchronously the request with the given guess types collector.
+	 * 
+	 * @param doc
+	 *            the tern doc.
+	 * @param collector
+	 *            the guess types collector.
+	 * @return the future of the request.
+	 * @see #requestAsync(TernDoc, ITernCompletionCollector)
+	 */
+	Future<?> requestAsync(TernDoc doc, ITernGuessTypesCollector collector);
+
 	/**
 	 * Add server listener.
 	 * 
@@ -0,0 +1,28 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server;
+
+import tern.TernException;
+
+/**
+ * Exception thrown when a request is rejected because the tern server has too
+ * many requests in progress.
+ *
+ * @see TernRequestScheduler#setMaxQueuedRequests(int)
+ */
+public class TernOverloadException extends TernException {
+
+	private static final long serialVersionUID = 1L;
+
+	public TernOverloadException(String message) {
+		super(message);
+	}
+}
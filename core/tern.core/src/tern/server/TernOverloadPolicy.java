@@ -0,0 +1,32 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server;
+
+/**
+ * Policy applied by the {@link TernRequestScheduler} when a request arrives
+ * while the max number of queued requests is reached.
+ *
+ */
+public enum TernOverloadPolicy {
+
+	/**
+	 * The new request fails with a {@link TernOverloadException}.
+	 */
+	Reject,
+
+	/**
+	 * The oldest queued request with the lowest priority fails with a
+	 * {@link TernOverloadException} to queue the new request. When all the
+	 * queued requests have a higher priority than the new request, the new
+	 * request is rejected.
+	 */
+	Shed;
+}
@@ -0,0 +1,30 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server;
+
+/**
+ * Priority of an asynchronous tern request. Queued requests with a higher
+ * priority are sent to the tern server before queued requests with a lower
+ * priority.
+ *
+ */
+public enum TernRequestPriority {
+
+	/**
+	 * Queries waited by the user (completions, type, definition...).
+	 */
+	Interactive,
+
+	/**
+	 * Background work (files synchronization, project lint...).
+	 */
+	Background;
+}
@@ -0,0 +1,647 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tern.TernException;
+import tern.server.protocol.TernDoc;
+import tern.server.protocol.TernQuery;
+
+/**
+ * Scheduler which executes asynchronous tern requests with a bounded number of
+ * threads.
+ *
+ * <p>
+ * Queued requests are coalesced by (file, query type): when a request is
+ * scheduled while an older request with the same key is still waiting in the
+ * queue, the older request is cancelled and never sent to the tern server. It
+ * avoids computing completions for each keystroke when the user types quickly.
+ * A request which has started is never cancelled by a newer request.
+ * </p>
+ *
+ * <p>
+ * Queued requests are dispatched by {@link TernRequestPriority}: interactive
+ * queries are sent before the queued background requests (files
+ * synchronization, lint...) and requests with the same priority are sent in
+ * arrival order. A background request which is already running is not
+ * interrupted, that's why the background work must be split in small
+ * requests.
+ * </p>
+ *
+ * <p>
+ * The scheduler also applies backpressure: the number of requests which wait
+ * in the queue can be bounded (see {@link #setMaxQueuedRequests(int)}) and the
+ * number of requests sent in the same time to the tern server, synchronous or
+ * not, can be bounded (see {@link #setMaxInFlightRequests(int)}). When the
+ * queue is full, the {@link TernOverloadPolicy} rejects the new request or
+ * sheds an older one. Requests which upload files are never rejected nor shed
+ * because the files of the tern server would be out of sync.
+ * </p>
+ */
+public class TernRequestScheduler {
+
+	/**
+	 * Query types coalesced by default.
+	 */
+	public static final Collection<String> DEFAULT_COALESCED_QUERY_TYPES = Arrays
+			.asList("completions", "type");
+
+	/**
+	 * Time in seconds after which an idle thread is stopped.
+	 */
+	private static final long THREAD_KEEP_ALIVE = 60L;
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Queued requests which can be coalesced, by key.
+	 */
+	private final Map<String, TernRequestTask> pendingRequests;
+
+	private volatile Set<String> coalescedQueryTypes;
+
+	private long coalescedCount;
+
+	private volatile int maxQueuedRequests;
+
+	private volatile int maxInFlightRequests;
+
+	private volatile TernOverloadPolicy overloadPolicy = TernOverloadPolicy.Reject;
+
+	/**
+	 * Number of requests sent to the tern server.
+	 */
+	private int inFlightCount;
+
+	/**
+	 * Number of synchronous requests which wait to be sent to the tern server.
+	 */
+	private int waitingCount;
+
+	private int maxQueueDepth;
+
+	private long rejectedCount;
+
+	private long shedCount;
+
+	/**
+	 * Number of nested in-flight requests of the current thread: a request
+	 * done while the current thread is sending a request (ex : in a
+	 * collector) must not wait for the end of the outer request.
+	 */
+	private final ThreadLocal<Integer> inFlightDepth;
+
+	/**
+	 * Sequence used to dispatch the requests with the same priority in
+	 * arrival order.
+	 */
+	private final AtomicLong sequence;
+
+	/**
+	 * Request task which is removed from the pending requests when it starts.
+	 */
+	private class TernRequestTask extends FutureTask<Void> implements
+			Comparable<TernRequestTask> {
+
+		private final String key;
+		private final TernRequestPriority priority;
+		private final boolean droppable;
+		private final long order;
+
+		public TernRequestTask(Callable<Void> callable, String key,
+				TernRequestPriority priority, boolean droppable) {
+			super(callable);
+			this.key = key;
+			this.priority = priority;
+			this.droppable = droppable;
+			this.order = sequence.getAndIncrement();
+		}
+
+		/**
+		 * Fail the request without executing it.
+		 */
+		void reject(TernException e) {
+			setException(e);
+		}
+
+		@Override
+		public int compareTo(TernRequestTask other) {
+			int result = priority.compareTo(other.priority);
+			if (result != 0) {
+				return result;
+			}
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+
+		@Override
+		public void run() {
+			if (key != null) {
+				synchronized (pendingRequests) {
+					if (pendingRequests.get(key) == this) {
+						pendingRequests.remove(key);
+					}
+				}
+			}
+			super.run();
+		}
+	}
+
+	/**
+	 * Thread which executes the requests of this scheduler.
+	 */
+	private class TernRequestThread extends Thread {
+
+		public TernRequestThread(Runnable r) {
+			super(r, "Tern async request");
+		}
+
+		public TernRequestScheduler getScheduler() {
+			return TernRequestScheduler.this;
+		}
+	}
+
+	/**
+	 * Scheduler constructor.
+	 *
+	 * @param maxThreads
+	 *            max number of requests executed in the same time.
+	 */
+	public TernRequestScheduler(int maxThreads) {
+		this.executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+				THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new TernRequestThread(r);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		this.pendingRequests = new HashMap<String, TernRequestTask>();
+		this.sequence = new AtomicLong();
+		this.coalescedQueryTypes = new HashSet<String>(
+				DEFAULT_COALESCED_QUERY_TYPES);
+		this.inFlightDepth = new ThreadLocal<Integer>();
+	}
+
+	/**
+	 * Schedule the given request task with the priority computed from the
+	 * tern doc.
+	 *
+	 * @param doc
+	 *            the tern doc of the request.
+	 * @param task
+	 *            the task which executes the request.
+	 * @return the future of the request.
+	 * @see #getPriority(TernDoc)
+	 */
+	public Future<?> submit(TernDoc doc, Callable<Void> task) {
+		return submit(doc, task, getPriority(doc));
+	}
+
+	/**
+	 * Schedule the given request task.
+	 *
+	 * @param doc
+	 *            the tern doc of the request.
+	 * @param task
+	 *            the task which executes the request.
+	 * @param priority
+	 *            the priority of the request.
+	 * @return the future of the request.
+	 */
+	public Future<?> submit(TernDoc doc, Callable<Void> task,
+			TernRequestPriority priority) {
+		String key = getCoalescingKey(doc);
+		TernRequestTask request = new TernRequestTask(task, key, priority,
+				!doc.updatesFiles());
+		if (isSchedulerThread()) {
+			// request done while executing a request (ex : in a collector),
+			// execute it now to avoid waiting a busy thread.
+			request.run();
+			return request;
+		}
+		synchronized (pendingRequests) {
+			if (key != null) {
+				TernRequestTask superseded = pendingRequests.put(key, request);
+				if (superseded != null && superseded.cancel(false)) {
+					executor.remove(superseded);
+					coalescedCount++;
+				}
+			}
+			if (request.droppable && !admit(priority)) {
+				if (key != null) {
+					pendingRequests.remove(key);
+				}
+				rejectedCount++;
+				request.reject(createOverloadException());
+				return request;
+			}
+			executor.execute(request);
+			updateMaxQueueDepth();
+		}
+		return request;
+	}
+
+	/**
+	 * Notify the scheduler that the current thread sends the request of the
+	 * given tern doc to the tern server, and wait while the max number of
+	 * in-flight requests is reached. Each call must be followed by a call of
+	 * {@link #endRequest()} when the response is received.
+	 *
+	 * @param doc
+	 *            the tern doc of the request.
+	 * @throws TernOverloadException
+	 *             if the request must wait while the queue is full.
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting.
+	 */
+	public void beginRequest(TernDoc doc) throws TernOverloadException,
+			InterruptedException {
+		Integer depth = inFlightDepth.get();
+		if (depth != null) {
+			// nested request, the outer request has already been counted.
+			inFlightDepth.set(depth + 1);
+			return;
+		}
+		synchronized (pendingRequests) {
+			if (isInFlightFull()) {
+				// an asynchronous request has already been admitted in the
+				// queue.
+				if (!isSchedulerThread() && !doc.updatesFiles()
+						&& !admit(getPriority(doc))) {
+					rejectedCount++;
+					throw createOverloadException();
+				}
+				waitingCount++;
+				updateMaxQueueDepth();
+				try {
+					while (isInFlightFull()) {
+						pendingRequests.wait();
+					}
+				} finally {
+					waitingCount--;
+				}
+			}
+			inFlightCount++;
+		}
+		inFlightDepth.set(1);
+	}
+
+	/**
+	 * Notify the scheduler that the response of the request of the current
+	 * thread is received.
+	 *
+	 * @see #beginRequest(TernDoc)
+	 */
+	public void endRequest() {
+		Integer depth = inFlightDepth.get();
+		if (depth == null) {
+			return;
+		}
+		if (depth > 1) {
+			inFlightDepth.set(depth - 1);
+			return;
+		}
+		inFlightDepth.remove();
+		synchronized (pendingRequests) {
+			inFlightCount--;
+			pendingRequests.notifyAll();
+		}
+	}
+
+	private boolean isInFlightFull() {
+		int max = maxInFlightRequests;
+		return max > 0 && inFlightCount >= max;
+	}
+
+	/**
+	 * Returns true if a request with the given priority can be queued and
+	 * shed a queued request if needed.
+	 */
+	private boolean admit(TernRequestPriority priority) {
+		int max = maxQueuedRequests;
+		if (max <= 0 || getQueueDepth() < max) {
+			return true;
+		}
+		return overloadPolicy == TernOverloadPolicy.Shed && shed(priority);
+	}
+
+	/**
+	 * Shed the oldest queued request which has the lowest priority, if its
+	 * priority is not higher than the given priority. The shed request fails
+	 * with a {@link TernOverloadException}.
+	 */
+	private boolean shed(TernRequestPriority priority) {
+		TernRequestTask victim = null;
+		for (Runnable runnable : executor.getQueue()) {
+			TernRequestTask task = (TernRequestTask) runnable;
+			if (!task.droppable || task.isDone()
+					|| task.priority.compareTo(priority) < 0) {
+				continue;
+			}
+			if (victim == null
+					|| task.priority.compareTo(victim.priority) > 0
+					|| (task.priority == victim.priority
+							&& task.order < victim.order)) {
+				victim = task;
+			}
+		}
+		if (victim == null || !executor.remove(victim)) {
+			// the request has started.
+			return false;
+		}
+		// the caller of the shed request must know that it was not sent.
+		victim.reject(createOverloadException());
+		if (victim.key != null && pendingRequests.get(victim.key) == victim) {
+			pendingRequests.remove(victim.key);
+		}
+		shedCount++;
+		return true;
+	}
+
+	private void updateMaxQueueDepth() {
+		int depth = getQueueDepth();
+		if (depth > maxQueueDepth) {
+			maxQueueDepth = depth;
+		}
+	}
+
+	private TernOverloadException createOverloadException() {
+		return new TernOverloadException("Tern server is overloaded: "
+				+ getQueueDepth() + " queued requests");
+	}
+
+	private boolean isSchedulerThread() {
+		Thread thread = Thread.currentThread();
+		return thread instanceof TernRequestThread
+				&& ((TernRequestThread) thread).getScheduler() == this;
+	}
+
+	/**
+	 * Returns the priority of the request of the given tern doc: requests
+	 * which only upload files and lint requests are background requests,
+	 * other queries are interactive.
+	 *
+	 * @param doc
+	 *            the tern doc.
+	 * @return the priority of the request of the given tern doc.
+	 */
+	public TernRequestPriority getPriority(TernDoc doc) {
+		TernQuery query = doc.getQuery();
+		if (query == null) {
+			return TernRequestPriority.Background;
+		}
+		String type = query.getType();
+		if (type != null && type.startsWith("lint")) {
+			return TernRequestPriority.Background;
+		}
+		return TernRequestPriority.Interactive;
+	}
+
+	/**
+	 * Returns the key used to coalesce the request of the given tern doc and
+	 * null if the request must not be coalesced.
+	 *
+	 * @param doc
+	 *            the tern doc.
+	 * @return the key used to coalesce the request and null if the request
+	 *         must not be coalesced.
+	 */
+	protected String getCoalescingKey(TernDoc doc) {
+		if (doc.updatesFiles()) {
+			// the request updates the files of the server, it cannot be
+			// dropped.
+			return null;
+		}
+		TernQuery query = doc.getQuery();
+		if (query == null) {
+			return null;
+		}
+		String type = query.getType();
+		String file = doc.getQueryFileName();
+		if (file == null || !coalescedQueryTypes.contains(type)) {
+			return null;
+		}
+		return type + ":" + file;
+	}
+
+	/**
+	 * Set the query types which are coalesced.
+	 *
+	 * @param queryTypes
+	 *            the query types which are coalesced.
+	 */
+	public void setCoalescedQueryTypes(Collection<String> queryTypes) {
+		this.coalescedQueryTypes = new HashSet<String>(queryTypes);
+	}
+
+	/**
+	 * Returns the number of requests which were cancelled because a newer
+	 * request was scheduled.
+	 *
+	 * @return the number of requests which were cancelled because a newer
+	 *         request was scheduled.
+	 */
+	public long getCoalescedCount() {
+		synchronized (pendingRequests) {
+			return coalescedCount;
+		}
+	}
+
+	/**
+	 * Set the max number of requests which wait to be executed, asynchronous
+	 * requests in the queue and synchronous requests which wait for an
+	 * in-flight slot, 0 for no limit.
+	 *
+	 * @param maxQueuedRequests
+	 *            the max number of queued requests.
+	 */
+	public void setMaxQueuedRequests(int maxQueuedRequests) {
+		this.maxQueuedRequests = maxQueuedRequests;
+	}
+
+	/**
+	 * Returns the max number of requests which wait to be executed, 0 for no
+	 * limit.
+	 *
+	 * @return the max number of queued requests.
+	 */
+	public int getMaxQueuedRequests() {
+		return maxQueuedRequests;
+	}
+
+	/**
+	 * Set the max number of requests sent in the same time to the tern
+	 * server, 0 for no limit.
+	 *
+	 * @param maxInFlightRequests
+	 *            the max number of in-flight requests.
+	 */
+	public void setMaxInFlightRequests(int maxInFlightRequests) {
+		synchronized (pendingRequests) {
+			this.maxInFlightRequests = maxInFlightRequests;
+			pendingRequests.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the max number of requests sent in the same time to the tern
+	 * server, 0 for no limit.
+	 *
+	 * @return the max number of in-flight requests.
+	 */
+	public int getMaxInFlightRequests() {
+		return maxInFlightRequests;
+	}
+
+	/**
+	 * Set the policy applied when a request arrives while the queue is full.
+	 *
+	 * @param overloadPolicy
+	 *            the overload policy.
+	 */
+	public void setOverloadPolicy(TernOverloadPolicy overloadPolicy) {
+		this.overloadPolicy = overloadPolicy;
+	}
+
+	/**
+	 * Returns the policy applied when a request arrives while the queue is
+	 * full.
+	 *
+	 * @return the overload policy.
+	 */
+	public TernOverloadPolicy getOverloadPolicy() {
+		return overloadPolicy;
+	}
+
+	/**
+	 * Returns the number of requests which wait to be executed.
+	 *
+	 * @return the number of requests which wait to be executed.
+	 */
+	public int getQueueDepth() {
+		synchronized (pendingRequests) {
+			return executor.getQueue().size() + waitingCount;
+		}
+	}
+
+	/**
+	 * Returns the highest number of requests which have waited in the same
+	 * time to be executed.
+	 *
+	 * @return the highest queue depth.
+	 */
+	public int getMaxQueueDepth() {
+		synchronized (pendingRequests) {
+			return maxQueueDepth;
+		}
+	}
+
+	/**
+	 * Returns the number of requests sent to the tern server which wait their
+	 * response.
+	 *
+	 * @return the number of in-flight requests.
+	 */
+	public int getInFlightCount() {
+		synchronized (pendingRequests) {
+			return inFlightCount;
+		}
+	}
+
+	/**
+	 * Returns the number of requests which were rejected because the queue was
+	 * full.
+	 *
+	 * @return the number of rejected requests.
+	 */
+	public long getRejectedCount() {
+		synchronized (pendingRequests) {
+			return rejectedCount;
+		}
+	}
+
+	/**
+	 * Returns the number of queued requests which were cancelled to queue a
+	 * new request because the queue was full.
+	 *
+	 * @return the number of shed requests.
+	 */
+	public long getShedCount() {
+		synchronized (pendingRequests) {
+			return shedCount;
+		}
+	}
+
+	/**
+	 * Wait for the end of the given asynchronous request. A request which was
+	 * cancelled (ex : superseded by a newer request) returns without result,
+	 * a request which was rejected or shed because the scheduler is
+	 * overloaded throws a {@link TernOverloadException}.
+	 *
+	 * @param future
+	 *            the future of the request.
+	 * @throws TernException
+	 *             if the request fails, is rejected or if the current thread
+	 *             is interrupted.
+	 */
+	public static void waitFor(Future<?> future) throws TernException {
+		try {
+			future.get();
+		} catch (CancellationException e) {
+			// the request was cancelled.
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new TernException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof TernException) {
+				throw (TernException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new TernException(cause);
+		}
+	}
+
+	/**
+	 * Cancel the waiting requests and interrupt the running requests.
+	 */
+	public void dispose() {
+		executor.shutdownNow();
+		synchronized (pendingRequests) {
+			pendingRequests.clear();
+			// release the synchronous requests which wait.
+			maxInFlightRequests = 0;
+			pendingRequests.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,381 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.protocol;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+/**
+ * Pull JSON reader which tokenizes a JSON stream without building the whole
+ * minimal-json tree. It gives the capability to walk the structure of a big
+ * JSON response (with {@link #beginObject()}, {@link #nextName()},
+ * {@link #beginArray()}, {@link #hasNext()}...) and to build a minimal-json
+ * value only for the item which is read with {@link #nextValue()}.
+ *
+ * <pre>
+ * JsonStreamReader reader = new JsonStreamReader(in);
+ * reader.beginObject();
+ * while (reader.hasNext()) {
+ * 	String name = reader.nextName();
+ * 	if (&quot;completions&quot;.equals(name)) {
+ * 		reader.beginArray();
+ * 		while (reader.hasNext()) {
+ * 			JsonValue completion = reader.nextValue();
+ * 			...
+ * 		}
+ * 		reader.endArray();
+ * 	} else {
+ * 		reader.skipValue();
+ * 	}
+ * }
+ * reader.endObject();
+ * </pre>
+ */
+public class JsonStreamReader {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader reader;
+	private final char[] buffer;
+	private int pos;
+	private int limit;
+
+	/**
+	 * Buffer used to read strings and numbers.
+	 */
+	private final StringBuilder captureBuffer;
+
+	public JsonStreamReader(Reader reader) {
+		this.reader = reader;
+		this.buffer = new char[BUFFER_SIZE];
+		this.captureBuffer = new StringBuilder();
+	}
+
+	/**
+	 * Consumes the start of a JSON object.
+	 *
+	 * @throws IOException
+	 */
+	public void beginObject() throws IOException {
+		skipWhiteSpace();
+		expect('{');
+	}
+
+	/**
+	 * Consumes the end of a JSON object.
+	 *
+	 * @throws IOException
+	 */
+	public void endObject() throws IOException {
+		skipWhiteSpace();
+		expect('}');
+		skipSeparator();
+	}
+
+	/**
+	 * Consumes the start of a JSON array.
+	 *
+	 * @throws IOException
+	 */
+	public void beginArray() throws IOException {
+		skipWhiteSpace();
+		expect('[');
+	}
+
+	/**
+	 * Consumes the end of a JSON array.
+	 *
+	 * @throws IOException
+	 */
+	public void endArray() throws IOException {
+		skipWhiteSpace();
+		expect(']');
+		skipSeparator();
+	}
+
+	/**
+	 * Returns true if the current array or object has another element and
+	 * false otherwise.
+	 *
+	 * @return true if the current array or object has another element and
+	 *         false otherwise.
+	 * @throws IOException
+	 */
+	public boolean hasNext() throws IOException {
+		skipWhiteSpace();
+		int c = peek();
+		return c != -1 && c != '}' && c != ']';
+	}
+
+	/**
+	 * Returns the name of the next member of the current object.
+	 *
+	 * @return the name of the next member of the current object.
+	 * @throws IOException
+	 */
+	public String nextName() throws IOException {
+		skipWhiteSpace();
+		String name = readString();
+		skipWhiteSpace();
+		expect(':');
+		return name;
+	}
+
+	/**
+	 * Reads the next value and returns it as minimal-json value.
+	 *
+	 * @return the next value as minimal-json value.
+	 * @throws IOException
+	 */
+	public JsonValue nextValue() throws IOException {
+		JsonValue value = readValue();
+		skipSeparator();
+		return value;
+	}
+
+	/**
+	 * Skips the next value without building it.
+	 *
+	 * @throws IOException
+	 */
+	public void skipValue() throws IOException {
+		skipWhiteSpace();
+		int depth = 0;
+		do {
+			int c = peek();
+			switch (c) {
+			case -1:
+				throw error("Unexpected end of input");
+			case '{':
+			case '[':
+				depth++;
+				pos++;
+				break;
+			case '}':
+			case ']':
+				depth--;
+				pos++;
+				break;
+			case '"':
+				readString();
+				break;
+			default:
+				pos++;
+			}
+			if (depth > 0) {
+				skipWhiteSpace();
+			}
+		} while (depth > 0 || !isValueEnd(peek()));
+		skipSeparator();
+	}
+
+	private JsonValue readValue() throws IOException {
+		skipWhiteSpace();
+		int c = peek();
+		switch (c) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return JsonValue.valueOf(readString());
+		case 't':
+			expectLiteral("true");
+			return JsonValue.TRUE;
+		case 'f':
+			expectLiteral("false");
+			return JsonValue.FALSE;
+		case 'n':
+			expectLiteral("null");
+			return JsonValue.NULL;
+		case -1:
+			throw error("Unexpected end of input");
+		default:
+			return readNumber();
+		}
+	}
+
+	private JsonObject readObject() throws IOException {
+		JsonObject object = new JsonObject();
+		beginObject();
+		while (hasNext()) {
+			String name = nextName();
+			object.add(name, nextValue());
+		}
+		skipWhiteSpace();
+		expect('}');
+		return object;
+	}
+
+	private JsonArray readArray() throws IOException {
+		JsonArray array = new JsonArray();
+		beginArray();
+		while (hasNext()) {
+			array.add(nextValue());
+		}
+		skipWhiteSpace();
+		expect(']');
+		return array;
+	}
+
+	private JsonValue readNumber() throws IOException {
+		captureBuffer.setLength(0);
+		int c = peek();
+		while (c != -1 && !isValueEnd(c)) {
+			captureBuffer.append((char) c);
+			pos++;
+			c = peek();
+		}
+		// minimal-json keeps the original text of the number.
+		return JsonValue.readFrom(captureBuffer.toString());
+	}
+
+	private String readString() throws IOException {
+		expect('"');
+		captureBuffer.setLength(0);
+		while (true) {
+			if (pos == limit && !fill()) {
+				throw error("Unterminated string");
+			}
+			// copy the chunk of characters which doesn't need to be unescaped.
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos];
+				if (c == '"' || c == '\\') {
+					break;
+				}
+				pos++;
+			}
+			captureBuffer.append(buffer, start, pos - start);
+			if (pos < limit) {
+				char c = buffer[pos++];
+				if (c == '"') {
+					return captureBuffer.toString();
+				}
+				readEscape();
+			}
+		}
+	}
+
+	private void readEscape() throws IOException {
+		int c = read();
+		switch (c) {
+		case '"':
+		case '/':
+		case '\\':
+			captureBuffer.append((char) c);
+			break;
+		case 'b':
+			captureBuffer.append('\b');
+			break;
+		case 'f':
+			captureBuffer.append('\f');
+			break;
+		case 'n':
+			captureBuffer.append('\n');
+			break;
+		case 'r':
+			captureBuffer.append('\r');
+			break;
+		case 't':
+			captureBuffer.append('\t');
+			break;
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(read(), 16);
+				if (digit == -1) {
+					throw error("Expected hexadecimal digit");
+				}
+				value = (value << 4) + digit;
+			}
+			captureBuffer.append((char) value);
+			break;
+		default:
+			throw error("Expected valid escape sequence");
+		}
+	}
+
+	private void expectLiteral(String literal) throws IOException {
+		for (int i = 0; i < literal.length(); i++) {
+			expect(literal.charAt(i));
+		}
+	}
+
+	private void expect(char expected) throws IOException {
+		int c = read();
+		if (c != expected) {
+			throw error("Expected '" + expected + "'");
+		}
+	}
+
+	/**
+	 * Skips the ',' which separates the value which was read from the next
+	 * element.
+	 */
+	private void skipSeparator() throws IOException {
+		skipWhiteSpace();
+		if (peek() == ',') {
+			pos++;
+		}
+	}
+
+	private void skipWhiteSpace() throws IOException {
+		while (true) {
+			if (pos == limit && !fill()) {
+				return;
+			}
+			char c = buffer[pos];
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return;
+			}
+			pos++;
+		}
+	}
+
+	private boolean isValueEnd(int c) {
+		return c == -1 || c == ',' || c == '}' || c == ']' || c == ' '
+				|| c == '\t' || c == '\n' || c == '\r';
+	}
+
+	private int peek() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return buffer[pos];
+	}
+
+	private int read() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return buffer[pos++];
+	}
+
+	private boolean fill() throws IOException {
+		int n = reader.read(buffer, 0, buffer.length);
+		if (n <= 0) {
+			pos = limit = 0;
+			return false;
+		}
+		pos = 0;
+		limit = n;
+		return true;
+	}
+
+	private IOException error(String message) {
+		return new IOException(message);
+	}
+}
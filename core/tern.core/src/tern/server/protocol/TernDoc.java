@@ -127,6 +127,51 @@ public class TernDoc extends JsonObject {
 		return files != null && files.size() > 0;
 	}
 
+	/**
+	 * Returns true if this doc updates the files of the tern server: it has
+	 * full files or files to delete. A part file only exists for the query of
+	 * the doc.
+	 * 
+	 * @return true if this doc updates the files of the tern server.
+	 */
+	public boolean updatesFiles() {
+		JsonArray files = (JsonArray) super.get(FILES_FIELD_NAME);
+		if (files != null) {
+			for (Object file : files) {
+				if (!((TernFile) file).isPart()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the name of the file on which the query operates and null
+	 * otherwise. A reference "#n" to the n-th file of this doc (ex : a part
+	 * file) is resolved to the name of this file.
+	 * 
+	 * @return the name of the file on which the query operates and null
+	 *         otherwise.
+	 */
+	public String getQueryFileName() {
+		TernQuery query = getQuery();
+		String file = query != null ? query.getFile() : null;
+		if (file == null || !file.startsWith("#")) {
+			return file;
+		}
+		try {
+			int index = Integer.parseInt(file.substring(1));
+			JsonArray files = (JsonArray) super.get(FILES_FIELD_NAME);
+			if (files != null && index >= 0 && index < files.size()) {
+				return ((TernFile) files.get(index)).getName();
+			}
+		} catch (NumberFormatException e) {
+			// not a reference.
+		}
+		return file;
+	}
+
 	public void cleanFiles() {
 		super.remove(FILES_FIELD_NAME);
 	}
@@ -103,4 +103,22 @@ public class TernFile extends JsonObject {
 	public String getType() {
 		return JsonHelper.getString(this, TYPE_FIELD_NAME);
 	}
+
+	/**
+	 * Returns true if this file deletes the file from the tern server.
+	 * 
+	 * @return true if this file deletes the file from the tern server.
+	 */
+	public boolean isDelete() {
+		return FileType.delete.name().equals(getType());
+	}
+
+	/**
+	 * Returns true if this file contains a part of the file text.
+	 * 
+	 * @return true if this file contains a part of the file text.
+	 */
+	public boolean isPart() {
+		return FileType.part.name().equals(getType());
+	}
 }
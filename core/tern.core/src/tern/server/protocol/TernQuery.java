@@ -11,6 +11,7 @@
 package tern.server.protocol;
 
 import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
 
 /**
  * Tern query.
@@ -34,17 +35,40 @@ public class TernQuery extends JsonObject {
 	}
 
 	public void setFile(String file) {
-		super.add(FILE_FIELD_NAME, file);
+		super.set(FILE_FIELD_NAME, file);
+	}
+
+	/**
+	 * Returns the name of the file on which the query operates and null
+	 * otherwise.
+	 * 
+	 * @return the name of the file on which the query operates and null
+	 *         otherwise.
+	 */
+	public String getFile() {
+		JsonValue file = super.get(FILE_FIELD_NAME);
+		return file != null && file.isString() ? file.asString() : null;
 	}
 
 	public void setEnd(Integer pos) {
 		if (pos == null) {
 			super.remove(END_FIELD_NAME);
 		} else {
-			super.add(END_FIELD_NAME, pos);
+			super.set(END_FIELD_NAME, pos);
 		}
 	}
 
+	/**
+	 * Returns the offset of the end position of the query and null if the
+	 * query has no end or if the end is a {line, ch} object.
+	 * 
+	 * @return the offset of the end position of the query.
+	 */
+	public Integer getEnd() {
+		JsonValue end = super.get(END_FIELD_NAME);
+		return end != null && end.isNumber() ? end.asInt() : null;
+	}
+
 	/**
 	 * Offsets into a file can be either (zero-based) integers, or {line, ch}
 	 * objects, where both line and ch are zero-based integers. Offsets returned
@@ -16,6 +16,9 @@ package tern.server.protocol.html;
  */
 public class HtmlHelper {
 
+	private static final HtmlJSExtractor SCRIPT_EXTRACTOR = new HtmlJSExtractor(
+			ScriptTagRegion.SCRIPT_TAG);
+
 	/**
 	 * Extract JS content from the given HTML content. The HTML elements are
 	 * replaced with space and JS content is kept. The JS content is declared
@@ -45,6 +48,25 @@ public class HtmlHelper {
 	 *         is kept.
 	 */
 	public static String extractJS(String html, ScriptTagRegion... tagRegions) {
+		if (tagRegions.length == 1 && tagRegions[0] == ScriptTagRegion.SCRIPT_TAG) {
+			return SCRIPT_EXTRACTOR.extract(html);
+		}
+		return new HtmlJSExtractor(tagRegions).extract(html);
+	}
+
+	/**
+	 * Extract JS content from the given HTML content with the states, one
+	 * character after the other. This is the reference implementation of
+	 * {@link HtmlJSExtractor}.
+	 * 
+	 * @param html
+	 *            the HTML content which contains JS content.
+	 * @param tagRegions
+	 *            list of HTML tags which contains JS content.
+	 * @return the result of the extract of JS content from the given HTML
+	 *         content.
+	 */
+	static String extractJSByStates(String html, ScriptTagRegion... tagRegions) {
 		IState state = createState(tagRegions);
 		StringBuilder s = new StringBuilder();
 		char[] chars = html.toCharArray();
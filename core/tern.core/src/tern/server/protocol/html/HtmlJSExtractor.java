@@ -0,0 +1,213 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.protocol.html;
+
+import java.util.Arrays;
+
+/**
+ * Extractor of the JS content from HTML content, which gives the same result
+ * as the states ({@link State}, {@link MultiState}) with one pass over one
+ * char array of the length of the HTML content, where the HTML elements are
+ * replaced in place with spaces.
+ * 
+ * <p>
+ * The patterns of the script tags (ex : "&lt;script", "&gt;" and
+ * "&lt;/script&gt;") are compiled to char arrays. Like the states, a pattern
+ * restarts at its first character when a character doesn't match (without
+ * matching again this character) and whitespaces are ignored by the patterns.
+ * The characters which cannot start a pattern are processed in bulk: the JS
+ * content is kept as is and the other characters are replaced with spaces.
+ * </p>
+ */
+public class HtmlJSExtractor {
+
+	private final char[][] openPatterns;
+	private final char[][] closePatterns;
+	private final char[][] endPatterns;
+
+	/**
+	 * First characters of the open patterns.
+	 */
+	private final char[] openFirstChars;
+
+	public HtmlJSExtractor(ScriptTagRegion... tagRegions) {
+		int length = tagRegions.length;
+		this.openPatterns = new char[length][];
+		this.closePatterns = new char[length][];
+		this.endPatterns = new char[length][];
+		StringBuilder firstChars = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			ScriptTagRegion tagRegion = tagRegions[i];
+			openPatterns[i] = tagRegion.getOpenStartScript().getPattern();
+			closePatterns[i] = tagRegion.getCloseStartScript().getPattern();
+			endPatterns[i] = tagRegion.getEndScript().getPattern();
+			char first = openPatterns[i][0];
+			if (firstChars.indexOf(String.valueOf(first)) == -1) {
+				firstChars.append(first);
+			}
+		}
+		this.openFirstChars = firstChars.toString().toCharArray();
+	}
+
+	/**
+	 * Extract JS content from the given HTML content. The HTML elements are
+	 * replaced with space and JS content is kept.
+	 * 
+	 * @param html
+	 *            the HTML content which contains JS content.
+	 * @return the result of the extract of JS content from the given HTML
+	 *         content.
+	 */
+	public String extract(String html) {
+		char[] chars = html.toCharArray();
+		extract(chars);
+		return new String(chars);
+	}
+
+	/**
+	 * Replace in place the HTML elements of the given chars with spaces.
+	 * 
+	 * @param chars
+	 *            the HTML content.
+	 */
+	void extract(char[] chars) {
+		int from = 0;
+		while (from < chars.length) {
+			from = extract(chars, from);
+		}
+	}
+
+	/**
+	 * Replace in place the HTML elements of the given chars with spaces, from
+	 * the given index where no pattern is started (the start of the content or
+	 * the end of a script), until the end of the next script. The characters
+	 * after the returned index are not modified.
+	 * 
+	 * @param chars
+	 *            the HTML content.
+	 * @param from
+	 *            the index where no pattern is started.
+	 * @return the index after the end pattern of the next script, or the
+	 *         length of the content if there is no script end.
+	 */
+	int extract(char[] chars, int from) {
+		int length = chars.length;
+		int[] openIndexes = new int[openPatterns.length];
+		// the tag of the matched open pattern, -1 if none
+		int tag = -1;
+		// the close or end pattern of the tag to find and its index
+		char[] pattern = null;
+		int index = 0;
+		boolean inScript = false;
+		int i = from;
+		while (i < length) {
+			char c = chars[i];
+			if (isWhitespace(c)) {
+				i++;
+			} else if (inScript) {
+				// JS content is kept until the end pattern
+				if (c != pattern[index]) {
+					index = 0;
+					i++;
+					// skip the JS content which cannot start the end pattern
+					char first = pattern[0];
+					while (i < length && chars[i] != first) {
+						i++;
+					}
+				} else if (++index < pattern.length) {
+					i++;
+				} else {
+					// the end pattern is found, replace it with spaces
+					Arrays.fill(chars, i - pattern.length + 1, i + 1, ' ');
+					return i + 1;
+				}
+			} else if (tag != -1) {
+				// search the close pattern of the open tag
+				if (c != pattern[index]) {
+					index = 0;
+				} else if (++index == pattern.length) {
+					pattern = endPatterns[tag];
+					index = 0;
+					inScript = true;
+				}
+				chars[i++] = ' ';
+			} else {
+				// search an open pattern
+				boolean matching = false;
+				for (int t = 0; t < openPatterns.length; t++) {
+					char[] open = openPatterns[t];
+					if (c != open[openIndexes[t]]) {
+						openIndexes[t] = 0;
+					} else if (++openIndexes[t] < open.length) {
+						matching = true;
+					} else {
+						openIndexes[t] = 0;
+						tag = t;
+						pattern = closePatterns[t];
+						index = 0;
+						break;
+					}
+				}
+				chars[i++] = ' ';
+				if (!matching && tag == -1) {
+					// skip the HTML content which cannot start an open pattern
+					i = skipHTML(chars, i);
+				}
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Replace with spaces the characters from the given index which cannot
+	 * start an open pattern and returns the index of the first character which
+	 * can start an open pattern.
+	 */
+	private int skipHTML(char[] chars, int i) {
+		int length = chars.length;
+		if (openFirstChars.length == 1) {
+			char first = openFirstChars[0];
+			for (; i < length; i++) {
+				char c = chars[i];
+				if (c == first) {
+					break;
+				}
+				if (c > ' ' || !isWhitespace(c)) {
+					chars[i] = ' ';
+				}
+			}
+		} else {
+			for (; i < length; i++) {
+				char c = chars[i];
+				if (isOpenFirstChar(c)) {
+					break;
+				}
+				if (!isWhitespace(c)) {
+					chars[i] = ' ';
+				}
+			}
+		}
+		return i;
+	}
+
+	private boolean isOpenFirstChar(char c) {
+		for (int i = 0; i < openFirstChars.length; i++) {
+			if (openFirstChars[i] == c) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.protocol.html;
+
+import java.util.Arrays;
+
+/**
+ * Extractor of the JS content of the successive versions of one HTML document
+ * which extracts again only the region of the document modified by an edit.
+ * 
+ * <p>
+ * The extractor keeps the previous version of the document, its extracted
+ * content and the boundaries of its scripts (the index after each script end,
+ * where no pattern is started). The extract of a new version starts at the
+ * last boundary before the edit, and stops at the first boundary after the
+ * edit which is a boundary of the previous version too: the rest of the
+ * extracted content is copied from the previous version.
+ * </p>
+ */
+public class IncrementalHtmlJSExtractor {
+
+	private final ScriptTagRegion[] tagRegions;
+	private final HtmlJSExtractor extractor;
+
+	private String html;
+	private String js;
+	private char[] jsChars;
+
+	/**
+	 * Indexes after the script ends of the previous version, in ascending
+	 * order.
+	 */
+	private int[] boundaries;
+	private int boundaryCount;
+
+	public IncrementalHtmlJSExtractor(ScriptTagRegion... tagRegions) {
+		this.tagRegions = tagRegions;
+		this.extractor = new HtmlJSExtractor(tagRegions);
+		this.boundaries = new int[16];
+	}
+
+	/**
+	 * Returns true if this extractor extracts the JS content of the given tags
+	 * and false otherwise.
+	 * 
+	 * @param tagRegions
+	 *            list of HTML tags which contains JS content.
+	 * @return true if this extractor extracts the JS content of the given tags.
+	 */
+	public boolean hasTagRegions(ScriptTagRegion[] tagRegions) {
+		return Arrays.equals(this.tagRegions, tagRegions);
+	}
+
+	/**
+	 * Extract JS content from the given version of the document. The edit
+	 * from the previous version is the region between the common prefix and
+	 * the common suffix of both versions.
+	 * 
+	 * @param html
+	 *            the new version of the HTML document.
+	 * @return the result of the extract of JS content from the given HTML
+	 *         content.
+	 */
+	public synchronized String extract(String html) {
+		if (this.html == null) {
+			return extractAll(html);
+		}
+		if (this.html.equals(html)) {
+			return js;
+		}
+		String oldHtml = this.html;
+		int min = Math.min(oldHtml.length(), html.length());
+		int prefix = 0;
+		while (prefix < min && oldHtml.charAt(prefix) == html.charAt(prefix)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < min - prefix
+				&& oldHtml.charAt(oldHtml.length() - suffix - 1) == html
+						.charAt(html.length() - suffix - 1)) {
+			suffix++;
+		}
+		return extract(html, prefix, oldHtml.length() - prefix - suffix);
+	}
+
+	/**
+	 * Extract JS content from the given version of the document, which is the
+	 * previous version where the given region was replaced.
+	 * 
+	 * @param html
+	 *            the new version of the HTML document.
+	 * @param offset
+	 *            the offset of the edit in the previous version.
+	 * @param length
+	 *            the length of the text replaced in the previous version.
+	 * @return the result of the extract of JS content from the given HTML
+	 *         content.
+	 */
+	public synchronized String extract(String html, int offset, int length) {
+		String oldHtml = this.html;
+		int delta = html.length() - (oldHtml != null ? oldHtml.length() : 0);
+		if (oldHtml == null || offset < 0 || length < 0
+				|| offset + length > oldHtml.length() || length + delta < 0) {
+			// unknown or invalid edit.
+			return extractAll(html);
+		}
+		int editEnd = offset + length + delta;
+		char[] oldChars = jsChars;
+		int[] oldBoundaries = boundaries;
+		int oldCount = boundaryCount;
+		// the extract starts at the last boundary before the edit.
+		int count = Arrays.binarySearch(oldBoundaries, 0, oldCount, offset);
+		count = count >= 0 ? count + 1 : -count - 1;
+		int from = count > 0 ? oldBoundaries[count - 1] : 0;
+		char[] chars = new char[html.length()];
+		System.arraycopy(oldChars, 0, chars, 0, from);
+		html.getChars(from, html.length(), chars, from);
+		int[] newBoundaries = new int[Math.max(16, oldCount + 1)];
+		System.arraycopy(oldBoundaries, 0, newBoundaries, 0, count);
+		this.boundaries = newBoundaries;
+		this.boundaryCount = count;
+		while (from < chars.length) {
+			from = extractor.extract(chars, from);
+			if (from >= chars.length) {
+				break;
+			}
+			addBoundary(from);
+			int index = from >= editEnd ? Arrays.binarySearch(oldBoundaries,
+					0, oldCount, from - delta) : -1;
+			if (index >= 0) {
+				// the rest of the document is the same as the previous
+				// version, from a boundary of both versions.
+				System.arraycopy(oldChars, from - delta, chars, from,
+						chars.length - from);
+				for (int i = index + 1; i < oldCount; i++) {
+					addBoundary(oldBoundaries[i] + delta);
+				}
+				break;
+			}
+		}
+		return setResult(html, chars);
+	}
+
+	private String extractAll(String html) {
+		char[] chars = html.toCharArray();
+		boundaryCount = 0;
+		int from = 0;
+		while (from < chars.length) {
+			from = extractor.extract(chars, from);
+			if (from < chars.length) {
+				addBoundary(from);
+			}
+		}
+		return setResult(html, chars);
+	}
+
+	private void addBoundary(int boundary) {
+		if (boundaryCount == boundaries.length) {
+			boundaries = Arrays.copyOf(boundaries, boundaryCount * 2);
+		}
+		boundaries[boundaryCount++] = boundary;
+	}
+
+	private String setResult(String html, char[] chars) {
+		this.html = html;
+		this.jsChars = chars;
+		this.js = new String(chars);
+		return js;
+	}
+}
@@ -42,6 +42,10 @@ public class Region {
 		return MatchResult.NO_MATCHING;
 	}
 
+	char[] getPattern() {
+		return pattern;
+	}
+
 	public RegionType getType() {
 		return type;
 	}
@@ -0,0 +1,37 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import tern.TernException;
+
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * API to read the JSON response body of the node.js tern server.
+ *
+ */
+public interface INodejsResponseReader {
+
+	/**
+	 * Reads the JSON response body of the node.js tern server.
+	 * 
+	 * @param reader
+	 *            the reader of the response body.
+	 * @return the response as JSON object if it was built and null if the
+	 *         response was streamed without building it.
+	 * @throws IOException
+	 * @throws TernException
+	 */
+	JsonObject read(Reader reader) throws IOException, TernException;
+}
@@ -0,0 +1,47 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs;
+
+import java.io.IOException;
+
+import tern.TernException;
+import tern.server.protocol.TernDoc;
+
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Transport used to send tern requests to the node.js tern server.
+ *
+ */
+public interface INodejsTransport {
+
+	/**
+	 * Send the given tern doc to the node.js tern server and read the response
+	 * with the given reader.
+	 *
+	 * @param doc
+	 *            the tern doc.
+	 * @param responseReader
+	 *            the reader of the response.
+	 * @return the JSON response and null if the response was streamed by the
+	 *         reader.
+	 * @throws IOException
+	 * @throws TernException
+	 *             if the tern server returns an error.
+	 */
+	JsonObject send(TernDoc doc, INodejsResponseReader responseReader)
+			throws IOException, TernException;
+
+	/**
+	 * Dispose the transport.
+	 */
+	void dispose();
+}
@@ -0,0 +1,150 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import tern.TernException;
+import tern.server.protocol.TernDoc;
+
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Pooled keep-alive HTTP transport used to send tern requests to the node.js
+ * tern server. Connections are kept open between requests to avoid a TCP
+ * connect/teardown for each request and are closed when they stay idle longer
+ * than the configured idle timeout.
+ *
+ */
+public class NodejsHttpTransport implements INodejsTransport {
+
+	/**
+	 * Base URL of the node.js tern server.
+	 */
+	private final String baseURL;
+
+	/**
+	 * Pooled connection manager.
+	 */
+	private final ThreadSafeClientConnManager connectionManager;
+
+	/**
+	 * HTTP client which uses the pooled connection manager.
+	 */
+	private final HttpClient httpClient;
+
+	/**
+	 * Time in ms after which an idle connection is closed.
+	 */
+	private final long idleTimeout;
+
+	/**
+	 * Thread which evicts idle connections.
+	 */
+	private Thread evictorThread;
+
+	/**
+	 * Evicts expired and idle connections of the pool.
+	 */
+	private class IdleConnectionEvictor implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					Thread.sleep(Math.max(idleTimeout / 2, 100L));
+					connectionManager.closeExpiredConnections();
+					connectionManager.closeIdleConnections(idleTimeout,
+							TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				// transport is disposed, stop the eviction.
+			}
+		}
+	}
+
+	/**
+	 * Pooled HTTP transport constructor.
+	 *
+	 * @param baseURL
+	 *            base URL of the node.js tern server.
+	 * @param maxConnections
+	 *            max connections kept in the pool.
+	 * @param idleTimeout
+	 *            time in ms after which an idle connection is closed.
+	 */
+	public NodejsHttpTransport(String baseURL, int maxConnections,
+			long idleTimeout) {
+		this.baseURL = baseURL;
+		this.connectionManager = new ThreadSafeClientConnManager();
+		connectionManager.setMaxTotal(maxConnections);
+		// node.js tern server is the only route.
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		this.httpClient = new DefaultHttpClient(connectionManager);
+		this.idleTimeout = idleTimeout;
+		if (idleTimeout > 0) {
+			evictorThread = new Thread(new IdleConnectionEvictor(),
+					"Tern node.js idle connection evictor");
+			evictorThread.setDaemon(true);
+			evictorThread.start();
+		}
+	}
+
+	@Override
+	public JsonObject send(TernDoc doc, INodejsResponseReader responseReader)
+			throws IOException, TernException {
+		return NodejsTernHelper.post(httpClient, baseURL, doc, responseReader);
+	}
+
+	/**
+	 * Returns the base URL of the node.js tern server.
+	 *
+	 * @return the base URL of the node.js tern server.
+	 */
+	public String getBaseURL() {
+		return baseURL;
+	}
+
+	/**
+	 * Returns the pooled HTTP client.
+	 *
+	 * @return the pooled HTTP client.
+	 */
+	public HttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * Returns the number of connections kept in the pool.
+	 *
+	 * @return the number of connections kept in the pool.
+	 */
+	public int getConnectionsInPool() {
+		return connectionManager.getConnectionsInPool();
+	}
+
+	/**
+	 * Close all connections and stop the eviction of idle connections.
+	 */
+	@Override
+	public void dispose() {
+		if (evictorThread != null) {
+			evictorThread.interrupt();
+			evictorThread = null;
+		}
+		connectionManager.shutdown();
+	}
+}
@@ -0,0 +1,532 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import tern.ITernFileSynchronizer;
+import tern.TernException;
+import tern.server.nodejs.process.NodejsProcess;
+import tern.server.nodejs.process.NodejsProcessAdapter;
+import tern.server.protocol.TernDoc;
+import tern.server.protocol.TernFile;
+
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+/**
+ * Transport which sends tern requests to a pool of replicated node.js tern
+ * servers of the same project.
+ *
+ * <ul>
+ * <li>a request which contains full or deleted files updates the files of
+ * every replica: the request is sent to a replica and those files are sent to
+ * the other replicas in parallel. Part files are only used by the query of
+ * the request, they are not sent to the other replicas.</li>
+ * <li>a request without such files only reads the files already uploaded, it
+ * is sent to the healthy replica which has the least active requests.</li>
+ * </ul>
+ *
+ * A replica added to the pool first receives the files already uploaded to
+ * the other replicas, it receives requests which read files only once it is
+ * up to date. A replica which cannot be reached is removed from the pool. The
+ * first replica (the node.js process of the server) is never removed, the
+ * server is disposed when it stops.
+ *
+ */
+public class NodejsReplicatedTransport implements INodejsTransport {
+
+	private final List<Replica> replicas;
+
+	/**
+	 * The replica of the node.js process of the server.
+	 */
+	private final Replica primary;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Index of the replica from which the search of the least busy replica
+	 * starts, to share the requests between replicas which have the same
+	 * number of active requests.
+	 */
+	private int nextReplica;
+
+	private boolean disposed;
+
+	/**
+	 * A node.js tern server of the pool.
+	 */
+	static class Replica {
+
+		private INodejsTransport transport;
+
+		/**
+		 * Names of the files uploaded to the replica.
+		 */
+		private final Set<String> indexedFiles;
+
+		private int activeRequests;
+
+		/**
+		 * False once the replica is removed from the pool.
+		 */
+		private boolean healthy;
+
+		/**
+		 * Docs which upload files to the replica while it receives the files
+		 * already uploaded to the other replicas, null when the replica is up
+		 * to date.
+		 */
+		private List<TernDoc> pendingDocs;
+
+		Replica(INodejsTransport transport) {
+			this.transport = transport;
+			this.indexedFiles = Collections
+					.synchronizedSet(new HashSet<String>());
+			this.healthy = true;
+		}
+
+		/**
+		 * Returns the transport of the replica and start the replica if
+		 * needed.
+		 */
+		INodejsTransport getTransport() throws IOException, TernException {
+			return transport;
+		}
+
+		/**
+		 * Dispose the replica.
+		 */
+		void dispose() {
+			transport.dispose();
+		}
+	}
+
+	/**
+	 * Replica which is a node.js process started by the pool.
+	 */
+	private class ProcessReplica extends Replica {
+
+		private final NodejsProcess process;
+		private final long timeout;
+		private final int testNumber;
+		private final int maxConnections;
+		private final long connectionIdleTimeout;
+		private boolean disposed;
+
+		ProcessReplica(NodejsProcess process, long timeout, int testNumber,
+				int maxConnections, long connectionIdleTimeout) {
+			super(null);
+			this.process = process;
+			this.timeout = timeout;
+			this.testNumber = testNumber;
+			this.maxConnections = maxConnections;
+			this.connectionIdleTimeout = connectionIdleTimeout;
+			process.addProcessListener(new NodejsProcessAdapter() {
+				@Override
+				public void onStop(NodejsProcess server) {
+					unhealthy(ProcessReplica.this);
+				}
+			});
+		}
+
+		@Override
+		synchronized INodejsTransport getTransport() throws IOException,
+				TernException {
+			if (disposed) {
+				throw new IOException("node.js replica is stopped.");
+			}
+			INodejsTransport transport = super.getTransport();
+			if (transport == null) {
+				int port;
+				try {
+					port = process.start(timeout, testNumber);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+				if (process.isStdio()) {
+					transport = process.getStdioTransport();
+				} else {
+					transport = new NodejsHttpTransport(
+							"http://localhost:" + port + "/", maxConnections,
+							connectionIdleTimeout);
+				}
+				super.transport = transport;
+			}
+			return transport;
+		}
+
+		@Override
+		synchronized void dispose() {
+			if (disposed) {
+				return;
+			}
+			disposed = true;
+			INodejsTransport transport = super.transport;
+			if (transport != null && !process.isStdio()) {
+				transport.dispose();
+			}
+			process.kill();
+		}
+	}
+
+	/**
+	 * Replicated transport constructor.
+	 *
+	 * @param transport
+	 *            the transport of the node.js server which is replicated.
+	 */
+	public NodejsReplicatedTransport(INodejsTransport transport) {
+		this.replicas = new ArrayList<Replica>();
+		this.primary = new Replica(transport) {
+			@Override
+			void dispose() {
+				// the transport of the replicated server is disposed by the
+				// server.
+			}
+		};
+		this.replicas.add(primary);
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Tern replica request");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Add the given node.js process to the pool and start it. The process must
+	 * start the node.js tern server of the same project (see
+	 * {@link tern.server.nodejs.process.NodejsProcessManager#createReplica(NodejsProcess)}
+	 * ).
+	 *
+	 * @param process
+	 *            the node.js process.
+	 * @param timeout
+	 *            the timeout to wait until the process starts.
+	 * @param testNumber
+	 *            the number of tests to wait until the process starts.
+	 * @param maxConnections
+	 *            the max number of keep-alive HTTP connections to the process.
+	 * @param connectionIdleTimeout
+	 *            the time in ms after which an idle HTTP connection is closed.
+	 * @param fileSynchronizer
+	 *            the synchronizer of the files uploaded to the other replicas,
+	 *            or null.
+	 * @throws TernException
+	 */
+	public void addReplica(NodejsProcess process, long timeout,
+			int testNumber, int maxConnections, long connectionIdleTimeout,
+			ITernFileSynchronizer fileSynchronizer) throws TernException {
+		// launch the process now, the first request waits its start.
+		process.start();
+		addReplica(new ProcessReplica(process, timeout, testNumber,
+				maxConnections, connectionIdleTimeout), fileSynchronizer);
+	}
+
+	void addReplica(Replica replica) {
+		synchronized (replicas) {
+			replicas.add(replica);
+		}
+	}
+
+	/**
+	 * Add the given replica to the pool and upload to it in background the
+	 * indexed files of the given synchronizer. The replica receives requests
+	 * which read files once these files and the files uploaded in the meantime
+	 * are uploaded.
+	 */
+	void addReplica(final Replica replica,
+			final ITernFileSynchronizer fileSynchronizer) {
+		synchronized (replicas) {
+			replica.pendingDocs = new ArrayList<TernDoc>();
+			replicas.add(replica);
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				update(replica, fileSynchronizer);
+			}
+		});
+	}
+
+	/**
+	 * Upload the indexed files of the given synchronizer and then the pending
+	 * docs to the given replica until it is up to date.
+	 */
+	private void update(Replica replica,
+			ITernFileSynchronizer fileSynchronizer) {
+		try {
+			List<TernDoc> docs = fileSynchronizer != null ? fileSynchronizer
+					.createIndexedFilesDocs() : Collections
+					.<TernDoc> emptyList();
+			while (true) {
+				for (TernDoc doc : docs) {
+					send(replica, doc, null);
+				}
+				synchronized (replicas) {
+					if (replica.pendingDocs.isEmpty()) {
+						replica.pendingDocs = null;
+						return;
+					}
+					docs = replica.pendingDocs;
+					replica.pendingDocs = new ArrayList<TernDoc>();
+				}
+			}
+		} catch (Exception e) {
+			// the files of the replica are not up to date.
+			unhealthy(replica);
+		}
+	}
+
+	@Override
+	public JsonObject send(TernDoc doc, INodejsResponseReader responseReader)
+			throws IOException, TernException {
+		if (doc.updatesFiles()) {
+			return broadcast(doc, responseReader);
+		}
+		// a part file is resolved to the name of the file.
+		String file = doc.getQueryFileName();
+		while (true) {
+			Replica replica = acquire(file);
+			try {
+				return send(replica, doc, responseReader);
+			} catch (IOException e) {
+				if (replica == primary) {
+					throw e;
+				}
+				// retry with another replica.
+				unhealthy(replica);
+			} finally {
+				release(replica);
+			}
+		}
+	}
+
+	/**
+	 * Send the given doc to a replica and its full and deleted files to the
+	 * other replicas.
+	 */
+	private JsonObject broadcast(TernDoc doc,
+			final INodejsResponseReader responseReader) throws IOException,
+			TernException {
+		List<Replica> targets = getHealthyReplicas();
+		Replica replica = acquire(null);
+		List<Future<JsonObject>> copies = new ArrayList<Future<JsonObject>>();
+		try {
+			TernDoc filesDoc = null;
+			for (final Replica target : targets) {
+				if (target == replica) {
+					continue;
+				}
+				if (filesDoc == null) {
+					filesDoc = createFilesDoc(doc);
+				}
+				final TernDoc copy = filesDoc;
+				synchronized (replicas) {
+					if (target.pendingDocs != null) {
+						// the replica is updated in background.
+						target.pendingDocs.add(copy);
+						copies.add(null);
+						continue;
+					}
+				}
+				copies.add(executor.submit(new Callable<JsonObject>() {
+					@Override
+					public JsonObject call() throws Exception {
+						return send(target, copy, null);
+					}
+				}));
+			}
+			JsonObject response = send(replica, doc, responseReader);
+			waitFor(copies, targets, replica);
+			return response;
+		} catch (IOException e) {
+			for (Future<JsonObject> copy : copies) {
+				if (copy != null) {
+					copy.cancel(false);
+				}
+			}
+			if (replica != primary) {
+				// the other replicas have received the files.
+				unhealthy(replica);
+			}
+			throw e;
+		} finally {
+			release(replica);
+		}
+	}
+
+	/**
+	 * Returns a doc which uploads the full and deleted files of the given doc.
+	 * The part files are ignored by tern without the query of the doc.
+	 */
+	private static TernDoc createFilesDoc(TernDoc doc) {
+		TernDoc filesDoc = new TernDoc();
+		for (JsonValue value : doc.getFiles()) {
+			TernFile file = (TernFile) value;
+			if (!file.isPart()) {
+				filesDoc.addFile(file);
+			}
+		}
+		return filesDoc;
+	}
+
+	/**
+	 * Wait the end of the upload of the files to the other replicas and remove
+	 * from the pool the replicas which cannot be reached.
+	 */
+	private void waitFor(List<Future<JsonObject>> copies,
+			List<Replica> targets, Replica replica) throws IOException {
+		int i = 0;
+		for (Replica target : targets) {
+			if (target == replica) {
+				continue;
+			}
+			Future<JsonObject> copy = copies.get(i++);
+			if (copy == null) {
+				// the files are uploaded in background.
+				continue;
+			}
+			try {
+				copy.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					unhealthy(target);
+				}
+				// a tern error is returned by the replica which has received
+				// the whole request too.
+			}
+		}
+	}
+
+	private JsonObject send(Replica replica, TernDoc doc,
+			INodejsResponseReader responseReader) throws IOException,
+			TernException {
+		JsonObject response = replica.getTransport().send(doc, responseReader);
+		if (doc.hasFiles()) {
+			for (JsonValue value : doc.getFiles()) {
+				TernFile file = (TernFile) value;
+				if (file.isPart()) {
+					// the text of the file is not updated by a part.
+					continue;
+				}
+				String name = file.getName();
+				if (file.isDelete()) {
+					replica.indexedFiles.remove(name);
+				} else {
+					replica.indexedFiles.add(name);
+				}
+			}
+		}
+		return response;
+	}
+
+	/**
+	 * Returns the healthy replica which has the least active requests,
+	 * preferring the replicas which have the given file.
+	 */
+	private Replica acquire(String file) throws IOException {
+		synchronized (replicas) {
+			if (disposed) {
+				throw new IOException("node.js replicas are disposed.");
+			}
+			Replica best = null;
+			boolean bestHasFile = false;
+			int size = replicas.size();
+			for (int i = 0; i < size; i++) {
+				Replica replica = replicas.get((nextReplica + i) % size);
+				if (replica.pendingDocs != null) {
+					continue;
+				}
+				boolean hasFile = file == null
+						|| replica.indexedFiles.contains(file);
+				if (best == null
+						|| (hasFile && !bestHasFile)
+						|| (hasFile == bestHasFile
+								&& replica.activeRequests < best.activeRequests)) {
+					best = replica;
+					bestHasFile = hasFile;
+				}
+			}
+			nextReplica = (nextReplica + 1) % size;
+			best.activeRequests++;
+			return best;
+		}
+	}
+
+	private void release(Replica replica) {
+		synchronized (replicas) {
+			replica.activeRequests--;
+		}
+	}
+
+	private List<Replica> getHealthyReplicas() {
+		synchronized (replicas) {
+			return new ArrayList<Replica>(replicas);
+		}
+	}
+
+	/**
+	 * Remove the given replica from the pool.
+	 */
+	private void unhealthy(Replica replica) {
+		synchronized (replicas) {
+			if (!replica.healthy || replica == primary) {
+				return;
+			}
+			replica.healthy = false;
+			replicas.remove(replica);
+		}
+		replica.dispose();
+	}
+
+	/**
+	 * Returns the number of healthy replicas of the pool.
+	 *
+	 * @return the number of healthy replicas of the pool.
+	 */
+	public int getHealthyReplicaCount() {
+		return getHealthyReplicas().size();
+	}
+
+	@Override
+	public void dispose() {
+		List<Replica> replicas;
+		synchronized (this.replicas) {
+			disposed = true;
+			replicas = new ArrayList<Replica>(this.replicas);
+		}
+		for (Replica replica : replicas) {
+			replica.dispose();
+		}
+		executor.shutdownNow();
+	}
+}
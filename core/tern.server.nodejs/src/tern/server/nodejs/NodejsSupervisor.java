@@ -0,0 +1,340 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import tern.ITernFileSynchronizer;
+import tern.server.nodejs.process.NodejsProcess;
+
+/**
+ * Supervisor of the node.js process of a {@link NodejsTernServer}:
+ *
+ * <ul>
+ * <li>when the process crashes, it is replaced with a new process which is
+ * started in background after a delay which doubles with each consecutive
+ * crash. The files which were indexed by the crashed process are then
+ * uploaded again, the files opened in editors first.</li>
+ * <li>when an interactive query waits its response for more than the hang
+ * timeout (disabled by default), the process is considered as hung and it is
+ * killed and restarted.</li>
+ * <li>when the process uses more memory than the max memory of the server, it
+ * is recycled: it is replaced with a new process which has received the
+ * indexed files before the requests.</li>
+ * </ul>
+ *
+ * A process which stops by itself without error (idle shutdown) is not
+ * restarted.
+ *
+ */
+public class NodejsSupervisor {
+
+	/**
+	 * Delay before the restart after the first crash.
+	 */
+	public static final long DEFAULT_RESTART_DELAY = 500L;
+
+	/**
+	 * Max delay before a restart.
+	 */
+	public static final long DEFAULT_MAX_RESTART_DELAY = 30000L;
+
+	/**
+	 * Max number of consecutive crashes after which the server is disposed.
+	 */
+	public static final int DEFAULT_MAX_RESTARTS = 5;
+
+	/**
+	 * A process which runs longer than this time before its crash was stable,
+	 * its crash is not consecutive to the previous one.
+	 */
+	private static final long STABLE_TIME = 60000L;
+
+	private final NodejsTernServer server;
+
+	/**
+	 * Executor of the hang detection and of the restart delays.
+	 */
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Executor of the restarts and of the recycles, which wait the start of a
+	 * process and the upload of the indexed files: they don't delay the hang
+	 * detection and they don't wait each other.
+	 */
+	private final ExecutorService worker;
+
+	private long restartDelay = DEFAULT_RESTART_DELAY;
+
+	private long maxRestartDelay = DEFAULT_MAX_RESTART_DELAY;
+
+	private int maxRestarts = DEFAULT_MAX_RESTARTS;
+
+	/**
+	 * Number of consecutive crashes.
+	 */
+	private int crashes;
+
+	/**
+	 * Total number of restarts.
+	 */
+	private int restarts;
+
+	/**
+	 * Total number of recycles.
+	 */
+	private int recycles;
+
+	/**
+	 * true while a process is recycled.
+	 */
+	private boolean recycling;
+
+	/**
+	 * Time when the last process was started.
+	 */
+	private long startTime;
+
+	/**
+	 * The process which was killed because it hung.
+	 */
+	private NodejsProcess hungProcess;
+
+	private ScheduledFuture<?> hangDetection;
+
+	public NodejsSupervisor(NodejsTernServer server) {
+		this.server = server;
+		this.executor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Tern supervisor");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.worker = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Tern supervisor worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Notify the supervisor that the given process has started.
+	 *
+	 * @param process
+	 *            the started process.
+	 */
+	public synchronized void processStarted(NodejsProcess process) {
+		this.startTime = System.currentTimeMillis();
+		long hangTimeout = server.getHangTimeout();
+		if (hangDetection == null && hangTimeout > 0) {
+			long period = Math.max(hangTimeout / 4, 1);
+			hangDetection = executor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					detectHang();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Kill the process of the server if a request waits its response for more
+	 * than the hang timeout.
+	 */
+	private void detectHang() {
+		long hangTimeout = server.getHangTimeout();
+		Long requestTime = server.getOldestRequestTime();
+		if (hangTimeout <= 0 || requestTime == null
+				|| System.currentTimeMillis() - requestTime < hangTimeout) {
+			return;
+		}
+		NodejsProcess process = server.getStartedProcess();
+		if (process != null) {
+			synchronized (this) {
+				hungProcess = process;
+			}
+			process.kill();
+		}
+	}
+
+	/**
+	 * Notify the supervisor that the given process of the server has stopped
+	 * and restart it if it has crashed.
+	 *
+	 * @param process
+	 *            the stopped process.
+	 * @return true if the process will be restarted and false if the server
+	 *         must be disposed.
+	 */
+	public boolean processStopped(NodejsProcess process) {
+		long delay;
+		synchronized (this) {
+			if (server.isDisposed() || process.getPort() == null) {
+				// the server is disposed or the process has never started.
+				return false;
+			}
+			boolean hung = process == hungProcess;
+			hungProcess = null;
+			Integer exitValue = process.getExitValue();
+			if (!hung && (exitValue == null || exitValue == 0)) {
+				// the process was killed or has stopped by itself.
+				return false;
+			}
+			if (System.currentTimeMillis() - startTime > STABLE_TIME) {
+				crashes = 0;
+			}
+			if (crashes >= maxRestarts) {
+				return false;
+			}
+			delay = Math.min(restartDelay << crashes, maxRestartDelay);
+			crashes++;
+		}
+		if (!server.replaceProcess(process)) {
+			return false;
+		}
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				worker.execute(new Runnable() {
+					@Override
+					public void run() {
+						restart();
+					}
+				});
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	/**
+	 * Start the new process of the server and upload again the indexed files.
+	 */
+	private void restart() {
+		if (server.isDisposed()) {
+			return;
+		}
+		try {
+			server.getBaseURL();
+			synchronized (this) {
+				restarts++;
+			}
+			ITernFileSynchronizer fileSynchronizer = server
+					.getFileSynchronizer();
+			if (fileSynchronizer != null) {
+				fileSynchronizer.replayIndexedFiles();
+			}
+		} catch (Throwable e) {
+			// the next request will start the process.
+			server.getProject().handleException(e);
+		}
+	}
+
+	/**
+	 * Replace in background the given process which uses too much memory with
+	 * a new process.
+	 * 
+	 * @param process
+	 *            the process to recycle.
+	 */
+	public void recycle(final NodejsProcess process) {
+		synchronized (this) {
+			if (recycling) {
+				return;
+			}
+			recycling = true;
+		}
+		worker.execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean recycled = false;
+				try {
+					recycled = server.recycleProcess(process);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					synchronized (NodejsSupervisor.this) {
+						recycling = false;
+						if (recycled) {
+							recycles++;
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of recycles of the process because it used too much
+	 * memory.
+	 * 
+	 * @return the number of recycles of the process.
+	 */
+	public synchronized int getRecycles() {
+		return recycles;
+	}
+
+	/**
+	 * Returns the number of restarts of the process.
+	 *
+	 * @return the number of restarts of the process.
+	 */
+	public synchronized int getRestarts() {
+		return restarts;
+	}
+
+	/**
+	 * Set the delay in ms before the restart after the first crash. The delay
+	 * doubles with each consecutive crash.
+	 *
+	 * @param restartDelay
+	 */
+	public void setRestartDelay(long restartDelay) {
+		this.restartDelay = restartDelay;
+	}
+
+	/**
+	 * Set the max delay in ms before a restart.
+	 *
+	 * @param maxRestartDelay
+	 */
+	public void setMaxRestartDelay(long maxRestartDelay) {
+		this.maxRestartDelay = maxRestartDelay;
+	}
+
+	/**
+	 * Set the max number of consecutive crashes after which the server is
+	 * disposed.
+	 *
+	 * @param maxRestarts
+	 */
+	public void setMaxRestarts(int maxRestarts) {
+		this.maxRestarts = maxRestarts;
+	}
+
+	/**
+	 * Dispose the supervisor.
+	 */
+	public void dispose() {
+		executor.shutdownNow();
+		worker.shutdownNow();
+	}
+}
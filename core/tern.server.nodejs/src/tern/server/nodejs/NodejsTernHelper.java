@@ -10,10 +10,13 @@
  */
 package tern.server.nodejs;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.List;
 
 import org.apache.http.HttpEntity;
@@ -22,8 +25,8 @@ import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
 
 import tern.ITernFileSynchronizer;
 import tern.TernException;
@@ -56,9 +59,101 @@ public class NodejsTernHelper {
 
 	public static final boolean DEFAULT_PERSISTENT = false;
 
+	public static final boolean DEFAULT_STREAMING_RESPONSES = false;
+
+	public static final boolean DEFAULT_STDIO = false;
+
+	// number of node.js processes which serve the requests of a project.
+	public static final int DEFAULT_REPLICAS = 1;
+
+	// restart the node.js process when it crashes or hangs.
+	public static final boolean DEFAULT_SUPERVISED = true;
+	// no hang detection: a long request (ex : first analysis of a big project)
+	// must not kill the node.js process.
+	public static final long DEFAULT_HANG_TIMEOUT = 0L;
+
+	// collect the resources used by the node.js process each 10s.
+	public static final long DEFAULT_MONITORING_INTERVAL = 10000L;
+	// no max memory for the node.js process.
+	public static final long DEFAULT_MAX_MEMORY = 0L;
+
+	// node.js tern server reads and writes JSON with UTF-8.
+	private static final String UTF_8 = "UTF-8";
+
+	// properties for the pooled HTTP transport
+	public static final int DEFAULT_MAX_CONNECTIONS = 4;
+	// idle connections are closed after 3s (node.js closes keep-alive
+	// sockets after 5s).
+	public static final long DEFAULT_CONNECTION_IDLE_TIMEOUT = 3000L;
+
 	public static JsonObject makeRequest(String baseURL, TernDoc doc,
 			boolean silent, List<IInterceptor> interceptors, ITernServer server)
 			throws IOException, TernException {
+		HttpClient httpClient = new DefaultHttpClient();
+		try {
+			return makeRequest(httpClient, baseURL, doc, silent, interceptors,
+					server);
+		} finally {
+			httpClient.getConnectionManager().shutdown();
+		}
+	}
+
+	/**
+	 * Post the given tern doc with the given HTTP client. The HTTP client is
+	 * not shutdown, so it can be a pooled client which keeps the connection
+	 * alive for the next request.
+	 */
+	public static JsonObject makeRequest(HttpClient httpClient, String baseURL,
+			TernDoc doc, boolean silent, List<IInterceptor> interceptors,
+			ITernServer server) throws IOException, TernException {
+		return makeRequest(httpClient, baseURL, doc, silent, interceptors,
+				server, TREE_READER);
+	}
+
+	/**
+	 * Post the given tern doc with the given HTTP client and read the response
+	 * body with the given response reader.
+	 */
+	public static JsonObject makeRequest(final HttpClient httpClient,
+			final String baseURL, TernDoc doc, boolean silent,
+			List<IInterceptor> interceptors, ITernServer server,
+			INodejsResponseReader responseReader) throws IOException,
+			TernException {
+		INodejsTransport transport = new INodejsTransport() {
+
+			@Override
+			public JsonObject send(TernDoc doc,
+					INodejsResponseReader responseReader) throws IOException,
+					TernException {
+				return post(httpClient, baseURL, doc, responseReader);
+			}
+
+			@Override
+			public void dispose() {
+			}
+		};
+		return makeRequest(transport, doc, silent, interceptors, server,
+				responseReader);
+	}
+
+	/**
+	 * Send the given tern doc with the given transport.
+	 */
+	public static JsonObject makeRequest(INodejsTransport transport,
+			TernDoc doc, boolean silent, List<IInterceptor> interceptors,
+			ITernServer server) throws IOException, TernException {
+		return makeRequest(transport, doc, silent, interceptors, server,
+				TREE_READER);
+	}
+
+	/**
+	 * Send the given tern doc with the given transport and read the response
+	 * with the given response reader.
+	 */
+	public static JsonObject makeRequest(INodejsTransport transport,
+			TernDoc doc, boolean silent, List<IInterceptor> interceptors,
+			ITernServer server, INodejsResponseReader responseReader)
+			throws IOException, TernException {
 		TernQuery query = doc.getQuery();
 		String methodName = query != null ? query.getLabel() : "";
 		long startTime = 0;
@@ -68,43 +163,21 @@ public class NodejsTernHelper {
 				interceptor.handleRequest(doc, server, methodName);
 			}
 		}
-		HttpClient httpClient = new DefaultHttpClient();
 		try {
-			// Post JSON Tern doc
-			HttpPost httpPost = createHttpPost(baseURL, doc);
-			HttpResponse httpResponse = httpClient.execute(httpPost);
-			HttpEntity entity = httpResponse.getEntity();
-			InputStream in = entity.getContent();
-			// Check the status
-			StatusLine statusLine = httpResponse.getStatusLine();
-			int statusCode = statusLine.getStatusCode();
-			if (statusCode != HttpStatus.SC_OK) {
-				// node.js server throws error
-				String message = IOUtils.toString(in);
-				if (StringUtils.isEmpty(message)) {
-					throw new TernException(statusLine.toString());
+			JsonObject response = transport.send(doc, responseReader);
+			if (interceptors != null && response != null) {
+				for (IInterceptor interceptor : interceptors) {
+					interceptor.handleResponse(response, server, methodName,
+							getElapsedTimeInMs(startTime));
 				}
-				throw new TernException(message);
 			}
-
-			try {
-				JsonObject response = JsonObject
-						.readFrom(new InputStreamReader(in));
-				if (interceptors != null) {
-					for (IInterceptor interceptor : interceptors) {
-						interceptor.handleResponse(response, server,
-								methodName, getElapsedTimeInMs(startTime));
-					}
-				}
-				// Update file synchronizer if needed.
-				ITernFileSynchronizer fileSynchronizer = server.getFileSynchronizer();
-				if (fileSynchronizer != null) {
-					fileSynchronizer.filesUploaded(doc);
-				}
-				return response;
-			} catch (ParseException e) {
-				throw new IOException(e);
+			// Update file synchronizer if needed.
+			ITernFileSynchronizer fileSynchronizer = server
+					.getFileSynchronizer();
+			if (fileSynchronizer != null) {
+				fileSynchronizer.filesUploaded(doc);
 			}
+			return response;
 		} catch (Exception e) {
 			if (interceptors != null) {
 				for (IInterceptor interceptor : interceptors) {
@@ -119,20 +192,119 @@ public class NodejsTernHelper {
 				throw (TernException) e;
 			}
 			throw new TernException(e);
+		}
+	}
+
+	/**
+	 * Post the given tern doc to the node.js tern server with the given HTTP
+	 * client and read the response body with the given response reader.
+	 */
+	public static JsonObject post(HttpClient httpClient, String baseURL,
+			TernDoc doc, INodejsResponseReader responseReader)
+			throws IOException, TernException {
+		HttpPost httpPost = null;
+		HttpEntity entity = null;
+		try {
+			// Post JSON Tern doc
+			httpPost = createHttpPost(baseURL, doc);
+			HttpResponse httpResponse = httpClient.execute(httpPost);
+			entity = httpResponse.getEntity();
+			InputStream in = entity.getContent();
+			// Check the status
+			StatusLine statusLine = httpResponse.getStatusLine();
+			int statusCode = statusLine.getStatusCode();
+			if (statusCode != HttpStatus.SC_OK) {
+				// node.js server throws error
+				String message = IOUtils.toString(in);
+				if (StringUtils.isEmpty(message)) {
+					throw new TernException(statusLine.toString());
+				}
+				throw new TernException(message);
+			}
+			return read(new InputStreamReader(in, UTF_8), responseReader);
+		} catch (IOException e) {
+			abort(httpPost);
+			throw e;
+		} catch (TernException e) {
+			abort(httpPost);
+			throw e;
+		} catch (RuntimeException e) {
+			abort(httpPost);
+			throw e;
 		} finally {
-			httpClient.getConnectionManager().shutdown();
+			if (entity != null) {
+				// consume the remaining content to release the connection.
+				try {
+					EntityUtils.consume(entity);
+				} catch (IOException e) {
+					// ignore
+				}
+			}
 		}
 	}
 
-	private static HttpPost createHttpPost(String baseURL, JsonObject doc)
-			throws UnsupportedEncodingException {
+	/**
+	 * Read the response with the given response reader.
+	 */
+	public static JsonObject read(Reader reader,
+			INodejsResponseReader responseReader) throws IOException,
+			TernException {
+		try {
+			return responseReader.read(reader);
+		} catch (ParseException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static void abort(HttpPost httpPost) {
+		if (httpPost != null) {
+			// don't give back to the pool a connection in a bad state.
+			httpPost.abort();
+		}
+	}
+
+	private static HttpPost createHttpPost(String baseURL, TernDoc doc) {
 		HttpPost httpPost = new HttpPost(baseURL);
-		httpPost.setEntity(new StringEntity(doc.toString()));
+		httpPost.setEntity(new TernDocEntity(doc));
 		return httpPost;
 	}
 
+	/**
+	 * Response reader which builds the whole JSON object.
+	 */
+	private static final INodejsResponseReader TREE_READER = new INodejsResponseReader() {
+
+		@Override
+		public JsonObject read(Reader reader) throws IOException {
+			return JsonObject.readFrom(reader);
+		}
+	};
+
 	public static long getElapsedTimeInMs(long startTime) {
 		return ((System.nanoTime() - startTime) / 1000000L);
 	}
 
+	/**
+	 * Returns the URL of the tern server of the given project hosted by a
+	 * multi-project node.js process (see
+	 * {@link tern.server.nodejs.process.NodejsProcess#setMultiProject(boolean)}
+	 * ).
+	 * 
+	 * @param baseURL
+	 *            the base URL of the multi-project node.js process.
+	 * @param projectDir
+	 *            the project base dir where .tern-project is hosted.
+	 * @return the URL of the tern server of the given project.
+	 */
+	public static String getProjectURL(String baseURL, File projectDir) {
+		try {
+			return new StringBuilder(baseURL)
+					.append("project/")
+					.append(URLEncoder.encode(projectDir.getAbsolutePath(),
+							UTF_8)).append("/").toString();
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 }
@@ -12,9 +12,17 @@ package tern.server.nodejs;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import tern.ITernFileSynchronizer;
 import tern.ITernProject;
 import tern.TernException;
 import tern.TernResourcesManager;
@@ -23,13 +31,18 @@ import tern.server.IInterceptor;
 import tern.server.IResponseHandler;
 import tern.server.ITernDef;
 import tern.server.ITernPlugin;
+import tern.server.TernRequestPriority;
+import tern.server.TernRequestScheduler;
 import tern.server.nodejs.process.INodejsProcessListener;
 import tern.server.nodejs.process.NodejsProcess;
 import tern.server.nodejs.process.NodejsProcessAdapter;
 import tern.server.nodejs.process.NodejsProcessException;
 import tern.server.nodejs.process.NodejsProcessManager;
+import tern.server.nodejs.process.NodejsProcessUsage;
 import tern.server.protocol.JsonHelper;
+import tern.server.protocol.JsonStreamReader;
 import tern.server.protocol.TernDoc;
+import tern.server.protocol.TernFile;
 import tern.server.protocol.completions.ITernCompletionCollector;
 import tern.server.protocol.definition.ITernDefinitionCollector;
 import tern.server.protocol.guesstypes.ITernGuessTypesCollector;
@@ -49,6 +62,12 @@ import com.eclipsesource.json.JsonValue;
  */
 public class NodejsTernServer extends AbstractTernServer {
 
+	/**
+	 * Max time in ms to wait the end of the requests sent to a recycled
+	 * process when the hang detection is disabled.
+	 */
+	private static final long MAX_RECYCLE_WAIT = 60000L;
+
 	private String baseURL;
 
 	private List<IInterceptor> interceptors;
@@ -56,19 +75,55 @@ public class NodejsTernServer extends AbstractTernServer {
 	private NodejsProcess process;
 	private List<INodejsProcessListener> listeners;
 
+	/**
+	 * The multi-project node.js process which hosts the tern server of the
+	 * project and null if the project has its own process.
+	 */
+	private NodejsProcess host;
+
 	private long timeout = NodejsTernHelper.DEFAULT_TIMEOUT;
 
 	private int testNumber = NodejsTernHelper.DEFAULT_TEST_NUMBER;
 
+	private int maxConnections = NodejsTernHelper.DEFAULT_MAX_CONNECTIONS;
+
+	private long connectionIdleTimeout = NodejsTernHelper.DEFAULT_CONNECTION_IDLE_TIMEOUT;
+
+	/**
+	 * Pooled HTTP transport used to send requests to the node.js server.
+	 */
+	private NodejsHttpTransport transport;
+
+	/**
+	 * Transport used to send requests to the replicas of the node.js server.
+	 */
+	private NodejsReplicatedTransport replicatedTransport;
+
 	private final INodejsProcessListener listener = new NodejsProcessAdapter() {
 
 		@Override
 		public void onStart(NodejsProcess server) {
 			NodejsTernServer.this.fireStartServer();
+			if (supervised) {
+				getSupervisor().processStarted(server);
+			}
+		}
+
+		@Override
+		public void onResourceUsage(NodejsProcess server,
+				NodejsProcessUsage usage) {
+			if (supervised && maxMemory > 0 && usage.getRss() > maxMemory) {
+				getSupervisor().recycle(server);
+			}
 		}
 
 		@Override
 		public void onStop(NodejsProcess server) {
+			NodejsSupervisor supervisor = NodejsTernServer.this.supervisor;
+			if (supervisor != null && supervisor.processStopped(server)) {
+				// the process is restarted.
+				return;
+			}
 			dispose();
 			fireEndServer();
 		}
@@ -77,6 +132,41 @@ public class NodejsTernServer extends AbstractTernServer {
 
 	private boolean persistent;
 
+	private boolean streamingResponses = NodejsTernHelper.DEFAULT_STREAMING_RESPONSES;
+
+	private boolean stdio = NodejsTernHelper.DEFAULT_STDIO;
+
+	private int replicas = NodejsTernHelper.DEFAULT_REPLICAS;
+
+	private boolean supervised = NodejsTernHelper.DEFAULT_SUPERVISED;
+
+	private long hangTimeout = NodejsTernHelper.DEFAULT_HANG_TIMEOUT;
+
+	private NodejsSupervisor supervisor;
+
+	/**
+	 * Start time of the requests which wait their response, by request.
+	 */
+	private final Map<Object, Long> activeRequests = Collections
+			.synchronizedMap(new IdentityHashMap<Object, Long>());
+
+	/**
+	 * Send time of the interactive queries which wait their response, by
+	 * request. Only these queries are used to detect a hung process.
+	 */
+	private final Map<Object, Long> hangDetectedRequests = Collections
+			.synchronizedMap(new IdentityHashMap<Object, Long>());
+
+	private long monitoringInterval = NodejsTernHelper.DEFAULT_MONITORING_INTERVAL;
+
+	private long maxMemory = NodejsTernHelper.DEFAULT_MAX_MEMORY;
+
+	/**
+	 * Files uploaded while a new process is started to replace the process
+	 * which uses too much memory, null if there is no such process.
+	 */
+	private List<JsonArray> recycledFiles;
+
 	public NodejsTernServer(File projectDir, int port) {
 		this(TernResourcesManager.getTernProject(projectDir), port);
 	}
@@ -163,19 +253,138 @@ public class NodejsTernServer extends AbstractTernServer {
 
 	private JsonObject makeRequest(TernDoc doc) throws IOException,
 			InterruptedException, TernException {
-		String baseURL = null;
+		return makeRequest(doc, null);
+	}
+
+	private JsonObject makeRequest(TernDoc doc,
+			INodejsResponseReader responseReader) throws IOException,
+			InterruptedException, TernException {
+		// a disposed server has no scheduler, the request is not throttled.
+		TernRequestScheduler scheduler = getRequestScheduler();
+		if (scheduler != null) {
+			scheduler.beginRequest(doc);
+		}
+		Object request = new Object();
 		try {
-			baseURL = getBaseURL();
-		} catch (NodejsProcessException e) {
-			// the nodejs process cannot start => not a valid node path, dispose
-			// the server.
-			dispose();
-			throw e;
+			INodejsTransport transport = null;
+			try {
+				transport = getTransport(doc, request);
+			} catch (NodejsProcessException e) {
+				// the nodejs process cannot start => not a valid node path,
+				// dispose the server.
+				dispose();
+				throw e;
+			}
+			if (Thread.interrupted()) {
+				// the asynchronous request was cancelled while the node.js
+				// process was starting, don't send it.
+				throw new InterruptedException();
+			}
+			// uploads and background requests (ex : lint of the whole
+			// project) can take a long time without hanging.
+			if (scheduler != null
+					&& !doc.updatesFiles()
+					&& scheduler.getPriority(doc) == TernRequestPriority.Interactive) {
+				hangDetectedRequests.put(request, System.currentTimeMillis());
+			}
+
+			if (responseReader == null) {
+				return NodejsTernHelper.makeRequest(transport, doc, false,
+						interceptors, this);
+			}
+			return NodejsTernHelper.makeRequest(transport, doc, false,
+					interceptors, this, responseReader);
+		} finally {
+			activeRequests.remove(request);
+			hangDetectedRequests.remove(request);
+			if (scheduler != null) {
+				scheduler.endRequest();
+			}
 		}
+	}
 
-		JsonObject json = NodejsTernHelper.makeRequest(baseURL, doc, false,
-				interceptors, this);
-		return json;
+	/**
+	 * Returns the start time of the oldest interactive query which waits its
+	 * response and null if there is no such query.
+	 * 
+	 * @return the start time of the oldest interactive query which waits its
+	 *         response.
+	 */
+	Long getOldestRequestTime() {
+		Long oldest = null;
+		synchronized (hangDetectedRequests) {
+			for (Long time : hangDetectedRequests.values()) {
+				if (oldest == null || time < oldest) {
+					oldest = time;
+				}
+			}
+		}
+		return oldest;
+	}
+
+	/**
+	 * Returns the transport used to send requests to the node.js server and
+	 * start the node.js process if needed: the stdin/stdout transport of the
+	 * process when stdio is used or the pooled HTTP transport otherwise. When
+	 * the server has replicas, the returned transport shares the requests
+	 * between the node.js process and its replicas.
+	 * 
+	 * @param doc
+	 *            the tern doc to send.
+	 * @param request
+	 *            the request which sends the doc and which waits its response
+	 *            until it is removed from the active requests.
+	 * @return the transport used to send requests to the node.js server.
+	 */
+	private INodejsTransport getTransport(TernDoc doc, Object request)
+			throws InterruptedException, TernException {
+		String baseURL = getBaseURL();
+		synchronized (this) {
+			activeRequests.put(request, System.currentTimeMillis());
+			if (recycledFiles != null && doc.updatesFiles()) {
+				// the files will be uploaded to the process which replaces
+				// the current process. A part is only used by the query.
+				JsonArray files = new JsonArray();
+				for (JsonValue file : doc.getFiles()) {
+					if (!((TernFile) file).isPart()) {
+						files.add(file);
+					}
+				}
+				recycledFiles.add(files);
+			}
+			if (replicatedTransport != null) {
+				return replicatedTransport;
+			}
+			NodejsProcess process = this.process;
+			INodejsTransport transport = null;
+			if (process != null && process.isStdio()) {
+				transport = process.getStdioTransport();
+			} else {
+				if (this.transport == null) {
+					this.transport = new NodejsHttpTransport(baseURL,
+							maxConnections, connectionIdleTimeout);
+				}
+				transport = this.transport;
+			}
+			if (process == null || replicas <= 1) {
+				return transport;
+			}
+			replicatedTransport = new NodejsReplicatedTransport(transport);
+			try {
+				// the files already uploaded to the process are uploaded to
+				// the replicas before they receive queries.
+				for (int i = 1; i < replicas; i++) {
+					replicatedTransport.addReplica(NodejsProcessManager
+							.getInstance().createReplica(process), timeout,
+							testNumber, maxConnections, connectionIdleTimeout,
+							getFileSynchronizer());
+				}
+			} catch (TernException e) {
+				// the replicas which cannot start are ignored.
+				getProject().handleException(e);
+			}
+			return replicatedTransport;
+		}
 	}
 
 	public void addInterceptor(IInterceptor interceptor) {
@@ -191,10 +400,32 @@ public class NodejsTernServer extends AbstractTernServer {
 		}
 	}
 
+	/**
+	 * Returns true if the response must be streamed to the collector and false
+	 * otherwise. Interceptors need the whole JSON response, so the response is
+	 * not streamed when there are interceptors.
+	 * 
+	 * @return true if the response must be streamed to the collector and false
+	 *         otherwise.
+	 */
+	private boolean isStreamResponse() {
+		return streamingResponses
+				&& (interceptors == null || interceptors.isEmpty());
+	}
+
 	public String getBaseURL() throws InterruptedException, TernException {
 		if (baseURL == null) {
-			int port = getProcess().start(timeout, testNumber);
-			this.baseURL = computeBaseURL(port);
+			NodejsProcess process = getProcess();
+			NodejsProcess host = useHost(process);
+			if (host != null) {
+				int port = host.start(timeout, testNumber);
+				this.baseURL = NodejsTernHelper.getProjectURL(
+						computeBaseURL(port), getProject().getProjectDir());
+			} else {
+				int port = useStandbyProcess(process).start(timeout,
+						testNumber);
+				this.baseURL = computeBaseURL(port);
+			}
 		}
 		return baseURL;
 	}
@@ -210,8 +441,286 @@ public class NodejsTernServer extends AbstractTernServer {
 		return process;
 	}
 
+	/**
+	 * Replace the given process which is not started with a standby process
+	 * of the {@link NodejsProcessManager} which has the same configuration if
+	 * there is one.
+	 * 
+	 * @param process
+	 *            the process of the server.
+	 * @return the process to start.
+	 */
+	private synchronized NodejsProcess useStandbyProcess(NodejsProcess process) {
+		NodejsProcess standby = NodejsProcessManager.getInstance()
+				.takeStandby(process);
+		if (standby == process) {
+			return process;
+		}
+		removeProcessListeners(process);
+		addProcessListeners(standby);
+		this.process = standby;
+		if (standby.getPort() != null) {
+			// the standby process has already started, notify it.
+			notifyStarted(standby);
+		}
+		return standby;
+	}
+
+	/**
+	 * Returns the multi-project process of the {@link NodejsProcessManager}
+	 * which hosts the tern server of the project and null if the project must
+	 * use its own process.
+	 * 
+	 * @param process
+	 *            the process of the server.
+	 * @return the multi-project process which hosts the tern server of the
+	 *         project and null if the project must use its own process.
+	 * @throws TernException
+	 */
+	private synchronized NodejsProcess useHost(NodejsProcess process)
+			throws TernException {
+		if (host == null) {
+			NodejsProcess host = NodejsProcessManager.getInstance()
+					.acquireHost(process);
+			if (host == null) {
+				return null;
+			}
+			addProcessListeners(host);
+			this.host = host;
+			if (host.getPort() != null) {
+				// the host has already started for another project, notify
+				// it.
+				notifyStarted(host);
+			}
+		}
+		return host;
+	}
+
+	private void addProcessListeners(NodejsProcess process) {
+		process.addProcessListener(listener);
+		if (listeners != null) {
+			for (INodejsProcessListener l : listeners) {
+				process.addProcessListener(l);
+			}
+		}
+	}
+
+	private void removeProcessListeners(NodejsProcess process) {
+		process.removeProcessListener(listener);
+		if (listeners != null) {
+			for (INodejsProcessListener l : listeners) {
+				process.removeProcessListener(l);
+			}
+		}
+	}
+
+	private void notifyStarted(NodejsProcess process) {
+		listener.onStart(process);
+		if (listeners != null) {
+			for (INodejsProcessListener l : listeners) {
+				l.onStart(process);
+			}
+		}
+	}
+
+	/**
+	 * Returns the started node.js process of the server and null otherwise.
+	 * 
+	 * @return the started node.js process of the server.
+	 */
+	NodejsProcess getStartedProcess() {
+		NodejsProcess process = host != null ? host : this.process;
+		return process != null && process.isStarted() ? process : null;
+	}
+
+	/**
+	 * Replace the given stopped process with a new process which is not
+	 * started and which has the same configuration.
+	 * 
+	 * @param stopped
+	 *            the stopped process.
+	 * @return true if the process is replaced and false otherwise.
+	 */
+	synchronized boolean replaceProcess(NodejsProcess stopped) {
+		if (isDisposed()) {
+			return false;
+		}
+		if (host != null && host == stopped) {
+			// the host process of the manager is replaced by the next
+			// project which uses it.
+			disposeTransports();
+			removeProcessListeners(stopped);
+			this.host = null;
+			this.baseURL = null;
+			return true;
+		}
+		if (process != stopped) {
+			return false;
+		}
+		NodejsProcess process;
+		try {
+			process = NodejsProcessManager.getInstance().createReplica(
+					stopped);
+		} catch (TernException e) {
+			return false;
+		}
+		disposeTransports();
+		addProcessListeners(process);
+		this.baseURL = null;
+		this.process = process;
+		return true;
+	}
+
+	/**
+	 * Replace the given started process which uses too much memory with a new
+	 * process: the new process is started, the indexed files are uploaded to
+	 * it and the requests are sent to it. The given process is killed when the
+	 * requests sent to it are finished.
+	 * 
+	 * @param old
+	 *            the process to replace.
+	 * @return true if the process is replaced and false otherwise.
+	 * @throws InterruptedException
+	 */
+	boolean recycleProcess(NodejsProcess old) throws InterruptedException {
+		synchronized (this) {
+			if (isDisposed() || process != old || !old.isStarted()
+					|| host != null || replicatedTransport != null
+					|| recycledFiles != null) {
+				// the replicas and the projects of a multi-project process
+				// don't upload their files to the replaced process.
+				return false;
+			}
+			recycledFiles = new ArrayList<JsonArray>();
+		}
+		NodejsProcess replacement = null;
+		INodejsTransport newTransport = null;
+		try {
+			replacement = NodejsProcessManager.getInstance().createReplica(
+					old);
+			if (listeners != null) {
+				for (INodejsProcessListener l : listeners) {
+					replacement.addProcessListener(l);
+				}
+			}
+			int port = replacement.start(timeout, testNumber);
+			String newBaseURL = computeBaseURL(port);
+			if (replacement.isStdio()) {
+				newTransport = replacement.getStdioTransport();
+			} else {
+				newTransport = new NodejsHttpTransport(newBaseURL,
+						maxConnections, connectionIdleTimeout);
+			}
+			ITernFileSynchronizer fileSynchronizer = getFileSynchronizer();
+			if (fileSynchronizer != null) {
+				for (TernDoc doc : fileSynchronizer.createIndexedFilesDocs()) {
+					NodejsTernHelper.makeRequest(newTransport, doc, true,
+							null, this);
+				}
+			}
+			Set<Object> pendingRequests = null;
+			INodejsTransport oldTransport = null;
+			while (pendingRequests == null) {
+				List<JsonArray> uploadedFiles = null;
+				synchronized (this) {
+					if (isDisposed() || process != old) {
+						throw new TernException("node.js process is stopped.");
+					}
+					if (!recycledFiles.isEmpty()) {
+						uploadedFiles = recycledFiles;
+						recycledFiles = new ArrayList<JsonArray>();
+					} else {
+						// the new process is up to date, the requests are
+						// sent to it.
+						recycledFiles = null;
+						removeProcessListeners(old);
+						replacement.addProcessListener(listener);
+						oldTransport = transport;
+						this.transport = replacement.isStdio() ? null
+								: (NodejsHttpTransport) newTransport;
+						this.process = replacement;
+						this.baseURL = newBaseURL;
+						synchronized (activeRequests) {
+							pendingRequests = new HashSet<Object>(
+									activeRequests.keySet());
+						}
+					}
+				}
+				if (uploadedFiles != null) {
+					// the files uploaded to the old process since the start
+					// of the new process, uploaded without blocking the
+					// requests.
+					for (JsonArray files : uploadedFiles) {
+						TernDoc doc = new TernDoc();
+						doc.add("files", files);
+						NodejsTernHelper.makeRequest(newTransport, doc, true,
+								null, this);
+					}
+				}
+			}
+			if (supervised) {
+				getSupervisor().processStarted(replacement);
+			}
+			// wait the end of the requests sent to the old process.
+			long maxTime = System.currentTimeMillis()
+					+ (hangTimeout > 0 ? hangTimeout : MAX_RECYCLE_WAIT);
+			while (System.currentTimeMillis() < maxTime) {
+				synchronized (activeRequests) {
+					pendingRequests.retainAll(activeRequests.keySet());
+				}
+				if (pendingRequests.isEmpty()) {
+					break;
+				}
+				Thread.sleep(50);
+			}
+			if (oldTransport != null) {
+				oldTransport.dispose();
+			}
+			old.kill();
+			return true;
+		} catch (Exception e) {
+			synchronized (this) {
+				recycledFiles = null;
+			}
+			if (newTransport != null && !replacement.isStdio()) {
+				newTransport.dispose();
+			}
+			if (replacement != null) {
+				if (listeners != null) {
+					for (INodejsProcessListener l : listeners) {
+						replacement.removeProcessListener(l);
+					}
+				}
+				replacement.kill();
+			}
+			if (e instanceof InterruptedException) {
+				throw (InterruptedException) e;
+			}
+			// the old process is kept.
+			getProject().handleException(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the supervisor which restarts the node.js process when it
+	 * crashes or hangs.
+	 * 
+	 * @return the supervisor of the node.js process.
+	 */
+	public synchronized NodejsSupervisor getSupervisor() {
+		if (supervisor == null) {
+			supervisor = new NodejsSupervisor(this);
+		}
+		return supervisor;
+	}
+
 	private void initProcess(NodejsProcess process) {
 		process.setPersistent(persistent);
+		if (!process.isStarted()) {
+			process.setStdio(stdio);
+			process.setMonitoringInterval(monitoringInterval);
+		}
 		process.setLoadingLocalPlugins(isLoadingLocalPlugins());
 	}
 
@@ -235,17 +744,23 @@ public class NodejsTernServer extends AbstractTernServer {
 	}
 
 	@Override
-	public void request(TernDoc doc, ITernCompletionCollector collector)
+	public void request(TernDoc doc, final ITernCompletionCollector collector)
 			throws TernException {
 		try {
+			if (isStreamResponse()) {
+				makeRequest(doc, new INodejsResponseReader() {
+					@Override
+					public JsonObject read(Reader reader) throws IOException {
+						readCompletions(new JsonStreamReader(reader), collector);
+						return null;
+					}
+				});
+				return;
+			}
 			JsonObject jsonObject = makeRequest(doc);
 			if (jsonObject != null) {
 				Long startCh = getCh(jsonObject, "start");
 				Long endCh = getCh(jsonObject, "end");
-				int pos = 0;
-				if (startCh != null && endCh != null) {
-					pos = endCh.intValue() - startCh.intValue();
-				}
 				boolean isProperty = StringUtils.asBoolean(
 						getText(jsonObject, IS_PROPERTY_PROPERTY), false);
 				boolean isObjectKey = StringUtils.asBoolean(
@@ -254,18 +769,8 @@ public class NodejsTernServer extends AbstractTernServer {
 						.get("completions");
 				if (completions != null) {
 					for (JsonValue value : completions) {
-						if (value.isString()) {
-							collector.addProposal(value.asString(),
-									value.asString(), null, null, null, null,
-									startCh != null ? startCh.intValue() : 0,
-									endCh != null ? endCh.intValue() : 0,
-									isProperty, isObjectKey, value, this);
-						} else {
-							super.addProposal(value,
-									startCh != null ? startCh.intValue() : 0,
-									endCh != null ? endCh.intValue() : 0,
-									isProperty, isObjectKey, collector);
-						}
+						addCompletion(value, startCh, endCh, isProperty,
+								isObjectKey, collector);
 					}
 				}
 			}
@@ -276,6 +781,74 @@ public class NodejsTernServer extends AbstractTernServer {
 		}
 	}
 
+	/**
+	 * Read the completions response and add each completion to the collector
+	 * as soon as it is read.
+	 */
+	protected void readCompletions(JsonStreamReader reader,
+			ITernCompletionCollector collector) throws IOException {
+		Long startCh = null;
+		Long endCh = null;
+		boolean isProperty = false;
+		boolean isObjectKey = false;
+		// completions read before start/end positions.
+		List<JsonValue> pendingCompletions = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("start".equals(name)) {
+				startCh = getCh(reader.nextValue());
+			} else if ("end".equals(name)) {
+				endCh = getCh(reader.nextValue());
+			} else if (IS_PROPERTY_PROPERTY.equals(name)) {
+				isProperty = StringUtils.asBoolean(
+						getText(reader.nextValue()), false);
+			} else if (IS_OBJECT_KEY_PROPERTY.equals(name)) {
+				isObjectKey = StringUtils.asBoolean(
+						getText(reader.nextValue()), false);
+			} else if ("completions".equals(name)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					JsonValue value = reader.nextValue();
+					if (startCh != null && endCh != null) {
+						addCompletion(value, startCh, endCh, isProperty,
+								isObjectKey, collector);
+					} else {
+						if (pendingCompletions == null) {
+							pendingCompletions = new ArrayList<JsonValue>();
+						}
+						pendingCompletions.add(value);
+					}
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (pendingCompletions != null) {
+			for (JsonValue value : pendingCompletions) {
+				addCompletion(value, startCh, endCh, isProperty, isObjectKey,
+						collector);
+			}
+		}
+	}
+
+	private void addCompletion(JsonValue value, Long startCh, Long endCh,
+			boolean isProperty, boolean isObjectKey,
+			ITernCompletionCollector collector) {
+		int start = startCh != null ? startCh.intValue() : 0;
+		int end = endCh != null ? endCh.intValue() : 0;
+		if (value.isString()) {
+			collector.addProposal(value.asString(), value.asString(), null,
+					null, null, null, start, end, isProperty, isObjectKey,
+					value, this);
+		} else {
+			super.addProposal(value, start, end, isProperty, isObjectKey,
+					collector);
+		}
+	}
+
 	@Override
 	public String getText(Object value) {
 		return JsonHelper.getString((JsonValue) value);
@@ -287,7 +860,10 @@ public class NodejsTernServer extends AbstractTernServer {
 	}
 
 	private Long getCh(JsonObject data, String name) {
-		JsonValue loc = data.get(name);
+		return getCh(data.get(name));
+	}
+
+	private Long getCh(JsonValue loc) {
 		if (loc == null) {
 			return null;
 		}
@@ -339,9 +915,21 @@ public class NodejsTernServer extends AbstractTernServer {
 	}
 
 	@Override
-	public void request(TernDoc doc, ITernLintCollector collector)
+	public void request(TernDoc doc, final ITernLintCollector collector)
 			throws TernException {
 		try {
+			if (isStreamResponse()) {
+				final TernLintQuery query = (TernLintQuery) doc.getQuery();
+				makeRequest(doc, new INodejsResponseReader() {
+					@Override
+					public JsonObject read(Reader reader) throws IOException {
+						readLint(new JsonStreamReader(reader),
+								query.isGroupByFiles(), collector);
+						return null;
+					}
+				});
+				return;
+			}
 			JsonObject jsonObject = makeRequest(doc);
 			if (jsonObject != null) {
 				JsonArray messages = (JsonArray) jsonObject.get("messages");
@@ -374,25 +962,96 @@ public class NodejsTernServer extends AbstractTernServer {
 	}
 
 	protected void addMessages(JsonArray messages, ITernLintCollector collector) {
-		String message = null;
-		String severity = null;
-		String file = null;
-		JsonObject messageObject = null;
 		for (JsonValue value : messages) {
-			messageObject = (JsonObject) value;
-			message = getText(messageObject.get("message"));
-			severity = getText(messageObject.get("severity"));
-			Long startCh = getCh(messageObject, "from");
-			Long endCh = getCh(messageObject, "to");
-			file = getText(messageObject.get("file"));
-			collector.addMessage(message, startCh, endCh, severity, file);
+			addMessage((JsonObject) value, collector);
+		}
+	}
+
+	private void addMessage(JsonObject messageObject,
+			ITernLintCollector collector) {
+		String message = getText(messageObject.get("message"));
+		String severity = getText(messageObject.get("severity"));
+		Long startCh = getCh(messageObject, "from");
+		Long endCh = getCh(messageObject, "to");
+		String file = getText(messageObject.get("file"));
+		collector.addMessage(message, startCh, endCh, severity, file);
+	}
+
+	/**
+	 * Read the lint response and add each message to the collector as soon as
+	 * it is read.
+	 */
+	protected void readLint(JsonStreamReader reader, boolean groupByFiles,
+			ITernLintCollector collector) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("messages".equals(name)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					if (groupByFiles) {
+						readLintFile(reader, collector);
+					} else {
+						addMessage((JsonObject) reader.nextValue(), collector);
+					}
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+	}
+
+	private void readLintFile(JsonStreamReader reader,
+			ITernLintCollector collector) throws IOException {
+		String file = null;
+		boolean started = false;
+		// messages read before the file name.
+		JsonArray pendingMessages = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("file".equals(name)) {
+				file = getText(reader.nextValue());
+			} else if ("messages".equals(name) && file != null) {
+				collector.startLint(file);
+				started = true;
+				reader.beginArray();
+				while (reader.hasNext()) {
+					addMessage((JsonObject) reader.nextValue(), collector);
+				}
+				reader.endArray();
+			} else if ("messages".equals(name)) {
+				pendingMessages = (JsonArray) reader.nextValue();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (!started) {
+			collector.startLint(file);
+			if (pendingMessages != null) {
+				addMessages(pendingMessages, collector);
+			}
 		}
+		collector.endLint(file);
 	}
 
 	@Override
-	public void request(TernDoc doc, ITernGuessTypesCollector collector)
+	public void request(TernDoc doc, final ITernGuessTypesCollector collector)
 			throws TernException {
 		try {
+			if (isStreamResponse()) {
+				makeRequest(doc, new INodejsResponseReader() {
+					@Override
+					public JsonObject read(Reader reader) throws IOException {
+						readGuessTypes(new JsonStreamReader(reader), collector);
+						return null;
+					}
+				});
+				return;
+			}
 			JsonObject jsonObject = makeRequest(doc);
 			if (jsonObject != null) {
 				JsonArray args = (JsonArray) jsonObject.get("args");
@@ -417,8 +1076,145 @@ public class NodejsTernServer extends AbstractTernServer {
 
 	}
 
+	/**
+	 * Read the guess types response and add the names to the collector in the
+	 * order of the arguments, like the buffered response. The names of the
+	 * next argument are added as soon as they are read, the names of the
+	 * following arguments are kept until the names of the previous arguments
+	 * are added.
+	 */
+	protected void readGuessTypes(JsonStreamReader reader,
+			ITernGuessTypesCollector collector) throws IOException {
+		// arg type -> indexes of the arguments which have this type.
+		Map<String, List<Integer>> argIndexes = null;
+		// names read before the "args" member.
+		Map<String, JsonValue> pendingNames = null;
+		// names of each argument, null while they are not read.
+		List<List<String>> argNames = null;
+		int nextIndex = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("args".equals(name)) {
+				argIndexes = new HashMap<String, List<Integer>>();
+				argNames = new ArrayList<List<String>>();
+				for (JsonValue arg : (JsonArray) reader.nextValue()) {
+					String argType = JsonHelper.getString(arg);
+					List<Integer> indexes = argIndexes.get(argType);
+					if (indexes == null) {
+						indexes = new ArrayList<Integer>();
+						argIndexes.put(argType, indexes);
+					}
+					indexes.add(argNames.size());
+					argNames.add(null);
+				}
+				if (pendingNames != null) {
+					for (Map.Entry<String, JsonValue> entry : pendingNames
+							.entrySet()) {
+						List<Integer> indexes = argIndexes.get(entry.getKey());
+						if (indexes != null) {
+							List<String> names = new ArrayList<String>();
+							for (JsonValue argName : (JsonArray) entry
+									.getValue()) {
+								names.add(JsonHelper.getString(argName));
+							}
+							for (Integer index : indexes) {
+								argNames.set(index, names);
+							}
+						}
+					}
+					pendingNames = null;
+					nextIndex = addGuessTypes(argNames, nextIndex, false,
+							collector);
+				}
+			} else if (argIndexes != null) {
+				List<Integer> indexes = argIndexes.get(name);
+				if (indexes == null) {
+					reader.skipValue();
+					continue;
+				}
+				// the names of the next argument are added while they are
+				// read.
+				boolean next = indexes.get(0) == nextIndex;
+				List<String> names = new ArrayList<String>();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					String argName = JsonHelper.getString(reader.nextValue());
+					if (next) {
+						collector.addProposal(nextIndex, argName);
+					}
+					names.add(argName);
+				}
+				reader.endArray();
+				for (Integer index : indexes) {
+					argNames.set(index, names);
+				}
+				if (next) {
+					nextIndex++;
+				}
+				nextIndex = addGuessTypes(argNames, nextIndex, false,
+						collector);
+			} else {
+				if (pendingNames == null) {
+					pendingNames = new HashMap<String, JsonValue>();
+				}
+				pendingNames.put(name, reader.nextValue());
+			}
+		}
+		reader.endObject();
+		if (argNames != null) {
+			// the arguments without names are skipped.
+			addGuessTypes(argNames, nextIndex, true, collector);
+		}
+	}
+
+	/**
+	 * Add to the collector the read names of the arguments from the given
+	 * index, in the order of the arguments, and returns the index of the next
+	 * argument to add.
+	 * 
+	 * @param argNames
+	 *            the names of each argument, null if they are not read.
+	 * @param index
+	 *            the index of the first argument to add.
+	 * @param skipMissing
+	 *            true to skip the arguments without names, false to stop at
+	 *            the first one.
+	 * @param collector
+	 *            the guess types collector.
+	 * @return the index of the next argument to add.
+	 */
+	private static int addGuessTypes(List<List<String>> argNames, int index,
+			boolean skipMissing, ITernGuessTypesCollector collector) {
+		while (index < argNames.size()) {
+			List<String> names = argNames.get(index);
+			if (names == null) {
+				if (!skipMissing) {
+					break;
+				}
+			} else {
+				for (String name : names) {
+					collector.addProposal(index, name);
+				}
+			}
+			index++;
+		}
+		return index;
+	}
+
 	@Override
 	public void doDispose() {
+		synchronized (this) {
+			if (host != null) {
+				releaseHost(host);
+				host = null;
+			}
+			disposeTransports();
+			if (supervisor != null) {
+				supervisor.dispose();
+				supervisor = null;
+			}
+		}
 		if (process != null) {
 			process.kill();
 		}
@@ -426,6 +1222,36 @@ public class NodejsTernServer extends AbstractTernServer {
 		this.process = null;
 	}
 
+	/**
+	 * Release the tern server of the project in the given multi-project
+	 * process.
+	 */
+	private void releaseHost(NodejsProcess host) {
+		removeProcessListeners(host);
+		if (transport != null && host.getPort() != null) {
+			TernDoc doc = new TernDoc();
+			doc.add("close", true);
+			try {
+				NodejsTernHelper.makeRequest(transport, doc, true, null, this);
+			} catch (Throwable e) {
+				// the host is stopped.
+			}
+		}
+		NodejsProcessManager.getInstance().releaseHost(host,
+				getProject().getProjectDir());
+	}
+
+	private synchronized void disposeTransports() {
+		if (replicatedTransport != null) {
+			replicatedTransport.dispose();
+			replicatedTransport = null;
+		}
+		if (transport != null) {
+			transport.dispose();
+			transport = null;
+		}
+	}
+
 	/**
 	 * Set the timeout to use when node.js starts to retrieve the node.js port
 	 * in {@link NodejsProcess#start(long, int)} from the given project.
@@ -452,6 +1278,219 @@ public class NodejsTernServer extends AbstractTernServer {
 		return testNumber;
 	}
 
+	/**
+	 * Set the max number of keep-alive connections to the node.js server.
+	 * 
+	 * @param maxConnections
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Returns the max number of keep-alive connections to the node.js server.
+	 * 
+	 * @return
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Set the time in ms after which an idle connection to the node.js server
+	 * is closed.
+	 * 
+	 * @param connectionIdleTimeout
+	 */
+	public void setConnectionIdleTimeout(long connectionIdleTimeout) {
+		this.connectionIdleTimeout = connectionIdleTimeout;
+	}
+
+	/**
+	 * Returns the time in ms after which an idle connection to the node.js
+	 * server is closed.
+	 * 
+	 * @return
+	 */
+	public long getConnectionIdleTimeout() {
+		return connectionIdleTimeout;
+	}
+
+	/**
+	 * Set true if the node.js response must be decoded while it is read and
+	 * dispatched to the completion, lint and guess types collectors without
+	 * building the whole JSON response and false otherwise.
+	 * 
+	 * @param streamingResponses
+	 */
+	public void setStreamingResponses(boolean streamingResponses) {
+		this.streamingResponses = streamingResponses;
+	}
+
+	/**
+	 * Returns true if the node.js response must be decoded while it is read
+	 * and dispatched to the completion, lint and guess types collectors
+	 * without building the whole JSON response and false otherwise.
+	 * 
+	 * @return
+	 */
+	public boolean isStreamingResponses() {
+		return streamingResponses;
+	}
+
+	/**
+	 * Set true if the requests must be sent to the node.js process over its
+	 * stdin/stdout pipes and false if they must be sent over a localhost HTTP
+	 * server. This property is used when the node.js process starts.
+	 * 
+	 * @param stdio
+	 */
+	public void setStdio(boolean stdio) {
+		this.stdio = stdio;
+		if (process != null && !process.isStarted()) {
+			process.setStdio(stdio);
+		}
+	}
+
+	/**
+	 * Returns true if the requests are sent to the node.js process over its
+	 * stdin/stdout pipes and false if they are sent over a localhost HTTP
+	 * server.
+	 * 
+	 * @return
+	 */
+	public boolean isStdio() {
+		return stdio;
+	}
+
+	/**
+	 * Set the number of node.js processes which serve the requests of the
+	 * project. When it's greater than 1, the files are uploaded to each
+	 * process and the queries are shared between them. This property is used
+	 * when the node.js process starts.
+	 * 
+	 * @param replicas
+	 */
+	public void setReplicas(int replicas) {
+		this.replicas = replicas;
+	}
+
+	/**
+	 * Returns the number of node.js processes which serve the requests of the
+	 * project.
+	 * 
+	 * @return
+	 */
+	public int getReplicas() {
+		return replicas;
+	}
+
+	/**
+	 * Returns the max number of asynchronous requests executed in the same
+	 * time, at least one per replica.
+	 */
+	@Override
+	public int getMaxAsyncRequests() {
+		return Math.max(super.getMaxAsyncRequests(), replicas);
+	}
+
+	/**
+	 * Returns the max number of requests sent in the same time to the node.js
+	 * server, at least one per replica.
+	 */
+	@Override
+	public int getMaxInFlightRequests() {
+		int maxInFlightRequests = super.getMaxInFlightRequests();
+		return maxInFlightRequests > 0 ? Math.max(maxInFlightRequests,
+				replicas) : maxInFlightRequests;
+	}
+
+	/**
+	 * Set the interval in ms between two collects of the resources (memory
+	 * and CPU) used by the node.js process, 0 to not collect them. This
+	 * property is used when the node.js process starts.
+	 * 
+	 * @param monitoringInterval
+	 */
+	public void setMonitoringInterval(long monitoringInterval) {
+		this.monitoringInterval = monitoringInterval;
+	}
+
+	/**
+	 * Returns the interval in ms between two collects of the resources used by
+	 * the node.js process.
+	 * 
+	 * @return
+	 */
+	public long getMonitoringInterval() {
+		return monitoringInterval;
+	}
+
+	/**
+	 * Set the max resident memory in bytes of the node.js process, 0 for no
+	 * limit. A process which uses more memory is replaced with a new process
+	 * to which the indexed files are uploaded before it receives the requests.
+	 * The limit is ignored if the server is not supervised (see
+	 * {@link #setSupervised(boolean)}).
+	 * 
+	 * @param maxMemory
+	 */
+	public void setMaxMemory(long maxMemory) {
+		this.maxMemory = maxMemory;
+	}
+
+	/**
+	 * Returns the max resident memory in bytes of the node.js process, 0 for
+	 * no limit.
+	 * 
+	 * @return
+	 */
+	public long getMaxMemory() {
+		return maxMemory;
+	}
+
+	/**
+	 * Set true if the node.js process must be restarted when it crashes or
+	 * hangs and false if the server must be disposed.
+	 * 
+	 * @param supervised
+	 */
+	public void setSupervised(boolean supervised) {
+		this.supervised = supervised;
+	}
+
+	/**
+	 * Returns true if the node.js process is restarted when it crashes or
+	 * hangs and false if the server is disposed.
+	 * 
+	 * @return
+	 */
+	public boolean isSupervised() {
+		return supervised;
+	}
+
+	/**
+	 * Set the time in ms after which a node.js process which doesn't respond
+	 * to an interactive query is considered as hung and is restarted, 0 (the
+	 * default) to disable the hang detection. Requests which upload files and
+	 * background requests (ex : lint) are not used to detect a hung process.
+	 * 
+	 * @param hangTimeout
+	 */
+	public void setHangTimeout(long hangTimeout) {
+		this.hangTimeout = hangTimeout;
+	}
+
+	/**
+	 * Returns the time in ms after which a node.js process which doesn't
+	 * respond to a request is considered as hung and is restarted.
+	 * 
+	 * @return
+	 */
+	public long getHangTimeout() {
+		return hangTimeout;
+	}
+
 	/**
 	 * Set false if the server will shut itself down after five minutes of
 	 * inactivity and true otherwise.
@@ -0,0 +1,85 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import tern.server.protocol.TernDoc;
+
+/**
+ * HTTP entity which writes the JSON of a {@link TernDoc} directly to the
+ * output stream of the connection with chunked transfer encoding. The tern doc
+ * is not serialized as a String (and then encoded again as bytes) before it is
+ * sent, so the text of the files is never copied.
+ *
+ */
+public class TernDocEntity extends AbstractHttpEntity {
+
+	private static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+	private static final String UTF_8 = "UTF-8";
+	private static final int BUFFER_SIZE = 8192;
+
+	private final TernDoc doc;
+
+	public TernDocEntity(TernDoc doc) {
+		this.doc = doc;
+		setContentType(CONTENT_TYPE);
+		setChunked(true);
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		// the tern doc can be written again if the request must be retried.
+		return true;
+	}
+
+	@Override
+	public long getContentLength() {
+		// unknown, the content is written with chunked transfer encoding.
+		return -1;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		// the connection uses writeTo, the content is serialized only for
+		// the callers which read the entity.
+		ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+		writeTo(out);
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		if (out == null) {
+			throw new IllegalArgumentException("Output stream may not be null");
+		}
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8),
+				BUFFER_SIZE);
+		doc.writeTo(writer);
+		// don't close the writer, the output stream is managed by the
+		// connection.
+		writer.flush();
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs.process;
+
+/**
+ * Policy of the {@link NodejsProcessManager} which decides which tern
+ * projects share a multi-project node.js process (see
+ * {@link NodejsProcess#setMultiProject(boolean)}).
+ *
+ */
+public interface INodejsHostPolicy {
+
+	/**
+	 * Returns the id of the host of the project of the given process and null
+	 * if the project must be served by its own process. The projects which
+	 * have the same host id and the same node.js configuration (node.js, tern
+	 * and options) share a node.js process.
+	 *
+	 * @param process
+	 *            the process of the project which is not started.
+	 * @return the id of the host of the project and null if the project must
+	 *         be served by its own process.
+	 */
+	String getHostId(NodejsProcess process);
+}
@@ -37,6 +37,37 @@ public interface INodejsProcessListener {
 	 */
 	void onStart(NodejsProcess process);
 
+	/**
+	 * Callback called when the given node.js process ends a phase of its
+	 * start.
+	 * 
+	 * @param process
+	 * @param phase
+	 *            the start phase.
+	 * @param name
+	 *            the name of the loaded plugin or JSON type definition for
+	 *            {@link NodejsStartPhase#Plugin} and
+	 *            {@link NodejsStartPhase#Def} phases and null otherwise.
+	 * @param time
+	 *            the time in ms taken to load the plugin or JSON type
+	 *            definition for {@link NodejsStartPhase#Plugin} and
+	 *            {@link NodejsStartPhase#Def} phases and the elapsed time in
+	 *            ms since the start of the process otherwise.
+	 */
+	void onStartPhase(NodejsProcess process, NodejsStartPhase phase,
+			String name, long time);
+
+	/**
+	 * Callback called periodically with the resources used by the given
+	 * started node.js process (see
+	 * {@link NodejsProcess#setMonitoringInterval(long)}).
+	 * 
+	 * @param process
+	 * @param usage
+	 *            the resources used by the process.
+	 */
+	void onResourceUsage(NodejsProcess process, NodejsProcessUsage usage);
+
 	/**
 	 * Callback called when the given node.js process send data.
 	 * 
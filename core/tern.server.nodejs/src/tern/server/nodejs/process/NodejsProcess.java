@@ -12,26 +12,70 @@ package tern.server.nodejs.process;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import tern.TernException;
 import tern.server.nodejs.NodejsTernHelper;
+import tern.utils.IOUtils;
 
 /**
  * node.js process which starts tern server with node.js
  */
 public class NodejsProcess {
 
+	/**
+	 * Name of the node.js script which starts the tern server, reports its
+	 * start phases and serves tern requests over stdin/stdout.
+	 */
+	private static final String LAUNCHER_SCRIPT = "tern-launcher.js";
+
+	/**
+	 * Prefix of the stdout line which reports a start phase.
+	 */
+	private static final String PHASE_PREFIX = "#tern-phase ";
+
+	/**
+	 * Prefix of the stdout line which reports the pid of the process.
+	 */
+	private static final String PID_PREFIX = "#tern-pid ";
+
+	/**
+	 * The node.js launcher script extracted to the file system.
+	 */
+	private static File launcherScriptFile;
+
+	/**
+	 * Executor which collects the resources used by the processes.
+	 */
+	private static ScheduledExecutorService monitoringExecutor;
+
 	/**
 	 * The node.js base dir.
 	 */
 	private final File nodejsBaseDir;
 
+	/**
+	 * The node.js tern base dir.
+	 */
+	private final File nodejsTernBaseDir;
+
 	/**
 	 * The node.js tern file.
 	 */
@@ -75,6 +119,23 @@ public class NodejsProcess {
 	 */
 	private boolean loadingLocalPlugins;
 
+	/**
+	 * true if tern requests are sent over stdin/stdout and false if they are
+	 * sent over HTTP.
+	 */
+	private boolean stdio;
+
+	/**
+	 * true if the process hosts the tern servers of several projects and false
+	 * if it starts the tern server of its project.
+	 */
+	private boolean multiProject;
+
+	/**
+	 * Transport used when tern requests are sent over stdin/stdout.
+	 */
+	private NodejsStdioTransport stdioTransport;
+
 	/**
 	 * node.js process.
 	 */
@@ -96,12 +157,76 @@ public class NodejsProcess {
 	private final List<INodejsProcessListener> listeners;
 
 	/**
-	 * Lock used to wait the start of the server to retrieve port in the getPort
-	 * method.
+	 * Exit value of the node.js process.
+	 */
+	private Integer exitValue;
+
+	/**
+	 * true if the node.js process was killed and false otherwise.
+	 */
+	private volatile boolean killed;
+
+	/**
+	 * Time when the node.js process is started.
+	 */
+	private long startTime;
+
+	/**
+	 * Result of the start of the process.
+	 */
+	private StartFuture startFuture;
+
+	/**
+	 * The pid of the node.js process reported by the launcher script.
+	 */
+	private Integer pid;
+
+	/**
+	 * Interval in ms between two collects of the resources used by the
+	 * process, 0 if they are not collected.
 	 */
-	private final Object lock = new Object();
+	private long monitoringInterval;
+
+	/**
+	 * Periodic collect of the resources used by the process.
+	 */
+	private ScheduledFuture<?> monitoring;
+
+	/**
+	 * Last resources used by the process.
+	 */
+	private volatile NodejsProcessUsage usage;
+
+	/**
+	 * Errors written by the process before the tern server listens.
+	 */
+	private final StringBuilder startErrors;
+
+	/**
+	 * Result of the start of the node.js process: the port of the tern server
+	 * or the error which stops the process before the tern server listens.
+	 */
+	private static class StartFuture extends FutureTask<Integer> {
+
+		private static final Callable<Integer> NONE = new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return null;
+			}
+		};
 
-	private boolean hasError;
+		StartFuture() {
+			super(NONE);
+		}
+
+		void started(Integer port) {
+			set(port);
+		}
+
+		void failed(Throwable e) {
+			setException(e);
+		}
+	}
 
 	/**
 	 * StdOut of the node.js process.
@@ -112,16 +237,32 @@ public class NodejsProcess {
 		public void run() {
 			try {
 
-				long startTime = System.nanoTime();
 				// start the node.js process with tern.
 				Integer port = null;
 				String line = null;
 				InputStream is = process.getInputStream();
-				InputStreamReader isr = new InputStreamReader(is);
-				BufferedReader br = new BufferedReader(isr);
 				try {
+					// node.js writes with UTF-8.
+					InputStreamReader isr = new InputStreamReader(is, "UTF-8");
+					BufferedReader br = new BufferedReader(isr);
 					while ((line = br.readLine()) != null) {
-						if (port == null) {
+						if (stdioTransport != null
+								&& stdioTransport.isResponse(line)) {
+							// response of a tern request sent over stdin.
+							stdioTransport.readResponse(line, br);
+						} else if (port == null && line.startsWith(PID_PREFIX)) {
+							// pid reported by the launcher script.
+							try {
+								pid = Integer.valueOf(line.substring(
+										PID_PREFIX.length()).trim());
+							} catch (NumberFormatException e) {
+								// ignore bad pid
+							}
+						} else if (port == null
+								&& line.startsWith(PHASE_PREFIX)) {
+							// start phase reported by the launcher script.
+							notifyStartPhase(line);
+						} else if (port == null) {
 							// port was not getted, try to get it.
 							if (line.startsWith("Listening on port ")) {
 								port = Integer.parseInt(line.substring(
@@ -132,10 +273,13 @@ public class NodejsProcess {
 								// started.
 								setPort(port);
 
-								synchronized (lock) {
-									lock.notifyAll();
-								}
+								notifyStartPhase(NodejsStartPhase.Listening,
+										null,
+										NodejsTernHelper
+												.getElapsedTimeInMs(startTime));
 								notifyStartProcess(startTime);
+								startFuture.started(port);
+								startMonitoring();
 							}
 						} else {
 							// notify data
@@ -145,9 +289,18 @@ public class NodejsProcess {
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
+				disposeStdioTransport();
+				stopMonitoring();
 
-				if (process != null) {
-					process.waitFor();
+				Process p = process;
+				if (p != null) {
+					int value = p.waitFor();
+					if (!killed) {
+						exitValue = value;
+					}
+				}
+				if (port == null) {
+					failStart("Cannot start node process");
 				}
 				notifyStopProcess();
 				kill();
@@ -204,10 +357,11 @@ public class NodejsProcess {
 	NodejsProcess(File nodejsBaseDir, File nodejsTernBaseDir, File projectDir)
 			throws TernException {
 		this.nodejsBaseDir = nodejsBaseDir;
+		this.nodejsTernBaseDir = nodejsTernBaseDir;
 		this.nodejsTernFile = getNodejsTernFile(nodejsTernBaseDir);
 		this.projectDir = projectDir;
 		this.listeners = new ArrayList<INodejsProcessListener>();
-		this.hasError = false;
+		this.startErrors = new StringBuilder();
 		setNoPortFile(true);
 	}
 
@@ -259,10 +413,27 @@ public class NodejsProcess {
 		} else {
 			commands.add(nodejsBaseDir.getPath());
 		}
+		// the launcher script starts bin/tern, reports the start phases and
+		// serves the tern requests over stdin/stdout with --stdio.
+		try {
+			commands.add(getLauncherScriptFile().getPath());
+		} catch (IOException e) {
+			if (isStdio() || isMultiProject()) {
+				throw new RuntimeException(e);
+			}
+			// start bin/tern without start phases.
+			notifyErrorProcess(e.getMessage());
+		}
 		try {
 			commands.add(nodejsTernFile.getCanonicalPath());
 		} catch (IOException e) {
-			commands.add(nodejsTernFile.getPath());
+			commands.add(nodejsTernFile.getAbsolutePath());
+		}
+		if (isStdio()) {
+			commands.add("--stdio");
+		}
+		if (isMultiProject()) {
+			commands.add("--multi-project");
 		}
 		Integer port = getPort();
 		if (port != null) {
@@ -291,7 +462,7 @@ public class NodejsProcess {
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
-	public void start() throws NodejsProcessException {
+	public synchronized void start() throws NodejsProcessException {
 		if (isStarted()) {
 			notifyErrorProcess("Nodejs tern Server is already started.");
 			throw new NodejsProcessException(
@@ -300,12 +471,27 @@ public class NodejsProcess {
 
 		try {
 			List<String> commands = createCommands();
+			// the port is set when the new tern server listens.
+			setPort(null);
 			ProcessBuilder builder = new ProcessBuilder(commands);
 			// builder.redirectErrorStream(true);
 			builder.directory(getProjectDir());
 			notifyCreateProcess(commands, projectDir);
 
+			synchronized (startErrors) {
+				startErrors.setLength(0);
+			}
+			this.startFuture = new StartFuture();
+			this.exitValue = null;
+			this.killed = false;
+			this.pid = null;
+			this.usage = null;
+			this.startTime = System.nanoTime();
 			this.process = builder.start();
+			if (isStdio()) {
+				this.stdioTransport = new NodejsStdioTransport(
+						process.getOutputStream());
+			}
 
 			outThread = new Thread(new StdOut());
 			outThread.setDaemon(true);
@@ -323,60 +509,71 @@ public class NodejsProcess {
 	}
 
 	/**
-	 * Start the process and returns the port of the started process.
+	 * Start the process if needed and returns the result of the start which
+	 * gives the port of the tern server when it listens or the
+	 * {@link NodejsProcessException} which stops the process before.
 	 * 
-	 * @param timeout
-	 *            to wait until the process start to retrieve the port to
-	 *            return.
-	 * @return
-	 * @throws InterruptedException
-	 * @throws IOException
-	 * @throws TernException
+	 * @return the result of the start of the process.
+	 * @throws NodejsProcessException
 	 */
-	public int start(long timeout, int testNumber)
-			throws NodejsProcessException, InterruptedException {
+	public synchronized Future<Integer> startAsync()
+			throws NodejsProcessException {
 		if (!isStarted()) {
 			start();
 		}
-		waitOnStartNodejs(timeout, testNumber);
-		return getPort();
+		return startFuture;
 	}
 
 	/**
-	 * Wait until node.js process is started.
+	 * Start the process and returns the port of the started process.
 	 * 
 	 * @param timeout
 	 *            to wait until the process start to retrieve the port to
 	 *            return.
 	 * @param testNumber
-	 *            number of test to do to wait until timeout ms.
+	 *            number of timeout to wait, the process must start before
+	 *            timeout * testNumber ms.
+	 * @return
 	 * @throws InterruptedException
-	 *             throw this exception if node.js process cannot be started.
 	 * @throws NodejsProcessException
 	 *             throw this exception if node.js process cannot be started.
 	 */
-	private void waitOnStartNodejs(long timeout, int testNumber)
-			throws InterruptedException, NodejsProcessException {
-		if (port == null) {
-			// node.js process is not started, loop for test number and wait on
-			// timeout.
-			if (!hasError) {
-				for (int i = 0; i < testNumber; i++) {
-					synchronized (lock) {
-						// wait untim timeout.
-						lock.wait(timeout);
-						if (port != null || hasError) {
-							// here node.js is started, stop teh wait.
-							break;
-						}
-					}
-				}
+	public int start(long timeout, int testNumber)
+			throws NodejsProcessException, InterruptedException {
+		Future<Integer> future = startAsync();
+		long maxTime = timeout * testNumber;
+		try {
+			return future.get(maxTime, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof NodejsProcessException) {
+				throw (NodejsProcessException) e.getCause();
 			}
-			if (port == null) {
-				// here node.js cannot be started.
-				throw new NodejsProcessException("Cannot start node process.");
+			throw new NodejsProcessException(e.getCause());
+		} catch (TimeoutException e) {
+			throw new NodejsProcessException(
+					"Cannot start node process: tern server doesn't listen after "
+							+ maxTime + "ms.");
+		}
+	}
+
+	/**
+	 * Fail the start of the process with the given message and the errors
+	 * written by the process.
+	 */
+	private void failStart(String message) {
+		StartFuture future = startFuture;
+		if (future == null || future.isDone()) {
+			return;
+		}
+		StringBuilder error = new StringBuilder(message);
+		synchronized (startErrors) {
+			if (startErrors.length() > 0) {
+				error.append(": ").append(startErrors);
+			} else {
+				error.append(".");
 			}
 		}
+		future.failed(new NodejsProcessException(error.toString()));
 	}
 
 	/**
@@ -392,6 +589,10 @@ public class NodejsProcess {
 	 * Kill the process.
 	 */
 	public void kill() {
+		killed = true;
+		failStart("node.js process is killed");
+		stopMonitoring();
+		disposeStdioTransport();
 		if (process != null) {
 			process.destroy();
 			process = null;
@@ -406,6 +607,97 @@ public class NodejsProcess {
 		}
 	}
 
+	/**
+	 * Extract the node.js launcher script to a temporary file if needed and
+	 * returns it.
+	 * 
+	 * @return the node.js launcher script file.
+	 * @throws IOException
+	 */
+	private static synchronized File getLauncherScriptFile() throws IOException {
+		if (launcherScriptFile == null || !launcherScriptFile.exists()) {
+			File file = File.createTempFile("tern-launcher", ".js");
+			file.deleteOnExit();
+			InputStream in = NodejsProcess.class
+					.getResourceAsStream(LAUNCHER_SCRIPT);
+			if (in == null) {
+				throw new IOException("Cannot find " + LAUNCHER_SCRIPT);
+			}
+			OutputStream out = null;
+			try {
+				out = new FileOutputStream(file);
+				IOUtils.copy(in, out);
+			} finally {
+				IOUtils.closeQuietly(in);
+				IOUtils.closeQuietly(out);
+			}
+			launcherScriptFile = file;
+		}
+		return launcherScriptFile;
+	}
+
+	private void disposeStdioTransport() {
+		NodejsStdioTransport transport = stdioTransport;
+		if (transport != null) {
+			transport.dispose();
+		}
+	}
+
+	/**
+	 * Returns the transport which sends tern requests over stdin/stdout and
+	 * null if the process is not started or doesn't use stdio.
+	 * 
+	 * @return the transport which sends tern requests over stdin/stdout.
+	 */
+	public NodejsStdioTransport getStdioTransport() {
+		return stdioTransport;
+	}
+
+	/**
+	 * Set true if tern requests must be sent over stdin/stdout and false if
+	 * they must be sent over HTTP. This property must be set before the start
+	 * of the process.
+	 * 
+	 * @param stdio
+	 */
+	public void setStdio(boolean stdio) {
+		this.stdio = stdio;
+	}
+
+	/**
+	 * Returns true if tern requests are sent over stdin/stdout and false if
+	 * they are sent over HTTP.
+	 * 
+	 * @return true if tern requests are sent over stdin/stdout and false if
+	 *         they are sent over HTTP.
+	 */
+	public boolean isStdio() {
+		return stdio;
+	}
+
+	/**
+	 * Set true if the process must host the tern servers of several projects
+	 * and false if it must start the tern server of its project. A tern
+	 * request is sent to the tern server of a project with the URL returned by
+	 * {@link NodejsTernHelper#getProjectURL(String, File)}. This property
+	 * must be set before the start of the process.
+	 * 
+	 * @param multiProject
+	 */
+	public void setMultiProject(boolean multiProject) {
+		this.multiProject = multiProject;
+	}
+
+	/**
+	 * Returns true if the process hosts the tern servers of several projects
+	 * and false if it starts the tern server of its project.
+	 * 
+	 * @return true if the process hosts the tern servers of several projects.
+	 */
+	public boolean isMultiProject() {
+		return multiProject;
+	}
+
 	/**
 	 * Return the node.js port and null if not started.
 	 * 
@@ -513,6 +805,128 @@ public class NodejsProcess {
 		return projectDir;
 	}
 
+	/**
+	 * Returns the node.js base dir and null if the installed node.js is used.
+	 * 
+	 * @return
+	 */
+	public File getNodejsBaseDir() {
+		return nodejsBaseDir;
+	}
+
+	/**
+	 * Returns the node.js tern base dir.
+	 * 
+	 * @return
+	 */
+	public File getNodejsTernBaseDir() {
+		return nodejsTernBaseDir;
+	}
+
+	/**
+	 * Returns the exit value of the node.js process when it stops by itself
+	 * and null if it is not stopped or if it was killed.
+	 * 
+	 * @return
+	 */
+	public Integer getExitValue() {
+		return exitValue;
+	}
+
+	/**
+	 * Returns the pid of the node.js process and null if it is not started or
+	 * if it was not reported by the launcher script.
+	 * 
+	 * @return the pid of the node.js process.
+	 */
+	public Integer getPid() {
+		return pid;
+	}
+
+	/**
+	 * Set the interval in ms between two collects of the resources used by
+	 * the process which are notified with
+	 * {@link INodejsProcessListener#onResourceUsage(NodejsProcess, NodejsProcessUsage)}
+	 * , 0 to not collect them. The resources are read from /proc/&lt;pid&gt;,
+	 * so they are collected on Linux only. This property must be set before
+	 * the start of the process.
+	 * 
+	 * @param monitoringInterval
+	 */
+	public void setMonitoringInterval(long monitoringInterval) {
+		this.monitoringInterval = monitoringInterval;
+	}
+
+	/**
+	 * Returns the interval in ms between two collects of the resources used by
+	 * the process, 0 if they are not collected.
+	 * 
+	 * @return
+	 */
+	public long getMonitoringInterval() {
+		return monitoringInterval;
+	}
+
+	/**
+	 * Returns the last resources used by the process which were collected and
+	 * null if there is no collect.
+	 * 
+	 * @return the last resources used by the process.
+	 */
+	public NodejsProcessUsage getResourceUsage() {
+		return usage;
+	}
+
+	/**
+	 * Start the periodic collect of the resources used by the started process.
+	 */
+	private synchronized void startMonitoring() {
+		final Integer pid = this.pid;
+		if (pid == null || monitoringInterval <= 0 || monitoring != null) {
+			return;
+		}
+		monitoring = getMonitoringExecutor().scheduleWithFixedDelay(
+				new Runnable() {
+					@Override
+					public void run() {
+						NodejsProcessUsage usage = NodejsProcessUsage.read(
+								pid, NodejsProcess.this.usage);
+						if (usage == null) {
+							// the process is stopped or /proc is not
+							// available.
+							stopMonitoring();
+							return;
+						}
+						NodejsProcess.this.usage = usage;
+						notifyResourceUsage(usage);
+					}
+				}, monitoringInterval, monitoringInterval,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void stopMonitoring() {
+		if (monitoring != null) {
+			monitoring.cancel(false);
+			monitoring = null;
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getMonitoringExecutor() {
+		if (monitoringExecutor == null) {
+			monitoringExecutor = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r,
+									"Tern process monitoring");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return monitoringExecutor;
+	}
+
 	/**
 	 * Returns the elapsed time to start node.js process.
 	 * 
@@ -581,6 +995,51 @@ public class NodejsProcess {
 		}
 	}
 
+	/**
+	 * Notify the start phase reported by the given stdout line
+	 * "#tern-phase phase [time name]".
+	 */
+	private void notifyStartPhase(String line) {
+		String[] fields = line.substring(PHASE_PREFIX.length()).split(" ", 3);
+		NodejsStartPhase phase = NodejsStartPhase.get(fields[0]);
+		if (phase == null) {
+			return;
+		}
+		if (fields.length == 3) {
+			try {
+				notifyStartPhase(phase, fields[2], Long.parseLong(fields[1]));
+			} catch (NumberFormatException e) {
+				// ignore bad time
+			}
+		} else {
+			notifyStartPhase(phase, null,
+					NodejsTernHelper.getElapsedTimeInMs(startTime));
+		}
+	}
+
+	/**
+	 * Notify start phase.
+	 */
+	private void notifyStartPhase(NodejsStartPhase phase, String name,
+			long time) {
+		synchronized (listeners) {
+			for (INodejsProcessListener listener : listeners) {
+				listener.onStartPhase(this, phase, name, time);
+			}
+		}
+	}
+
+	/**
+	 * Notify resource usage.
+	 */
+	private void notifyResourceUsage(NodejsProcessUsage usage) {
+		synchronized (listeners) {
+			for (INodejsProcessListener listener : listeners) {
+				listener.onResourceUsage(this, usage);
+			}
+		}
+	}
+
 	/**
 	 * Notify stop process.
 	 */
@@ -608,8 +1067,15 @@ public class NodejsProcess {
 	/**
 	 * Notify error process.
 	 */
-	private void notifyErrorProcess(String line) {
-		this.hasError = true;
+	void notifyErrorProcess(String line) {
+		if (port == null) {
+			synchronized (startErrors) {
+				if (startErrors.length() > 0) {
+					startErrors.append('\n');
+				}
+				startErrors.append(line);
+			}
+		}
 		synchronized (listeners) {
 			for (INodejsProcessListener listener : listeners) {
 				listener.onError(NodejsProcess.this, line);
@@ -32,6 +32,16 @@ public class NodejsProcessAdapter implements INodejsProcessListener {
 	public void onStart(NodejsProcess process) {
 	}
 
+	@Override
+	public void onStartPhase(NodejsProcess process, NodejsStartPhase phase,
+			String name, long time) {
+	}
+
+	@Override
+	public void onResourceUsage(NodejsProcess process,
+			NodejsProcessUsage usage) {
+	}
+
 	@Override
 	public void onData(NodejsProcess process, String line) {
 	}
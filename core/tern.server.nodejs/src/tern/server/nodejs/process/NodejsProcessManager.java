@@ -11,10 +11,23 @@
 package tern.server.nodejs.process;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
 
+import tern.ITernProject;
 import tern.TernException;
+import tern.utils.IOUtils;
 
 /**
  * {@link NodejsProcess} manager.
@@ -24,6 +37,11 @@ public class NodejsProcessManager {
 
 	private final static NodejsProcessManager INSTANCE = new NodejsProcessManager();
 
+	/**
+	 * Default number of standby processes by configuration (none).
+	 */
+	public static final int DEFAULT_STANDBY_PROCESSES = 0;
+
 	/**
 	 * Returns the manager singleton.
 	 * 
@@ -43,6 +61,48 @@ public class NodejsProcessManager {
 	 */
 	private File nodejsTernBaseDir;
 
+	/**
+	 * Started node.js processes which wait to be used by a tern server, by
+	 * configuration key (see {@link #getStandbyKey(NodejsProcess)}). The key
+	 * contains a checksum of the .tern-project file: the standby processes
+	 * which have loaded an older .tern-project are killed when they are found.
+	 */
+	private final Map<String, List<NodejsProcess>> standbyProcesses;
+
+	private int standbyCount = DEFAULT_STANDBY_PROCESSES;
+
+	/**
+	 * Executor used to start the standby processes in background.
+	 */
+	private ExecutorService standbyExecutor;
+
+	/**
+	 * Policy which decides which projects share a multi-project node.js
+	 * process and null if each project has its own process.
+	 */
+	private INodejsHostPolicy hostPolicy;
+
+	/**
+	 * Multi-project node.js processes, by host key (see
+	 * {@link #getHostKey(String, NodejsProcess)}).
+	 */
+	private final Map<String, Host> hosts;
+
+	/**
+	 * Multi-project node.js process and the projects which use it.
+	 */
+	private static class Host {
+
+		private final NodejsProcess process;
+
+		private final Set<File> projectDirs;
+
+		Host(NodejsProcess process) {
+			this.process = process;
+			this.projectDirs = new HashSet<File>();
+		}
+	}
+
 	/**
 	 * Listener added for each process created.
 	 */
@@ -54,6 +114,11 @@ public class NodejsProcessManager {
 				// here the process is started, add it to the list of processes.
 				NodejsProcessManager.this.processes.add(server);
 			}
+			if (!server.isMultiProject()) {
+				// a server uses this process, start the standby processes
+				// which will replace it.
+				fillStandby(server);
+			}
 		}
 
 		@Override
@@ -63,12 +128,37 @@ public class NodejsProcessManager {
 				// processes.
 				NodejsProcessManager.this.processes.remove(server);
 			}
+			boolean standby = false;
+			synchronized (standbyProcesses) {
+				for (List<NodejsProcess> processes : standbyProcesses
+						.values()) {
+					if (processes.remove(server)) {
+						standby = true;
+					}
+				}
+			}
+			if (standby) {
+				// a standby process which is not persistent stops after the
+				// idle timeout of tern: start another one.
+				fillStandby(server);
+			}
+			synchronized (hosts) {
+				Iterator<Host> it = hosts.values().iterator();
+				while (it.hasNext()) {
+					if (it.next().process == server) {
+						// the next project creates a new host.
+						it.remove();
+					}
+				}
+			}
 		}
 
 	};
 
 	public NodejsProcessManager() {
 		this.processes = new ArrayList<NodejsProcess>();
+		this.standbyProcesses = new HashMap<String, List<NodejsProcess>>();
+		this.hosts = new HashMap<String, Host>();
 	}
 
 	/**
@@ -119,12 +209,362 @@ public class NodejsProcessManager {
 	 */
 	public NodejsProcess create(File projectDir, File nodejsBaseDir,
 			File nodejsTernBaseDir) throws TernException {
-		NodejsProcess process = new NodejsProcess(nodejsBaseDir,
-				nodejsTernBaseDir, projectDir);
+		NodejsProcess process = newProcess(nodejsBaseDir, nodejsTernBaseDir,
+				projectDir);
 		process.addProcessListener(listener);
 		return process;
 	}
 
+	/**
+	 * Returns a new process which is not started.
+	 */
+	NodejsProcess newProcess(File nodejsBaseDir, File nodejsTernBaseDir,
+			File projectDir) throws TernException {
+		return new NodejsProcess(nodejsBaseDir, nodejsTernBaseDir, projectDir);
+	}
+
+	/**
+	 * Create a replica of the given process: a process which starts the same
+	 * node.js tern server with the same options for the same project.
+	 * 
+	 * @param process
+	 *            the process to replicate.
+	 * @return an instance of the node tern process.
+	 * @throws TernException
+	 */
+	public NodejsProcess createReplica(NodejsProcess process)
+			throws TernException {
+		NodejsProcess replica = create(process.getProjectDir(),
+				process.getNodejsBaseDir(), process.getNodejsTernBaseDir());
+		replica.setVerbose(process.isVerbose());
+		replica.setNoPortFile(process.isNoPortFile());
+		replica.setPersistent(process.isPersistent());
+		replica.setLoadingLocalPlugins(process.isLoadingLocalPlugins());
+		replica.setStdio(process.isStdio());
+		replica.setMonitoringInterval(process.getMonitoringInterval());
+		return replica;
+	}
+
+	/**
+	 * Returns a started process which has the same configuration as the given
+	 * process (node.js, tern, project dir and options) to use instead of it
+	 * and the given process if there is no such standby process. Another
+	 * standby process is started in background to replace the returned
+	 * process.
+	 * 
+	 * @param process
+	 *            the process which is not started.
+	 * @return a started standby process or the given process.
+	 */
+	public NodejsProcess takeStandby(NodejsProcess process) {
+		if (process.isStarted()) {
+			return process;
+		}
+		NodejsProcess standby = null;
+		String key = getStandbyKey(process);
+		List<NodejsProcess> staleProcesses;
+		synchronized (standbyProcesses) {
+			staleProcesses = removeStaleStandby(key);
+			List<NodejsProcess> processes = standbyProcesses.get(key);
+			while (processes != null && !processes.isEmpty()) {
+				NodejsProcess p = processes.remove(0);
+				if (p.isStarted()) {
+					standby = p;
+					break;
+				}
+			}
+		}
+		for (NodejsProcess stale : staleProcesses) {
+			stale.kill();
+		}
+		if (standby == null) {
+			return process;
+		}
+		fillStandby(standby);
+		return standby;
+	}
+
+	/**
+	 * Start in background the standby processes for the configuration of the
+	 * given process, for instance when a project is opened, before the first
+	 * tern request.
+	 * 
+	 * @param process
+	 *            the process which gives the configuration of the standby
+	 *            processes.
+	 */
+	public void prestart(NodejsProcess process) {
+		fillStandby(process);
+	}
+
+	/**
+	 * Start in background the missing standby processes for the configuration
+	 * of the given process.
+	 */
+	private void fillStandby(final NodejsProcess process) {
+		ExecutorService executor;
+		synchronized (standbyProcesses) {
+			if (standbyCount <= 0) {
+				return;
+			}
+			if (standbyExecutor == null) {
+				standbyExecutor = Executors
+						.newSingleThreadExecutor(new ThreadFactory() {
+							@Override
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r,
+										"Tern standby process");
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+			}
+			executor = standbyExecutor;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				String key = getStandbyKey(process);
+				List<NodejsProcess> staleProcesses;
+				synchronized (standbyProcesses) {
+					staleProcesses = removeStaleStandby(key);
+					List<NodejsProcess> processes = standbyProcesses.get(key);
+					if (processes == null) {
+						processes = new ArrayList<NodejsProcess>();
+						standbyProcesses.put(key, processes);
+					}
+					try {
+						while (processes.size() < standbyCount) {
+							NodejsProcess standby = createReplica(process);
+							standby.start();
+							processes.add(standby);
+						}
+					} catch (TernException e) {
+						// report the error to the listeners of the process
+						// which gives the configuration.
+						process.notifyErrorProcess("Cannot start standby "
+								+ "node.js process: " + e.getMessage());
+					}
+				}
+				for (NodejsProcess stale : staleProcesses) {
+					stale.kill();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Remove the standby processes which have the configuration of the given
+	 * key but an older .tern-project, and returns them to be killed.
+	 */
+	private List<NodejsProcess> removeStaleStandby(String key) {
+		String prefix = key.substring(0, key.lastIndexOf('|') + 1);
+		List<NodejsProcess> staleProcesses = new ArrayList<NodejsProcess>();
+		Iterator<Map.Entry<String, List<NodejsProcess>>> it = standbyProcesses
+				.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, List<NodejsProcess>> entry = it.next();
+			if (entry.getKey().startsWith(prefix)
+					&& !entry.getKey().equals(key)) {
+				staleProcesses.addAll(entry.getValue());
+				it.remove();
+			}
+		}
+		return staleProcesses;
+	}
+
+	/**
+	 * Returns the key of the configuration of the given process: a standby
+	 * process can replace a process which has the same key. The key ends with
+	 * the checksum of the .tern-project file, because a node.js process loads
+	 * the plugins and the JSON defs of the project when it starts.
+	 */
+	private static String getStandbyKey(NodejsProcess process) {
+		return new StringBuilder().append(process.getProjectDir())
+				.append('|').append(getConfigKey(process)).append('|')
+				.append(getProjectChecksum(process.getProjectDir()))
+				.toString();
+	}
+
+	/**
+	 * Returns the checksum of the .tern-project file of the given project
+	 * dir, 0 if it doesn't exist or cannot be read.
+	 */
+	private static long getProjectChecksum(File projectDir) {
+		File file = new File(projectDir, ITernProject.TERN_PROJECT_FILE);
+		if (!file.isFile()) {
+			return 0;
+		}
+		FileInputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			CRC32 checksum = new CRC32();
+			checksum.update(IOUtils.toByteArray(input));
+			return checksum.getValue();
+		} catch (IOException e) {
+			return 0;
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	/**
+	 * Returns the key of the host of the given process: the projects which
+	 * have the same key share a multi-project process.
+	 */
+	private static String getHostKey(String hostId, NodejsProcess process) {
+		return new StringBuilder(hostId).append('|')
+				.append(getConfigKey(process)).toString();
+	}
+
+	/**
+	 * Returns the key of the node.js configuration of the given process
+	 * (node.js, tern and options) without its project.
+	 */
+	private static String getConfigKey(NodejsProcess process) {
+		return new StringBuilder().append(process.getNodejsBaseDir())
+				.append('|').append(process.getNodejsTernBaseDir())
+				.append('|').append(process.isStdio()).append('|')
+				.append(process.isPersistent()).append('|')
+				.append(process.isLoadingLocalPlugins()).append('|')
+				.append(process.isVerbose()).append('|')
+				.append(process.isNoPortFile()).append('|')
+				.append(process.getMonitoringInterval()).toString();
+	}
+
+	/**
+	 * Returns the multi-project process which hosts the tern server of the
+	 * project of the given process and null if the host policy gives to the
+	 * project its own process. The host is created if needed and it is not
+	 * started. The project must release its host with
+	 * {@link #releaseHost(NodejsProcess, File)} when it doesn't use it.
+	 * 
+	 * @param process
+	 *            the process of the project which is not started.
+	 * @return the multi-project process which hosts the tern server of the
+	 *         project and null if the project must use its own process.
+	 * @throws TernException
+	 */
+	public NodejsProcess acquireHost(NodejsProcess process)
+			throws TernException {
+		INodejsHostPolicy policy = hostPolicy;
+		if (policy == null || process.isStarted() || process.isStdio()) {
+			// the stdin/stdout of a process can not be shared between
+			// projects.
+			return null;
+		}
+		String hostId = policy.getHostId(process);
+		if (hostId == null) {
+			return null;
+		}
+		String key = getHostKey(hostId, process);
+		synchronized (hosts) {
+			Host host = hosts.get(key);
+			if (host == null) {
+				// the host is not started in a project dir.
+				NodejsProcess hostProcess = create(
+						new File(System.getProperty("java.io.tmpdir")),
+						process.getNodejsBaseDir(),
+						process.getNodejsTernBaseDir());
+				hostProcess.setVerbose(process.isVerbose());
+				hostProcess.setNoPortFile(process.isNoPortFile());
+				hostProcess.setPersistent(process.isPersistent());
+				hostProcess
+						.setLoadingLocalPlugins(process.isLoadingLocalPlugins());
+				hostProcess.setMonitoringInterval(process
+						.getMonitoringInterval());
+				hostProcess.setMultiProject(true);
+				host = new Host(hostProcess);
+				hosts.put(key, host);
+			}
+			host.projectDirs.add(process.getProjectDir());
+			return host.process;
+		}
+	}
+
+	/**
+	 * Release the given multi-project process for the given project. The
+	 * process is killed when it hosts no more projects.
+	 * 
+	 * @param host
+	 *            the multi-project process returned by
+	 *            {@link #acquireHost(NodejsProcess)}.
+	 * @param projectDir
+	 *            the project base dir.
+	 */
+	public void releaseHost(NodejsProcess host, File projectDir) {
+		synchronized (hosts) {
+			Iterator<Host> it = hosts.values().iterator();
+			while (it.hasNext()) {
+				Host h = it.next();
+				if (h.process == host) {
+					h.projectDirs.remove(projectDir);
+					if (!h.projectDirs.isEmpty()) {
+						return;
+					}
+					it.remove();
+				}
+			}
+		}
+		host.kill();
+	}
+
+	/**
+	 * Set the policy which decides which projects share a multi-project
+	 * node.js process, null if each project must have its own process. A
+	 * multi-project process loads tern and the plugins and reads the JSON defs
+	 * once for all its projects. The policy is used when the process of a project
+	 * starts.
+	 * 
+	 * @param hostPolicy
+	 */
+	public void setHostPolicy(INodejsHostPolicy hostPolicy) {
+		this.hostPolicy = hostPolicy;
+	}
+
+	/**
+	 * Returns the policy which decides which projects share a multi-project
+	 * node.js process and null if each project has its own process.
+	 * 
+	 * @return
+	 */
+	public INodejsHostPolicy getHostPolicy() {
+		return hostPolicy;
+	}
+
+	/**
+	 * Set the number of started node.js processes which wait to be used by a
+	 * tern server, by configuration. Standby processes make the start and the
+	 * restart of a tern server instant, but each of them is a node.js process
+	 * which has loaded tern and the plugins of the project.
+	 * 
+	 * @param standbyCount
+	 */
+	public void setStandbyCount(int standbyCount) {
+		List<NodejsProcess> killed = new ArrayList<NodejsProcess>();
+		synchronized (standbyProcesses) {
+			this.standbyCount = standbyCount;
+			for (List<NodejsProcess> processes : standbyProcesses.values()) {
+				while (processes.size() > Math.max(standbyCount, 0)) {
+					killed.add(processes.remove(processes.size() - 1));
+				}
+			}
+		}
+		for (NodejsProcess process : killed) {
+			process.kill();
+		}
+	}
+
+	/**
+	 * Returns the number of started node.js processes which wait to be used
+	 * by a tern server, by configuration.
+	 * 
+	 * @return
+	 */
+	public int getStandbyCount() {
+		return standbyCount;
+	}
+
 	/**
 	 * Initialize the manager with the base dir where the tern node.js server is
 	 * hosted.
@@ -148,6 +588,26 @@ public class NodejsProcessManager {
 	 * Kill all node.js processes created by the manager.
 	 */
 	public void dispose() {
+		List<NodejsProcess> standbyToKill = new ArrayList<NodejsProcess>();
+		synchronized (standbyProcesses) {
+			// the standby processes are removed before they are killed to not
+			// be replaced when they stop.
+			for (List<NodejsProcess> standby : standbyProcesses.values()) {
+				standbyToKill.addAll(standby);
+			}
+			standbyProcesses.clear();
+			if (standbyExecutor != null) {
+				standbyExecutor.shutdownNow();
+				standbyExecutor = null;
+			}
+		}
+		for (NodejsProcess process : standbyToKill) {
+			process.kill();
+		}
+		synchronized (hosts) {
+			// the started hosts are killed with the processes.
+			hosts.clear();
+		}
 		synchronized (processes) {
 			for (NodejsProcess server : processes) {
 				try {
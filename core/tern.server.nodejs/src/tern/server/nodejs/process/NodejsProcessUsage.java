@@ -0,0 +1,173 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs.process;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import tern.utils.IOUtils;
+
+/**
+ * Resources used by a node.js process: its resident memory (RSS) and its CPU
+ * time, read from /proc/&lt;pid&gt; on Linux.
+ *
+ */
+public class NodejsProcessUsage {
+
+	/**
+	 * Clock ticks per second of the CPU times of /proc/&lt;pid&gt;/stat
+	 * (USER_HZ), which is 100 on Linux.
+	 */
+	private static final long CLOCK_TICKS = 100L;
+
+	private static final String VM_RSS = "VmRSS:";
+
+	private final long rss;
+
+	private final long cpuTime;
+
+	private final int cpuLoad;
+
+	private final long time;
+
+	NodejsProcessUsage(long rss, long cpuTime, int cpuLoad, long time) {
+		this.rss = rss;
+		this.cpuTime = cpuTime;
+		this.cpuLoad = cpuLoad;
+		this.time = time;
+	}
+
+	/**
+	 * Returns the resident memory of the process in bytes.
+	 *
+	 * @return the resident memory of the process in bytes.
+	 */
+	public long getRss() {
+		return rss;
+	}
+
+	/**
+	 * Returns the CPU time (user and system) used by the process since its
+	 * start in ms.
+	 *
+	 * @return the CPU time used by the process in ms.
+	 */
+	public long getCpuTime() {
+		return cpuTime;
+	}
+
+	/**
+	 * Returns the percent of one CPU used by the process since the previous
+	 * usage and -1 if there is no previous usage.
+	 *
+	 * @return the percent of one CPU used by the process since the previous
+	 *         usage.
+	 */
+	public int getCpuLoad() {
+		return cpuLoad;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder("rss=")
+				.append(rss / (1024 * 1024)).append("MB, cpu=")
+				.append(cpuTime).append("ms");
+		if (cpuLoad >= 0) {
+			s.append(", load=").append(cpuLoad).append("%");
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Returns the resources used by the process of the given pid and null if
+	 * they cannot be read (the process is stopped or the OS is not Linux).
+	 *
+	 * @param pid
+	 *            the pid of the process.
+	 * @param previous
+	 *            the previous usage of the process to compute the CPU load or
+	 *            null.
+	 * @return the resources used by the process or null.
+	 */
+	public static NodejsProcessUsage read(int pid, NodejsProcessUsage previous) {
+		File dir = new File("/proc", String.valueOf(pid));
+		try {
+			long rss = readRss(new File(dir, "status"));
+			long cpuTime = readCpuTime(new File(dir, "stat"));
+			if (rss < 0 || cpuTime < 0) {
+				return null;
+			}
+			long time = System.nanoTime();
+			int cpuLoad = -1;
+			if (previous != null && time > previous.time) {
+				cpuLoad = (int) ((cpuTime - previous.cpuTime) * 100L * 1000000L
+						/ (time - previous.time));
+			}
+			return new NodejsProcessUsage(rss, cpuTime, cpuLoad, time);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the RSS in bytes from the "VmRSS: 1234 kB" line of
+	 * /proc/&lt;pid&gt;/status.
+	 */
+	private static long readRss(File status) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(status));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(VM_RSS)) {
+					String value = line.substring(VM_RSS.length()).trim();
+					int index = value.indexOf(' ');
+					if (index != -1) {
+						value = value.substring(0, index);
+					}
+					return Long.parseLong(value) * 1024L;
+				}
+			}
+			return -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Returns the CPU time in ms from the utime and stime fields (14th and
+	 * 15th) of /proc/&lt;pid&gt;/stat.
+	 */
+	private static long readCpuTime(File stat) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(stat));
+		try {
+			String line = reader.readLine();
+			if (line == null) {
+				return -1;
+			}
+			// the name of the command (2nd field) is in parentheses and can
+			// contain spaces.
+			String[] fields = line.substring(line.lastIndexOf(')') + 2).split(
+					" ");
+			// fields starts with the 3rd field.
+			long ticks = Long.parseLong(fields[11])
+					+ Long.parseLong(fields[12]);
+			return ticks * 1000L / CLOCK_TICKS;
+		} catch (RuntimeException e) {
+			return -1;
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs.process;
+
+/**
+ * Phase of the start of the node.js tern server.
+ *
+ * @see INodejsProcessListener#onStartPhase(NodejsProcess, NodejsStartPhase,
+ *      String, long)
+ */
+public enum NodejsStartPhase {
+
+	/**
+	 * node.js is started and runs the tern launcher script.
+	 */
+	Spawn,
+
+	/**
+	 * The tern library is loaded.
+	 */
+	TernLoaded,
+
+	/**
+	 * A tern plugin is loaded.
+	 */
+	Plugin,
+
+	/**
+	 * The tern plugins of the project are loaded.
+	 */
+	PluginsLoaded,
+
+	/**
+	 * A JSON type definition is loaded.
+	 */
+	Def,
+
+	/**
+	 * The JSON type definitions of the project are loaded.
+	 */
+	DefsLoaded,
+
+	/**
+	 * The tern server is ready to receive requests.
+	 */
+	Listening;
+
+	public static NodejsStartPhase get(String value) {
+		for (NodejsStartPhase phase : values()) {
+			if (phase.name().equalsIgnoreCase(value)) {
+				return phase;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,208 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs.process;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import tern.TernException;
+import tern.server.nodejs.INodejsResponseReader;
+import tern.server.nodejs.INodejsTransport;
+import tern.server.nodejs.NodejsTernHelper;
+import tern.server.protocol.TernDoc;
+import tern.utils.IOUtils;
+import tern.utils.StringUtils;
+
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Transport which sends tern requests to the node.js process over its
+ * stdin/stdout pipes instead of HTTP. Requests and responses are framed with
+ * a request id (see tern-stdio.js), so several requests can be sent without
+ * waiting the previous responses.
+ *
+ */
+public class NodejsStdioTransport implements INodejsTransport {
+
+	/**
+	 * Prefix of the stdout line which starts a response.
+	 */
+	static final String RESPONSE_PREFIX = "#tern-response ";
+
+	private static final int SC_OK = 200;
+
+	private final Writer writer;
+
+	/**
+	 * Requests which wait their response, by id.
+	 */
+	private final Map<Long, StdioResponse> pendingResponses;
+
+	private long nextId;
+
+	private boolean disposed;
+
+	/**
+	 * Response of a request.
+	 */
+	private static class StdioResponse {
+
+		private boolean done;
+		private int status;
+		private String body;
+		private IOException error;
+
+		synchronized void complete(int status, String body, IOException error) {
+			this.status = status;
+			this.body = body;
+			this.error = error;
+			this.done = true;
+			notifyAll();
+		}
+
+		synchronized void await() throws InterruptedException {
+			while (!done) {
+				wait();
+			}
+		}
+	}
+
+	/**
+	 * Stdio transport constructor.
+	 *
+	 * @param stdin
+	 *            stdin of the node.js process.
+	 * @throws IOException
+	 */
+	NodejsStdioTransport(OutputStream stdin) throws IOException {
+		this.writer = new BufferedWriter(new OutputStreamWriter(stdin,
+				"UTF-8"));
+		this.pendingResponses = new HashMap<Long, StdioResponse>();
+	}
+
+	@Override
+	public JsonObject send(TernDoc doc, INodejsResponseReader responseReader)
+			throws IOException, TernException {
+		StdioResponse response = new StdioResponse();
+		Long id;
+		synchronized (pendingResponses) {
+			if (disposed) {
+				throw new IOException("node.js process is stopped.");
+			}
+			id = nextId++;
+			pendingResponses.put(id, response);
+		}
+		try {
+			synchronized (writer) {
+				// minimal-json escapes new lines, the doc is written in one
+				// line.
+				writer.write(id.toString());
+				writer.write(' ');
+				doc.writeTo(writer);
+				writer.write('\n');
+				writer.flush();
+			}
+			response.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			synchronized (pendingResponses) {
+				pendingResponses.remove(id);
+			}
+		}
+		if (response.error != null) {
+			throw response.error;
+		}
+		if (response.status != SC_OK) {
+			// node.js server throws error
+			if (StringUtils.isEmpty(response.body)) {
+				throw new TernException("Status " + response.status);
+			}
+			throw new TernException(response.body);
+		}
+		return NodejsTernHelper.read(new StringReader(response.body),
+				responseReader);
+	}
+
+	/**
+	 * Returns true if the given stdout line starts a response and false
+	 * otherwise.
+	 *
+	 * @param line
+	 *            the stdout line.
+	 * @return true if the given stdout line starts a response and false
+	 *         otherwise.
+	 */
+	boolean isResponse(String line) {
+		return line.startsWith(RESPONSE_PREFIX);
+	}
+
+	/**
+	 * Read the body of the response started with the given header line and
+	 * notify the request which waits it.
+	 *
+	 * @param header
+	 *            the header line "#tern-response id status length".
+	 * @param reader
+	 *            the stdout reader.
+	 * @throws IOException
+	 */
+	void readResponse(String header, BufferedReader reader)
+			throws IOException {
+		String[] fields = header.substring(RESPONSE_PREFIX.length()).split(
+				" ");
+		if (fields.length != 3) {
+			throw new IOException("Bad tern response header: " + header);
+		}
+		Long id;
+		int status;
+		char[] body;
+		try {
+			id = Long.valueOf(fields[0]);
+			status = Integer.parseInt(fields[1]);
+			body = new char[Integer.parseInt(fields[2])];
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad tern response header: " + header);
+		}
+		IOUtils.readFully(reader, body);
+		// consume the end of line which follows the body.
+		reader.readLine();
+		StdioResponse response;
+		synchronized (pendingResponses) {
+			response = pendingResponses.get(id);
+		}
+		if (response != null) {
+			response.complete(status, new String(body), null);
+		}
+	}
+
+	@Override
+	public void dispose() {
+		synchronized (pendingResponses) {
+			disposed = true;
+			for (StdioResponse response : pendingResponses.values()) {
+				response.complete(0, null, new IOException(
+						"node.js process is stopped."));
+			}
+			pendingResponses.clear();
+		}
+		IOUtils.closeQuietly(writer);
+	}
+}
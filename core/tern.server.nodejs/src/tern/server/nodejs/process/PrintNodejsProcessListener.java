@@ -59,6 +59,34 @@ public class PrintNodejsProcessListener extends NodejsProcessAdapter {
 				+ process.getElapsedStartTime());
 	}
 
+	@Override
+	public void onStartPhase(NodejsProcess process, NodejsStartPhase phase,
+			String name, long time) {
+		System.out.println(getStartPhaseMessage(phase, name, time));
+	}
+
+	/**
+	 * Returns the message which describes the given start phase.
+	 * 
+	 * @param phase
+	 * @param name
+	 * @param time
+	 * @return the message which describes the given start phase.
+	 */
+	public static String getStartPhaseMessage(NodejsStartPhase phase,
+			String name, long time) {
+		if (name != null) {
+			return phase + " " + name + " loaded in " + time + "ms";
+		}
+		return phase + " at " + time + "ms";
+	}
+
+	@Override
+	public void onResourceUsage(NodejsProcess process,
+			NodejsProcessUsage usage) {
+		System.out.println("Server at " + process.getPort() + " uses " + usage);
+	}
+
 	@Override
 	public void onData(NodejsProcess process, String line) {
 		System.out.println(line);
@@ -0,0 +1,37 @@
+/**
+ *  Copyright (c) 2013-2014 Angelo ZERR.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *  Angelo Zerr <angelo.zerr@gmail.com> - initial API and implementation
+ */
+package tern.server.nodejs.process;
+
+/**
+ * Policy which shares one node.js process between all the projects which have
+ * the same node.js configuration. A project which loads local plugins has its
+ * own process: a plugin is registered in tern by its name when its module is
+ * loaded, so local plugins of two projects which have the same name would
+ * conflict.
+ */
+public class SharedNodejsHostPolicy implements INodejsHostPolicy {
+
+	private static final INodejsHostPolicy INSTANCE = new SharedNodejsHostPolicy();
+
+	private static final String SHARED_HOST_ID = "shared";
+
+	public static INodejsHostPolicy getInstance() {
+		return INSTANCE;
+	}
+
+	@Override
+	public String getHostId(NodejsProcess process) {
+		if (process.isLoadingLocalPlugins()) {
+			return null;
+		}
+		return SHARED_HOST_ID;
+	}
+}
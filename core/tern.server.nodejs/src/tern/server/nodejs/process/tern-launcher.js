@@ -0,0 +1,265 @@
+// Starts the tern server of bin/tern (given as first argument) and reports
+// its pid as "#tern-pid <pid>" and the phases of its startup on stdout. With
+// the --stdio argument, the tern requests are served over stdin/stdout
+// instead of a localhost HTTP server.
+//
+// A startup phase is written on stdout as "#tern-phase <phase>" for
+// "spawn", "ternLoaded", "pluginsLoaded" and "defsLoaded", and as
+// "#tern-phase <phase> <ms> <name>" for "plugin" and "def" with the time in
+// ms taken to load the named plugin or def.
+//
+// With --stdio, a request is one line on stdin: "<id> <JSON tern doc>".
+// A response is written on stdout as
+// "#tern-response <id> <status> <length>\n<body>\n" where status is the HTTP
+// status that bin/tern would have returned and length is the length of the
+// body in UTF-16 chars. Other lines written on stdout are tern logs.
+//
+// With the --multi-project argument, the process hosts the tern servers of
+// several projects: a tern doc is posted to
+// "/project/<URI encoded project dir>/" and bin/tern is run for the project
+// directory by its first request, without opening a port. The modules of the
+// plugins are loaded once and shared by the projects, the JSON defs are read
+// once and parsed by each project. The doc {"close": true} releases the tern
+// server of the project.
+
+var fs = require("fs"), path = require("path"), Module = require("module");
+
+var PID_PREFIX = "#tern-pid ";
+var PHASE_PREFIX = "#tern-phase ";
+var RESPONSE_PREFIX = "#tern-response ";
+
+function phase(name, time, item) {
+  process.stdout.write(PHASE_PREFIX + name + (item != null ? " " + time + " " + item : "") + "\n");
+}
+
+process.stdout.write(PID_PREFIX + process.pid + "\n");
+phase("spawn");
+
+var ternFile = fs.realpathSync(process.argv[2]);
+var ternDir = path.resolve(path.dirname(ternFile), "..");
+
+// bin/tern requires the cached modules.
+var tern = require(path.resolve(ternDir, "lib/tern"));
+var def = require(path.resolve(ternDir, "lib/infer")).def;
+phase("ternLoaded");
+
+if (process.argv.indexOf("--multi-project") > -1) {
+  serveProjects();
+} else {
+  reportPhases();
+  if (process.argv.indexOf("--stdio") > -1) serveStdio();
+  require(ternFile);
+}
+
+function reportPhases() {
+  // the modules required by bin/tern which are not plugins.
+  var ternModules = ["../lib/tern", "fs", "path", "url", "glob", "minimatch", "http"];
+  var moduleLoad = Module._load;
+  Module._load = function(request, parent) {
+    if (!parent || parent.filename != ternFile || ternModules.indexOf(request) > -1)
+      return moduleLoad.apply(this, arguments);
+    var start = Date.now();
+    var result = moduleLoad.apply(this, arguments);
+    phase("plugin", Date.now() - start, path.basename(request, ".js"));
+    return result;
+  };
+
+  var defLoad = def.load;
+  def.load = function(data) {
+    var start = Date.now();
+    var result = defLoad.apply(this, arguments);
+    phase("def", Date.now() - start, data && data["!name"] || "?");
+    return result;
+  };
+
+  // bin/tern creates the tern server once the plugins are loaded, the defs
+  // are loaded by the server constructor.
+  var Server = tern.Server;
+  tern.Server = function(options) {
+    Module._load = moduleLoad;
+    phase("pluginsLoaded");
+    Server.call(this, options);
+    def.load = defLoad;
+    tern.Server = Server;
+    phase("defsLoaded");
+  };
+  tern.Server.prototype = Server.prototype;
+}
+
+function serveStdio() {
+  var http = require("http"), events = require("events");
+
+  // bin/tern creates its HTTP server with http.createServer: keep its request
+  // handler and don't open any port.
+  var handler = null;
+  http.createServer = function(requestHandler) {
+    handler = requestHandler;
+    return {
+      listen: function(port, host, callback) { process.nextTick(callback); },
+      address: function() { return {port: 0}; }
+    };
+  };
+
+  function writeResponse(id, status, body) {
+    body = body == null ? "" : String(body);
+    process.stdout.write(RESPONSE_PREFIX + id + " " + status + " " + body.length + "\n" + body + "\n");
+  }
+
+  function dispatch(line) {
+    var sep = line.indexOf(" ");
+    if (sep < 0) return;
+    var id = line.slice(0, sep), doc = line.slice(sep + 1);
+    var req = new events.EventEmitter(), status = 200;
+    req.url = "/";
+    req.method = "POST";
+    var resp = {
+      writeHead: function(code) { status = code; },
+      end: function(text) { writeResponse(id, status, text); }
+    };
+    handler(req, resp);
+    req.emit("data", doc);
+    req.emit("end");
+  }
+
+  // the chunks of the current line are joined only when its end is read, so
+  // that a large uploaded file is not copied and scanned again on each chunk.
+  var pending = [];
+  process.stdin.setEncoding("utf8");
+  process.stdin.on("data", function(chunk) {
+    var start = 0, end;
+    while ((end = chunk.indexOf("\n", start)) > -1) {
+      pending.push(chunk.slice(start, end));
+      var line = pending.join("");
+      pending = [];
+      start = end + 1;
+      if (line) dispatch(line);
+    }
+    if (start < chunk.length) pending.push(chunk.slice(start));
+  });
+}
+
+function serveProjects() {
+  var http = require("http"), url = require("url"), events = require("events");
+  var source = fs.readFileSync(ternFile, "utf8").replace(/^#!.*/, "");
+
+  var persistent = process.argv.indexOf("--persistent") > -1;
+  var verbose = process.argv.indexOf("--verbose") > -1;
+  var port = 0, portArg = process.argv.indexOf("--port");
+  if (portArg > -1) port = Number(process.argv[portArg + 1]) || 0;
+  var maxIdleTime = 6e4 * 5; // Shut down after five minutes of inactivity
+
+  // the request handlers of the bin/tern of each project by project dir.
+  var handlers = Object.create(null);
+  // the text of the JSON files (defs) read by the projects, read once. Each
+  // project parses its own copy: a plugin can modify the defs it loads.
+  var jsonFiles = Object.create(null);
+
+  // each bin/tern listens to the end of stdin.
+  process.stdin.setMaxListeners(0);
+
+  // Runs bin/tern for the given dir and returns its request handler. bin/tern
+  // reads the .tern-project file of the current directory, loads the defs and
+  // the plugins and creates its HTTP server: the current directory is the
+  // given dir, the HTTP server doesn't listen and the host manages the idle
+  // shutdown. The plugin modules are loaded once by the module cache.
+  function startProject(dir) {
+    var handler = null, saved = {
+      cwd: process.cwd, argv: process.argv, exit: process.exit,
+      createServer: http.createServer, readFileSync: fs.readFileSync
+    };
+    process.cwd = function() { return dir; };
+    process.argv = saved.argv.concat(["--persistent", "--no-port-file"]);
+    process.exit = function() {
+      // the error of a project doesn't stop the other projects.
+      throw new Error("Cannot start the tern server of " + dir);
+    };
+    http.createServer = function(requestHandler) {
+      handler = requestHandler;
+      return {listen: function() {}};
+    };
+    fs.readFileSync = function(fileName, encoding) {
+      if (!/\.json$/.test(fileName)) return saved.readFileSync.apply(fs, arguments);
+      var mtime = fs.statSync(fileName).mtime.getTime(), cached = jsonFiles[fileName];
+      if (!cached || cached.mtime != mtime)
+        cached = jsonFiles[fileName] = {mtime: mtime, text: saved.readFileSync.apply(fs, arguments)};
+      return cached.text;
+    };
+    try {
+      var ternModule = new Module(ternFile, module);
+      ternModule.filename = ternFile;
+      ternModule.paths = Module._nodeModulePaths(path.dirname(ternFile));
+      ternModule._compile(source, ternFile);
+    } finally {
+      process.cwd = saved.cwd;
+      process.argv = saved.argv;
+      process.exit = saved.exit;
+      http.createServer = saved.createServer;
+      fs.readFileSync = saved.readFileSync;
+    }
+    return handler;
+  }
+
+  function doShutdown() {
+    if (persistent) return;
+    console.log("Was idle for " + Math.floor(maxIdleTime / 6e4) + " minutes. Shutting down.");
+    process.exit();
+  }
+
+  var shutdown = setTimeout(doShutdown, maxIdleTime);
+
+  process.stdin.on("end", function() { process.exit(); });
+  process.stdin.resume();
+
+  var httpServer = http.createServer(function(req, resp) {
+    clearTimeout(shutdown);
+    shutdown = setTimeout(doShutdown, maxIdleTime);
+
+    var target = url.parse(req.url, true);
+    if (target.pathname == "/ping") return respondSimple(resp, 200, "pong");
+    var project = /^\/project\/([^\/]+)\/$/.exec(target.pathname);
+    if (!project) return respondSimple(resp, 404, "No service at " + target.pathname);
+    var dir = decodeURIComponent(project[1].replace(/\+/g, " "));
+
+    if (req.method == "POST") {
+      var body = "";
+      req.on("data", function (data) { body += data; });
+      req.on("end", function() { respond(resp, dir, body); });
+    } else if (req.method == "GET") {
+      if (target.query.doc) respond(resp, dir, target.query.doc);
+      else respondSimple(resp, 400, "Missing query document");
+    }
+  });
+  httpServer.listen(port, "127.0.0.1", function() {
+    process.on("SIGINT", function() { process.exit(); });
+    process.on("SIGTERM", function() { process.exit(); });
+    console.log("Listening on port " + httpServer.address().port);
+  });
+
+  function respondSimple(resp, status, text) {
+    resp.writeHead(status, {"content-type": "text/plain"});
+    resp.end(text);
+    if (verbose) console.log("Response: " + status + " " + text);
+  }
+
+  function respond(resp, dir, doc) {
+    if (doc.length < 64 && /^\s*\{\s*"close"\s*:\s*true\s*\}\s*$/.test(doc)) {
+      delete handlers[dir];
+      return respondSimple(resp, 200, "{}");
+    }
+    var handler = handlers[dir];
+    if (!handler) {
+      try {
+        handler = handlers[dir] = startProject(dir);
+      } catch (e) {
+        return respondSimple(resp, 400, String(e.message || e));
+      }
+    }
+    // the doc is posted to the HTTP server of bin/tern.
+    var req = new events.EventEmitter();
+    req.url = "/";
+    req.method = "POST";
+    handler(req, resp);
+    req.emit("data", doc);
+    req.emit("end");
+  }
+}
@@ -103,6 +103,13 @@ public class RhinoTernServer extends AbstractTernServer {
 		loader.loadScript(cx, ternScope, src);
 	}
 
+	@Override
+	public int getMaxAsyncRequests() {
+		// the tern scope is not thread-safe, execute asynchronous requests one
+		// by one.
+		return 1;
+	}
+
 	public void addDef(ITernDef def) throws TernException {
 		addDef(def, loader);
 	}
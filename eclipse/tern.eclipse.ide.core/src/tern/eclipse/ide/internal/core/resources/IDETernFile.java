@@ -26,6 +26,7 @@ import tern.ITernFile;
 import tern.ITernProject;
 import tern.TernResourcesManager;
 import tern.resources.AbstractTernFile;
+import tern.resources.TernContentsCache;
 import tern.utils.IOUtils;
 
 public class IDETernFile extends AbstractTernFile implements ITernFile {
@@ -72,16 +73,38 @@ public class IDETernFile extends AbstractTernFile implements ITernFile {
 	@Override
 	public String getContents() throws IOException {
 		try {
-			InputStream input = iFile.getContents();
-			try {
-				return IOUtils.toString(input, iFile.getCharset());
-			} finally {
-				input.close();
+			long stamp = iFile.getLocalTimeStamp();
+			IPath location = iFile.getLocation();
+			if (stamp == IResource.NULL_STAMP || location == null) {
+				return readContents(iFile.getCharset());
 			}
+			// the contents is cached while the file is not modified, with
+			// the same key as a FilesystemTernFile of the file.
+			File file = location.toFile();
+			String path = file.getCanonicalPath();
+			long size = file.length();
+			String charset = iFile.getCharset();
+			TernContentsCache cache = TernContentsCache.getInstance();
+			String contents = cache.get(path, stamp, size, charset);
+			if (contents == null) {
+				contents = readContents(charset);
+				cache.put(path, stamp, size, charset, contents);
+			}
+			return contents;
 		} catch (CoreException e) {
 			throw new IOException(e);
 		}
 	}
+
+	private String readContents(String charset) throws CoreException,
+			IOException {
+		InputStream input = iFile.getContents();
+		try {
+			return IOUtils.toString(input, charset);
+		} finally {
+			input.close();
+		}
+	}
 	
 	@Override
 	public Object getAdapter(@SuppressWarnings("rawtypes") Class adapterClass) {
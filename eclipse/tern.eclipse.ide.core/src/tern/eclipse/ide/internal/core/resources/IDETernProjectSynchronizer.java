@@ -35,6 +35,12 @@ import tern.resources.TernProject;
 public class IDETernProjectSynchronizer implements IResourceChangeListener,
 		IResourceDeltaVisitor {
 
+	/**
+	 * Flags of a resource delta which can change the content of a file.
+	 */
+	private static final int CONTENT_CHANGES = IResourceDelta.CONTENT
+			| IResourceDelta.REPLACED | IResourceDelta.ENCODING;
+
 	private static final IDETernProjectSynchronizer INSTANCE = new IDETernProjectSynchronizer();
 
 	public static IDETernProjectSynchronizer getInstance() {
@@ -149,6 +155,12 @@ public class IDETernProjectSynchronizer implements IResourceChangeListener,
 							.getFileSynchronizer())
 							.addFileToDelete((IFile) resource);
 					break;
+				case IResourceDelta.CHANGED:
+					if ((delta.getFlags() & CONTENT_CHANGES) == 0) {
+						// markers or properties changes.
+						break;
+					}
+					//$FALL-THROUGH$
 				default:
 					((IDETernFileSynchronizer) ternProject
 							.getFileSynchronizer())
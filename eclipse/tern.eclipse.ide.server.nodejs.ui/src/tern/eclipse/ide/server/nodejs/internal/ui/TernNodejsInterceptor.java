@@ -25,6 +25,9 @@ import tern.eclipse.ide.ui.console.LineType;
 import tern.server.LoggingInterceptor;
 import tern.server.nodejs.process.INodejsProcessListener;
 import tern.server.nodejs.process.NodejsProcess;
+import tern.server.nodejs.process.NodejsProcessUsage;
+import tern.server.nodejs.process.NodejsStartPhase;
+import tern.server.nodejs.process.PrintNodejsProcessListener;
 import tern.utils.IOUtils;
 
 public class TernNodejsInterceptor extends LoggingInterceptor implements
@@ -115,6 +118,19 @@ public class TernNodejsInterceptor extends LoggingInterceptor implements
 				+ process.getElapsedStartTime() + "ms");
 	}
 
+	@Override
+	public void onStartPhase(NodejsProcess process, NodejsStartPhase phase,
+			String name, long time) {
+		outProcessPrintln(PrintNodejsProcessListener.getStartPhaseMessage(
+				phase, name, time));
+	}
+
+	@Override
+	public void onResourceUsage(NodejsProcess process,
+			NodejsProcessUsage usage) {
+		// the usage is collected periodically, don't fill the console.
+	}
+
 	@Override
 	public void onData(NodejsProcess process, String line) {
 		outProcessPrintln(line);